@@ -2,8 +2,14 @@ package com.eastrobot.arch.llms.chat;
 
 import com.eastrobot.arch.llms.chat.api.LlmsAiApi;
 import com.eastrobot.arch.llms.chat.client.ChatClient;
+import com.eastrobot.arch.llms.chat.client.advisor.ResponseCacheAdvisor;
+import com.eastrobot.arch.llms.chat.client.advisor.SemanticCacheAdvisor;
 import com.eastrobot.arch.llms.chat.model.ChatModel;
+import com.eastrobot.arch.llms.chat.model.FallbackChatModel;
+import com.eastrobot.arch.llms.chat.model.SingleFlightChatModel;
 import com.eastrobot.arch.llms.chat.openai.OpenAiChatOptions;
+import com.eastrobot.arch.llms.common.RetryUtil;
+import com.eastrobot.arch.llms.retry.RetryBudget;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
@@ -12,7 +18,11 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
 import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -62,6 +72,17 @@ public class ChatModelProvider implements ApplicationRunner {
         CHAT_AI_API.put(model, api);
     }
 
+    public static Map<String, LlmsAiApi> apis() {
+        return Collections.unmodifiableMap(CHAT_AI_API);
+    }
+
+
+    /**
+     * 模型的重试预算, 包含首次请求、重试与预算耗尽的累计次数
+     */
+    public static RetryBudget retryBudget(String model) {
+        return RetryUtil.retryBudget(model);
+    }
 
     public static ChatModel model(String model) {
         Assert.state(model != null, "The model name and options cannot be null!");
@@ -73,6 +94,54 @@ public class ChatModelProvider implements ApplicationRunner {
         return CHAT_CLIENTS.get(model);
     }
 
+    /**
+     * 按配置的降级模型组合为 {@link FallbackChatModel}, 降级模型自身的降级链不再展开
+     */
+    private static ChatModel fallback(String model, ChatModel chatModel) {
+        ChatProperties props = CHAT_METAS.get(model);
+        if (props == null || props.getFallback() == null || props.getFallback().isEmpty())
+            return null;
+        List<ChatModel> models = new ArrayList<>();
+        models.add(chatModel);
+        for (String name : props.getFallback()) {
+            ChatModel fallback = CHAT_MODELS.get(name);
+            if (fallback == null || fallback == chatModel)
+                log.warn("The fallback model:【{}】 of 【{}】 is not found, skip it!", name, model);
+            else
+                models.add(fallback);
+        }
+        return models.size() > 1 ? new FallbackChatModel(models) : null;
+    }
+
+    /**
+     * 模型的 {@link SemanticCacheAdvisor} 构建器, 已设置缓存名与模型默认选项, 调用方补充向量化函数后构建
+     */
+    public static SemanticCacheAdvisor.Builder semanticCache(String model) {
+        ChatModel chatModel = model(model);
+        Assert.state(chatModel != null, "The chat model:【" + model + "】 is not found!");
+        return SemanticCacheAdvisor.builder()
+                .withName(model)
+                .withDefaultOptions(chatModel.getDefaultOptions());
+    }
+
+    /**
+     * 按配置为客户端加上 {@link ResponseCacheAdvisor}
+     */
+    private static ChatClient responseCache(String model, ChatModel chatModel) {
+        ChatProperties props = CHAT_METAS.get(model);
+        if (props == null || props.getResponseCache() == null || !props.getResponseCache().isEnabled())
+            return null;
+        ChatProperties.ResponseCache cache = props.getResponseCache();
+        ResponseCacheAdvisor.Builder builder = ResponseCacheAdvisor.builder()
+                .withName(model)
+                .withDefaultOptions(chatModel.getDefaultOptions())
+                .withMaximumBytes(cache.getMaximumBytes())
+                .withAllowNonZeroTemperature(cache.isAllowNonZeroTemperature());
+        if (cache.getTtl() != null && cache.getTtl() > 0)
+            builder.withTtl(Duration.ofMillis(cache.getTtl()));
+        return ChatClient.builder(chatModel).defaultAdvisors(builder.build()).build();
+    }
+
     @Override
     public void run(ApplicationArguments args) throws Exception {
         Map<String, ChatModel> map = applicationContext.getBeansOfType(ChatModel.class);
@@ -82,6 +151,29 @@ public class ChatModelProvider implements ApplicationRunner {
             CHAT_MODELS.put(model, chatModel);
             CHAT_CLIENTS.put(model, ChatClient.create(chatModel));
         }
+        Map<String, ChatModel> fallbacks = new HashMap<>();
+        CHAT_MODELS.forEach((model, chatModel) -> {
+            ChatModel fallback = fallback(model, chatModel);
+            if (fallback != null)
+                fallbacks.put(model, fallback);
+        });
+        fallbacks.forEach((model, chatModel) -> {
+            CHAT_MODELS.put(model, chatModel);
+            CHAT_CLIENTS.put(model, ChatClient.create(chatModel));
+        });
+        CHAT_MODELS.replaceAll((model, chatModel) -> {
+            ChatProperties props = CHAT_METAS.get(model);
+            if (props == null || props.getSingleFlight() == null || !props.getSingleFlight().isEnabled())
+                return chatModel;
+            ChatModel singleFlight = new SingleFlightChatModel(chatModel, props.getSingleFlight().isAllowNonZeroTemperature());
+            CHAT_CLIENTS.put(model, ChatClient.create(singleFlight));
+            return singleFlight;
+        });
+        CHAT_MODELS.forEach((model, chatModel) -> {
+            ChatClient client = responseCache(model, chatModel);
+            if (client != null)
+                CHAT_CLIENTS.put(model, client);
+        });
         if (log.isDebugEnabled()) {
             CHAT_MODELS.forEach((k, v) -> log.debug("chat model:{} | {}", k, v));
             CHAT_CLIENTS.forEach((k, v) -> log.debug("chat client:{} | {}", k, v));
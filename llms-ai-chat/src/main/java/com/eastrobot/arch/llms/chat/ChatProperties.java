@@ -3,6 +3,7 @@ package com.eastrobot.arch.llms.chat;
 import com.eastrobot.arch.llms.chat.openai.OpenAiChatOptions;
 import lombok.Data;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,6 +44,47 @@ public class ChatProperties {
      * custom header
      */
     private Map<String, List<String>> headers = new HashMap<>();
+    /**
+     * 同一模型的多个部署节点
+     */
+    private List<Endpoint> endpoints = new ArrayList<>();
+    /**
+     * 降级模型名称
+     */
+    private List<String> fallback = new ArrayList<>();
+    /**
+     * 合并并发的相同请求
+     */
+    private SingleFlight singleFlight = new SingleFlight();
+    /**
+     * 精确匹配的响应缓存
+     */
+    private ResponseCache responseCache = new ResponseCache();
+    /**
+     * 是否支持 response_format 为 json_schema
+     */
+    private boolean jsonSchema = false;
 
     private OpenAiChatOptions options;
+
+    @Data
+    public static class Endpoint {
+        private String baseUrl;
+        private String apiKey;
+        private int weight = 1;
+    }
+
+    @Data
+    public static class SingleFlight {
+        private boolean enabled = false;
+        private boolean allowNonZeroTemperature = false;
+    }
+
+    @Data
+    public static class ResponseCache {
+        private boolean enabled = false;
+        private long maximumBytes = 64 * 1024 * 1024;
+        private Integer ttl = 600000;
+        private boolean allowNonZeroTemperature = false;
+    }
 }
@@ -1,18 +1,39 @@
 package com.eastrobot.arch.llms.chat.api;
 
+import com.eastrobot.arch.llms.balancer.Endpoint;
+import com.eastrobot.arch.llms.balancer.LoadBalancer;
+import com.eastrobot.arch.llms.chat.openai.metadata.support.OpenAiResponseHeaderExtractor;
 import com.eastrobot.arch.llms.common.ApiUtils;
+import com.eastrobot.arch.llms.common.RetryUtil;
+import com.eastrobot.arch.llms.common.SseJsonDecoder;
+import com.eastrobot.arch.llms.limiter.ConcurrencyLimiter;
+import com.eastrobot.arch.llms.limiter.RateLimiter;
 import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import com.eastrobot.arch.llms.retry.CircuitBreaker;
+import com.eastrobot.arch.llms.retry.HedgePolicy;
+import com.eastrobot.arch.llms.retry.StreamTimeoutException;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -35,6 +56,39 @@ public class LlmsAiApi {
     protected String baseUrl;
     protected String apiKey;
     protected String uri;
+    /**
+     * 客户端限流, 为空时不限流
+     */
+    protected RateLimiter rateLimiter;
+    /**
+     * 多节点时每个节点独立的限流桶(按节点 id), 各节点可能使用不同的 apiKey 与额度;
+     * 非空时替代 {@link #rateLimiter}, 选中节点后再获取该节点的额度, 并只用该节点的响应头同步
+     */
+    protected Map<String, RateLimiter> endpointRateLimiters;
+    /**
+     * 自适应并发限制, 为空时不限制
+     */
+    protected ConcurrencyLimiter concurrencyLimiter;
+    /**
+     * 同一模型的多节点负载均衡, 为空时只使用 baseUrl 对应的 webClient
+     */
+    protected LoadBalancer<WebClient> loadBalancer;
+    /**
+     * 对冲请求, 为空时不对冲
+     */
+    protected HedgePolicy hedgePolicy;
+    /**
+     * 熔断器, 为空时不熔断
+     */
+    protected CircuitBreaker circuitBreaker;
+    /**
+     * 流式请求的首个数据块超时, 为空时只受 readTimeout 限制
+     */
+    protected Duration firstTokenTimeout;
+    /**
+     * 流式请求两个数据块之间的最大间隔, 为空时只受 readTimeout 限制
+     */
+    protected Duration idleTimeout;
 
     public LlmsAiApi(String modelName, String baseUrl) {
         this(modelName, baseUrl, null);
@@ -64,7 +118,34 @@ public class LlmsAiApi {
     }
 
     public <TReq, TRes> TRes chatCompletionEntity(TReq chatRequest, Class<TRes> clazz) {
-        return this.webClient
+        return this.chatCompletionEntityMono(chatRequest, clazz).block();
+    }
+
+    public <TReq, TRes> TRes chatCompletionEntity(TReq chatRequest, Function<String, TRes> parseFunc) {
+        return this.chatCompletionEntityMono(chatRequest, parseFunc).block();
+    }
+
+    public String chatCompletion(String callJson) {
+        return this.chatCompletionMono(callJson).block();
+    }
+
+    /**
+     * Non-blocking variant of {@link #chatCompletionEntity(Object, Class)}, the calling thread is released while
+     * waiting for the model response.
+     */
+    public <TReq, TRes> Mono<TRes> chatCompletionEntityMono(TReq chatRequest, Class<TRes> clazz) {
+        return this.chatCompletionResponseMono(chatRequest, clazz, 0)
+                .mapNotNull(ResponseEntity::getBody);
+    }
+
+    /**
+     * 返回带响应头的结果, 请求发出前经过客户端限流, 响应头(含 429)用于同步限流额度
+     *
+     * @param estimatedTokens 预估消耗的 token 数, 用于 token 维度限流
+     */
+    public <TReq, TRes> Mono<ResponseEntity<TRes>> chatCompletionResponseMono(TReq chatRequest, Class<TRes> clazz,
+                                                                             long estimatedTokens) {
+        return this.limited(estimatedTokens, client -> client
                 .post()
                 .uri(uri)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -72,13 +153,12 @@ public class LlmsAiApi {
                 .acceptCharset(StandardCharsets.UTF_8)
                 .body(Mono.just(chatRequest), chatRequest.getClass())
                 .retrieve()
-                .bodyToMono(clazz)
-                .block()
+                .toEntity(clazz))
                 ;
     }
 
-    public <TReq, TRes> TRes chatCompletionEntity(TReq chatRequest, Function<String, TRes> parseFunc) {
-        return this.webClient
+    public <TReq, TRes> Mono<TRes> chatCompletionEntityMono(TReq chatRequest, Function<String, TRes> parseFunc) {
+        return this.limited(0, client -> client
                 .post()
                 .uri(uri)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -86,14 +166,14 @@ public class LlmsAiApi {
                 .acceptCharset(StandardCharsets.UTF_8)
                 .body(Mono.just(chatRequest), chatRequest.getClass())
                 .retrieve()
-                .bodyToMono(String.class)
+                .toEntity(String.class))
+                .mapNotNull(ResponseEntity::getBody)
                 .map(parseFunc)
-                .block()
                 ;
     }
 
-    public String chatCompletion(String callJson) {
-        return this.webClient
+    public Mono<String> chatCompletionMono(String callJson) {
+        return this.limited(0, client -> client
                 .post()
                 .uri(uri)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -101,13 +181,34 @@ public class LlmsAiApi {
                 .acceptCharset(StandardCharsets.UTF_8)
                 .bodyValue(callJson)
                 .retrieve()
-                .bodyToMono(String.class)
-                .block()
+                .toEntity(String.class))
+                .mapNotNull(ResponseEntity::getBody)
                 ;
     }
 
     public <TReq, TRes> Flux<TRes> chatCompletionStream(TReq chatRequest, Class<TRes> clazz) {
-        return this.webClient
+        return this.chatCompletionStream(chatRequest, clazz, 0, null);
+    }
+
+    /**
+     * @param estimatedTokens 预估消耗的 token 数, 用于 token 维度限流
+     * @param headersConsumer 收到响应头时回调, 早于第一个数据块
+     */
+    public <TReq, TRes> Flux<TRes> chatCompletionStream(TReq chatRequest, Class<TRes> clazz, long estimatedTokens,
+                                                        Consumer<HttpHeaders> headersConsumer) {
+        return this.chatCompletionStream(chatRequest, clazz, estimatedTokens, headersConsumer, null, null);
+    }
+
+    /**
+     * 超时后取消上游连接并抛出 {@link StreamTimeoutException}, 由重试、负载均衡与熔断按失败处理
+     *
+     * @param firstTokenTimeout 首个数据块超时, 为空时使用 {@link #firstTokenTimeout}
+     * @param idleTimeout       数据块间隔超时, 为空时使用 {@link #idleTimeout}
+     */
+    public <TReq, TRes> Flux<TRes> chatCompletionStream(TReq chatRequest, Class<TRes> clazz, long estimatedTokens,
+                                                        Consumer<HttpHeaders> headersConsumer,
+                                                        Duration firstTokenTimeout, Duration idleTimeout) {
+        return this.limitedMany(estimatedTokens, client -> client
                 .post()
 //                .uri("/v1/chat/completions")
                 .uri(uri)
@@ -116,21 +217,18 @@ public class LlmsAiApi {
                 .acceptCharset(StandardCharsets.UTF_8)
                 .body(Mono.just(chatRequest), chatRequest.getClass())
                 .retrieve()
-                .bodyToFlux(String.class)
-                // cancels the flux stream after the "[DONE]" is received.
-                .takeUntil(SSE_DONE_PREDICATE)
-                // filters out the "[DONE]" message.
-                .filter(SSE_DONE_PREDICATE.negate())
-                .mapNotNull(content -> {
+                .toEntityFlux(DataBuffer.class), headersConsumer, firstTokenTimeout, idleTimeout)
+                // frames the sse events on the raw buffers and cancels the flux stream after the "[DONE]" is received.
+                .transform(body -> SseJsonDecoder.decode(body, clazz))
+                .doOnNext(chunk -> {
                     if (log.isDebugEnabled())
-                        log.debug("chat api stream:{}", content);
-                    return ModelOptionsUtils.jsonToObject(content, clazz);
+                        log.debug("chat api stream:{}", ModelOptionsUtils.toJsonString(chunk));
                 })
                 ;
     }
 
     public <TReq, TRes> Flux<TRes> chatCompletionStream(TReq chatRequest, Function<String, TRes> parseFunc) {
-        return this.webClient
+        return this.limitedMany(0, client -> client
                 .post()
 //                .uri("/v1/chat/completions")
                 .uri(uri)
@@ -139,7 +237,7 @@ public class LlmsAiApi {
                 .acceptCharset(StandardCharsets.UTF_8)
                 .body(Mono.just(chatRequest), chatRequest.getClass())
                 .retrieve()
-                .bodyToFlux(String.class)
+                .toEntityFlux(String.class), null, null, null)
                 // cancels the flux stream after the "[DONE]" is received.
                 .takeUntil(SSE_DONE_PREDICATE)
                 // filters out the "[DONE]" message.
@@ -148,5 +246,364 @@ public class LlmsAiApi {
                 ;
     }
 
+    /**
+     * 请求发出前依次经过熔断、限流额度与并发许可, 收到响应后释放许可
+     */
+    private <T> Mono<ResponseEntity<T>> limited(long estimatedTokens, Function<WebClient, Mono<ResponseEntity<T>>> exchange) {
+        return this.guarded(breaker -> {
+            Mono<ResponseEntity<T>> balanced = this.measured(breaker, this.balanced(estimatedTokens, (client, rateLimiter) -> synced(rateLimiter, exchange.apply(client))));
+            ConcurrencyLimiter limiter = this.concurrencyLimiter;
+            Mono<ResponseEntity<T>> limited = limiter == null ? balanced : limiter.acquire()
+                    .flatMap(permit -> balanced
+                            .doOnSuccess(entity -> permit.success())
+                            .doOnError(e -> release(permit, e))
+                            .doOnCancel(permit::ignore));
+            return this.acquireRate(estimatedTokens).then(limited);
+        });
+    }
+
+    /**
+     * 流式请求的并发许可持续到响应体结束, 以首个数据块的耗时作为 TTFT 样本
+     */
+    private <T> Flux<T> limitedMany(long estimatedTokens, Function<WebClient, Mono<ResponseEntity<Flux<T>>>> exchange,
+                                    Consumer<HttpHeaders> headersConsumer, Duration firstTokenTimeout, Duration idleTimeout) {
+        Duration firstToken = firstTokenTimeout != null ? firstTokenTimeout : this.firstTokenTimeout;
+        Duration idle = idleTimeout != null ? idleTimeout : this.idleTimeout;
+        return this.guardedMany(breaker -> {
+            Flux<T> body = this.measuredMany(breaker, this.balancedMany(estimatedTokens, (client, rateLimiter) -> timed(synced(rateLimiter, exchange.apply(client)).flatMapMany(entity -> {
+                if (headersConsumer != null)
+                    headersConsumer.accept(entity.getHeaders());
+                return entity.getBody() != null ? entity.getBody() : Flux.<T>empty();
+            }), firstToken, idle)));
+            ConcurrencyLimiter limiter = this.concurrencyLimiter;
+            Flux<T> limited = limiter == null ? body : limiter.acquire()
+                    .flatMapMany(permit -> body
+                            .doOnNext(chunk -> permit.firstToken())
+                            .doOnComplete(permit::success)
+                            .doOnError(e -> release(permit, e))
+                            // "[DONE]" 之后由解码器取消, TTFT 已采样, 只释放
+                            .doOnCancel(permit::ignore));
+            return this.acquireRate(estimatedTokens).thenMany(limited);
+        });
+    }
+
+    /**
+     * 熔断打开时在获取限流额度之前快速失败; 未实际发出的请求(如被限流拒绝)不计入熔断窗口
+     */
+    private <T> Mono<T> guarded(Function<CircuitBreaker.Permit, Mono<T>> call) {
+        CircuitBreaker breaker = this.circuitBreaker;
+        if (breaker == null)
+            return call.apply(null);
+        return Mono.defer(() -> {
+            CircuitBreaker.Permit permit = breaker.acquire();
+            return call.apply(permit).doFinally(signal -> permit.ignore());
+        });
+    }
+
+    private <T> Flux<T> guardedMany(Function<CircuitBreaker.Permit, Flux<T>> call) {
+        CircuitBreaker breaker = this.circuitBreaker;
+        if (breaker == null)
+            return call.apply(null);
+        return Flux.defer(() -> {
+            CircuitBreaker.Permit permit = breaker.acquire();
+            return call.apply(permit).doFinally(signal -> permit.ignore());
+        });
+    }
+
+    /**
+     * 从请求实际发出开始计时, 记录调用结果
+     */
+    private <T> Mono<T> measured(CircuitBreaker.Permit permit, Mono<T> call) {
+        if (permit == null)
+            return call;
+        return call.doOnSubscribe(s -> permit.start())
+                .doOnSuccess(result -> permit.success())
+                .doOnError(e -> release(permit, e))
+                .doOnCancel(permit::cancel);
+    }
+
+    private <T> Flux<T> measuredMany(CircuitBreaker.Permit permit, Flux<T> call) {
+        if (permit == null)
+            return call;
+        return call.doOnSubscribe(s -> permit.start())
+                .doOnNext(chunk -> permit.firstToken())
+                .doOnComplete(permit::success)
+                .doOnError(e -> release(permit, e))
+                .doOnCancel(permit::cancel);
+    }
+
+    /**
+     * 启用对冲时, 首个请求超过最近耗时的分位值仍未返回则向另一节点发出相同请求, 先返回结果者胜出, 另一个被取消;
+     * 首个请求失败时等待已发出的对冲请求, 两者都失败或未发出对冲时以首个请求的异常为准
+     */
+    private <T> Mono<T> balanced(long estimatedTokens, BiFunction<WebClient, RateLimiter, Mono<T>> exchange) {
+        HedgePolicy hedge = this.hedgePolicy;
+        if (hedge == null || !this.hedgeable())
+            return this.attempt(exchange, estimatedTokens, null, null);
+        return Mono.defer(() -> {
+            Duration delay = hedge.delay(false);
+            AtomicReference<Endpoint<WebClient>> primary = new AtomicReference<>();
+            long start = System.nanoTime();
+            // 被对冲请求取消的耗时是截断样本, 不计入
+            Mono<T> first = this.attempt(exchange, estimatedTokens, primary, null)
+                    .doOnSuccess(result -> hedge.record(false, System.nanoTime() - start));
+            if (delay == null)
+                return first;
+            AtomicReference<Throwable> primaryError = new AtomicReference<>();
+            Sinks.Empty<Void> primaryDone = Sinks.empty();
+            Mono<T> second = Mono.delay(delay)
+                    // 首个请求在延迟内结束(包括失败)时不再对冲
+                    .takeUntilOther(primaryDone.asMono())
+                    .flatMap(tick -> this.hedged(hedge, estimatedTokens, this.attempt(exchange, estimatedTokens, null, primary.get())))
+                    .doOnNext(result -> hedge.onWon())
+                    .onErrorResume(e -> Mono.empty());
+            return Mono.firstWithValue(first.doOnError(primaryError::set).doFinally(signal -> primaryDone.tryEmitEmpty()), second)
+                    .onErrorResume(NoSuchElementException.class, e -> primaryError.get() != null ? Mono.error(primaryError.get()) : Mono.empty());
+        });
+    }
+
+    /**
+     * 流式请求以首个数据块到达为准进行对冲, 胜出的流继续输出, 另一个被取消
+     */
+    private <T> Flux<T> balancedMany(long estimatedTokens, BiFunction<WebClient, RateLimiter, Flux<T>> exchange) {
+        HedgePolicy hedge = this.hedgePolicy;
+        if (hedge == null || !this.hedgeable())
+            return this.attemptMany(exchange, estimatedTokens, null, null);
+        return Flux.defer(() -> {
+            Duration delay = hedge.delay(true);
+            AtomicReference<Endpoint<WebClient>> primary = new AtomicReference<>();
+            AtomicBoolean firstToken = new AtomicBoolean();
+            long start = System.nanoTime();
+            Flux<T> first = this.attemptMany(exchange, estimatedTokens, primary, null)
+                    .doOnNext(chunk -> {
+                        if (firstToken.compareAndSet(false, true))
+                            hedge.record(true, System.nanoTime() - start);
+                    });
+            if (delay == null)
+                return first;
+            AtomicReference<Throwable> primaryError = new AtomicReference<>();
+            Sinks.Empty<Void> primaryDone = Sinks.empty();
+            AtomicBoolean won = new AtomicBoolean();
+            Flux<T> second = Mono.delay(delay)
+                    .takeUntilOther(primaryDone.asMono())
+                    .flatMapMany(tick -> this.hedgedMany(hedge, estimatedTokens, this.attemptMany(exchange, estimatedTokens, null, primary.get())))
+                    .doOnNext(chunk -> {
+                        if (won.compareAndSet(false, true))
+                            hedge.onWon();
+                    })
+                    .onErrorResume(e -> Flux.empty());
+            AtomicBoolean received = new AtomicBoolean();
+            return Flux.firstWithValue(first.doOnError(primaryError::set).doFinally(signal -> primaryDone.tryEmitEmpty()), second)
+                    .doOnNext(chunk -> received.lazySet(true))
+                    .onErrorResume(e -> e instanceof NoSuchElementException && !received.get(),
+                            e -> primaryError.get() != null ? Flux.error(primaryError.get()) : Flux.empty());
+        });
+    }
+
+    /**
+     * 对冲需要至少两个节点, 否则重复请求只会发往同一个慢节点
+     */
+    private boolean hedgeable() {
+        LoadBalancer<WebClient> balancer = this.loadBalancer;
+        return balancer != null && balancer.getEndpoints().size() > 1;
+    }
+
+    /**
+     * 对冲请求不排队也不等待: 并发许可、限流额度与对冲预算都能立即取得时才发出, 否则放弃对冲
+     */
+    private <T> Mono<T> hedged(HedgePolicy hedge, long estimatedTokens, Mono<T> attempt) {
+        ConcurrencyLimiter limiter = this.concurrencyLimiter;
+        ConcurrencyLimiter.Permit permit = limiter == null ? null : limiter.tryAcquire();
+        if (!this.tryHedge(hedge, estimatedTokens, limiter, permit))
+            return Mono.empty();
+        if (permit == null)
+            return attempt;
+        return attempt.doOnSuccess(result -> permit.success())
+                .doOnError(e -> release(permit, e))
+                .doOnCancel(permit::ignore);
+    }
+
+    private <T> Flux<T> hedgedMany(HedgePolicy hedge, long estimatedTokens, Flux<T> attempt) {
+        ConcurrencyLimiter limiter = this.concurrencyLimiter;
+        ConcurrencyLimiter.Permit permit = limiter == null ? null : limiter.tryAcquire();
+        if (!this.tryHedge(hedge, estimatedTokens, limiter, permit))
+            return Flux.empty();
+        if (permit == null)
+            return attempt;
+        return attempt.doOnNext(chunk -> permit.firstToken())
+                .doOnComplete(permit::success)
+                .doOnError(e -> release(permit, e))
+                .doOnCancel(permit::ignore);
+    }
+
+    /**
+     * 限流额度先于对冲预算预占, 预算不足时退回已预占的额度; 按节点限流时在选中节点后预占
+     */
+    private boolean tryHedge(HedgePolicy hedge, long estimatedTokens, ConcurrencyLimiter limiter,
+                             ConcurrencyLimiter.Permit permit) {
+        if (limiter != null && permit == null)
+            return false;
+        RateLimiter rateLimiter = this.sharedRateLimiter();
+        if (rateLimiter == null || rateLimiter.tryAcquire(estimatedTokens)) {
+            if (hedge.tryHedge())
+                return true;
+            if (rateLimiter != null)
+                rateLimiter.refund(estimatedTokens);
+        }
+        if (permit != null)
+            permit.ignore();
+        return false;
+    }
+
+    /**
+     * 配置了多节点时, 每次订阅按 Context 中的路由键选择节点并记录节点的耗时与失败; 否则使用默认节点。
+     * 按节点限流时选中节点后再获取该节点的额度, 对冲请求额度不足时放弃
+     *
+     * @param chosen  记录选中的节点, 可为空
+     * @param exclude 排除的节点, 即对冲请求的首个请求所在节点, 可为空
+     */
+    private <T> Mono<T> attempt(BiFunction<WebClient, RateLimiter, Mono<T>> exchange, long estimatedTokens,
+                                AtomicReference<Endpoint<WebClient>> chosen, Endpoint<WebClient> exclude) {
+        LoadBalancer<WebClient> balancer = this.loadBalancer;
+        if (balancer == null)
+            return exchange.apply(this.webClient, this.rateLimiter);
+        return Mono.deferContextual(ctx -> {
+            LoadBalancer.Call<WebClient> call = balancer.call(ctx.getOrDefault(LoadBalancer.ROUTING_KEY, null), exclude);
+            if (chosen != null)
+                chosen.set(call.getEndpoint());
+            RateLimiter limiter = this.rateLimiter(call.getEndpoint());
+            Mono<Void> rate = this.acquireRate(limiter, estimatedTokens, exclude != null);
+            if (rate == null) {
+                call.cancel();
+                return Mono.empty();
+            }
+            Mono<T> exchanged = exchange.apply(call.getClient(), limiter)
+                    .doOnSuccess(entity -> call.success())
+                    .doOnError(e -> release(call, e))
+                    .doOnCancel(call::cancel);
+            return rate.doOnError(e -> call.cancel()).doOnCancel(call::cancel).then(exchanged);
+        });
+    }
+
+    private <T> Flux<T> attemptMany(BiFunction<WebClient, RateLimiter, Flux<T>> exchange, long estimatedTokens,
+                                    AtomicReference<Endpoint<WebClient>> chosen, Endpoint<WebClient> exclude) {
+        LoadBalancer<WebClient> balancer = this.loadBalancer;
+        if (balancer == null)
+            return exchange.apply(this.webClient, this.rateLimiter);
+        return Flux.deferContextual(ctx -> {
+            LoadBalancer.Call<WebClient> call = balancer.call(ctx.getOrDefault(LoadBalancer.ROUTING_KEY, null), exclude);
+            if (chosen != null)
+                chosen.set(call.getEndpoint());
+            RateLimiter limiter = this.rateLimiter(call.getEndpoint());
+            Mono<Void> rate = this.acquireRate(limiter, estimatedTokens, exclude != null);
+            if (rate == null) {
+                call.cancel();
+                return Flux.empty();
+            }
+            Flux<T> exchanged = exchange.apply(call.getClient(), limiter)
+                    .doOnNext(chunk -> call.firstToken())
+                    .doOnComplete(call::success)
+                    .doOnError(e -> release(call, e))
+                    .doOnCancel(call::cancel);
+            return rate.doOnError(e -> call.cancel()).doOnCancel(call::cancel).thenMany(exchanged);
+        });
+    }
+
+    /**
+     * 每个节点的请求单独计时: 首个数据块从请求发出开始计时, 之后每收到一个数据块重新计时
+     */
+    private static <T> Flux<T> timed(Flux<T> body, Duration firstToken, Duration idle) {
+        if (!isPositive(firstToken) && !isPositive(idle))
+            return body;
+        return Flux.defer(() -> {
+            AtomicBoolean received = new AtomicBoolean();
+            return body.doOnNext(chunk -> received.lazySet(true))
+                    .timeout(isPositive(firstToken) ? Mono.delay(firstToken) : Mono.never(),
+                            chunk -> isPositive(idle) ? Mono.delay(idle) : Mono.never(),
+                            Flux.defer(() -> Flux.error(received.get()
+                                    ? new StreamTimeoutException(StreamTimeoutException.Kind.IDLE, idle)
+                                    : new StreamTimeoutException(StreamTimeoutException.Kind.FIRST_TOKEN, firstToken))));
+        });
+    }
+
+    private static boolean isPositive(Duration duration) {
+        return duration != null && !duration.isZero() && !duration.isNegative();
+    }
+
+    /**
+     * 按节点限流时在选中节点后获取额度, 这里不再获取
+     */
+    private Mono<Void> acquireRate(long estimatedTokens) {
+        RateLimiter limiter = this.sharedRateLimiter();
+        return limiter == null ? Mono.empty() : limiter.acquire(estimatedTokens);
+    }
+
+    /**
+     * 选中节点后获取该节点的额度; 不按节点限流时额度已在选择节点前获取
+     *
+     * @param hedge 对冲请求不等待
+     * @return 对冲请求额度不足时为 null
+     */
+    private Mono<Void> acquireRate(RateLimiter limiter, long estimatedTokens, boolean hedge) {
+        if (limiter == null || limiter == this.sharedRateLimiter())
+            return Mono.empty();
+        if (hedge)
+            return limiter.tryAcquire(estimatedTokens) ? Mono.empty() : null;
+        return limiter.acquire(estimatedTokens);
+    }
+
+    /**
+     * 所有节点共用的限流桶, 按节点限流时为空
+     */
+    private RateLimiter sharedRateLimiter() {
+        return CollectionUtils.isEmpty(this.endpointRateLimiters) ? this.rateLimiter : null;
+    }
+
+    /**
+     * 节点的限流桶, 未按节点限流时为共用的限流桶
+     */
+    private RateLimiter rateLimiter(Endpoint<WebClient> endpoint) {
+        Map<String, RateLimiter> limiters = this.endpointRateLimiters;
+        return CollectionUtils.isEmpty(limiters) ? this.rateLimiter : limiters.get(endpoint.getId());
+    }
+
+    /**
+     * 收到响应头或 429 时同步服务端额度
+     */
+    private static <T> Mono<ResponseEntity<T>> synced(RateLimiter limiter, Mono<ResponseEntity<T>> exchange) {
+        if (limiter == null)
+            return exchange;
+        return exchange
+                .doOnNext(entity -> limiter.sync(OpenAiResponseHeaderExtractor.extractAiResponseHeaders(entity.getHeaders())))
+                .doOnError(WebClientResponseException.class,
+                        e -> limiter.sync(OpenAiResponseHeaderExtractor.extractAiResponseHeaders(e.getHeaders())));
+    }
+
+    private static void release(ConcurrencyLimiter.Permit permit, Throwable e) {
+        if (RetryUtil.isTransient(e))
+            permit.dropped();
+        else
+            permit.ignore();
+    }
+
+    /**
+     * 4xx 等非瞬时异常说明模型可用, 按成功计入
+     */
+    private static void release(CircuitBreaker.Permit permit, Throwable e) {
+        if (RetryUtil.isTransient(e))
+            permit.failure();
+        else
+            permit.success();
+    }
+
+    /**
+     * 4xx 等非瞬时异常说明节点可达, 按成功计入以重置连续失败次数
+     */
+    private static void release(LoadBalancer.Call<?> call, Throwable e) {
+        if (RetryUtil.isTransient(e))
+            call.failure();
+        else
+            call.success();
+    }
 
 }
@@ -0,0 +1,134 @@
+package com.eastrobot.arch.llms.chat.api;
+
+import com.eastrobot.arch.llms.common.SseJsonDecoder;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.util.Assert;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * <p>OpenAI 兼容的离线批处理接口: 上传 jsonl 文件(/v1/files)、创建与查询批任务(/v1/batches)、流式读取结果文件</p>
+ * 响应类型由调用方传入, 与 {@link LlmsAiApi} 的实体方法一致。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/20 10:30
+ */
+@Getter
+@Setter
+public class LlmsAiBatchApi extends LlmsAiApi {
+
+    public static final String DEFAULT_FILES_URI = "/v1/files";
+    public static final String DEFAULT_BATCHES_URI = "/v1/batches";
+    public static final String DEFAULT_COMPLETION_WINDOW = "24h";
+
+    private String filesUri = DEFAULT_FILES_URI;
+    private String batchesUri = DEFAULT_BATCHES_URI;
+
+    public LlmsAiBatchApi(String modelName, String baseUrl) {
+        this(modelName, baseUrl, null);
+    }
+
+    public LlmsAiBatchApi(String modelName, String baseUrl, String apiKey) {
+        this(modelName, baseUrl, "", apiKey, null, null);
+    }
+
+    public LlmsAiBatchApi(String modelName, String baseUrl, String uri, String apiKey, Function<String, Integer> timeoutProperties, Consumer<HttpHeaders> consumer) {
+        super(modelName, baseUrl, uri, apiKey, timeoutProperties, consumer);
+    }
+
+    /**
+     * 以 multipart 方式上传文件, 文件内容按块读取, 不整体载入内存
+     */
+    public <TRes> Mono<TRes> uploadFile(Path file, String purpose, Class<TRes> clazz) {
+        Assert.notNull(file, "The file must not be null");
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("purpose", purpose);
+        builder.part("file", new FileSystemResource(file));
+        return this.webClient
+                .post()
+                .uri(filesUri)
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .accept(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .retrieve()
+                .bodyToMono(clazz)
+                ;
+    }
+
+    public <TRes> Mono<TRes> createBatch(String inputFileId, String endpoint, String completionWindow, Class<TRes> clazz) {
+        Assert.hasText(inputFileId, "The input file id must not be empty");
+        Map<String, Object> request = new HashMap<>();
+        request.put("input_file_id", inputFileId);
+        request.put("endpoint", endpoint);
+        request.put("completion_window", completionWindow != null ? completionWindow : DEFAULT_COMPLETION_WINDOW);
+        return this.webClient
+                .post()
+                .uri(batchesUri)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .retrieve()
+                .bodyToMono(clazz)
+                ;
+    }
+
+    public <TRes> Mono<TRes> retrieveBatch(String batchId, Class<TRes> clazz) {
+        return this.webClient
+                .get()
+                .uri(batchesUri + "/{batchId}", batchId)
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .bodyToMono(clazz)
+                ;
+    }
+
+    public <TRes> Mono<TRes> cancelBatch(String batchId, Class<TRes> clazz) {
+        return this.webClient
+                .post()
+                .uri(batchesUri + "/{batchId}/cancel", batchId)
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .bodyToMono(clazz)
+                ;
+    }
+
+    public Flux<DataBuffer> fileContent(String fileId) {
+        return this.webClient
+                .get()
+                .uri(filesUri + "/{fileId}/content", fileId)
+                .retrieve()
+                .bodyToFlux(DataBuffer.class)
+                ;
+    }
+
+    /**
+     * 按行流式解析 jsonl 文件, 每行一个对象, 不缓存整个文件
+     */
+    public <TRes> Flux<TRes> fileLines(String fileId, Class<TRes> clazz) {
+        return this.fileContent(fileId).transform(body -> SseJsonDecoder.decode(body, clazz));
+    }
+
+    public Mono<Void> deleteFile(String fileId) {
+        return this.webClient
+                .delete()
+                .uri(filesUri + "/{fileId}", fileId)
+                .retrieve()
+                .bodyToMono(Void.class)
+                ;
+    }
+
+}
@@ -3,6 +3,7 @@ package com.eastrobot.arch.llms.chat.client;
 import com.eastrobot.arch.llms.chat.messages.Message;
 import com.eastrobot.arch.llms.chat.model.ChatModel;
 import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
+import com.eastrobot.arch.llms.chat.prompt.TemplateFormat;
 import com.eastrobot.arch.llms.model.Media;
 import com.eastrobot.arch.llms.retry.RetryPolicy;
 import lombok.AllArgsConstructor;
@@ -37,6 +38,8 @@ public class AdvisedRequest {
     private List<RequestResponseAdvisor> advisors;
     private Map<String, Object> advisorParams;
     private RetryPolicy retryPolicy;
+    private TemplateFormat userTemplateFormat;
+    private TemplateFormat systemTemplateFormat;
 
     public static Builder from(AdvisedRequest from) {
         Builder builder = new Builder();
@@ -53,6 +56,8 @@ public class AdvisedRequest {
         builder.advisors = from.advisors;
         builder.advisorParams = from.advisorParams;
         builder.retryPolicy = from.retryPolicy;
+        builder.userTemplateFormat = from.userTemplateFormat;
+        builder.systemTemplateFormat = from.systemTemplateFormat;
         return builder;
     }
 
@@ -91,6 +96,10 @@ public class AdvisedRequest {
          */
         private RetryPolicy retryPolicy;
 
+        private TemplateFormat userTemplateFormat = TemplateFormat.ST;
+
+        private TemplateFormat systemTemplateFormat = TemplateFormat.ST;
+
         public Builder withChatModel(ChatModel chatModel) {
             this.chatModel = chatModel;
             return this;
@@ -156,11 +165,21 @@ public class AdvisedRequest {
             return this;
         }
 
+        public Builder withUserTemplateFormat(TemplateFormat userTemplateFormat) {
+            this.userTemplateFormat = userTemplateFormat;
+            return this;
+        }
+
+        public Builder withSystemTemplateFormat(TemplateFormat systemTemplateFormat) {
+            this.systemTemplateFormat = systemTemplateFormat;
+            return this;
+        }
+
 
         public AdvisedRequest build() {
             return new AdvisedRequest(chatModel, this.userText, this.systemText, this.chatOptions, this.media,
                     /*this.functionNames, this.functionCallbacks,*/ this.messages, this.userParams, this.systemParams,
-                    this.advisors, this.advisorParams, this.retryPolicy);
+                    this.advisors, this.advisorParams, this.retryPolicy, this.userTemplateFormat, this.systemTemplateFormat);
         }
 
     }
@@ -1,9 +1,12 @@
 package com.eastrobot.arch.llms.chat.client;
 
 import com.eastrobot.arch.llms.chat.messages.Message;
+import com.eastrobot.arch.llms.chat.model.BatchOptions;
 import com.eastrobot.arch.llms.chat.model.ChatResponse;
+import com.eastrobot.arch.llms.chat.model.IndexedChatResponse;
 import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
 import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import com.eastrobot.arch.llms.chat.prompt.TemplateFormat;
 import com.eastrobot.arch.llms.converter.StructuredOutputConverter;
 import com.eastrobot.arch.llms.model.Media;
 import com.eastrobot.arch.llms.chat.model.ChatModel;
@@ -13,6 +16,7 @@ import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.Resource;
 import org.springframework.util.MimeType;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.net.URL;
 import java.nio.charset.Charset;
@@ -68,6 +72,8 @@ public interface ChatClient {
 
         PromptUserSpec media(MimeType mimeType, Resource resource);
 
+        PromptUserSpec templateFormat(TemplateFormat templateFormat);
+
     }
 
     interface PromptSystemSpec {
@@ -82,6 +88,8 @@ public interface ChatClient {
 
         PromptSystemSpec param(String k, Object v);
 
+        PromptSystemSpec templateFormat(TemplateFormat templateFormat);
+
     }
 
     interface RetrySpec {
@@ -117,6 +125,10 @@ public interface ChatClient {
 
         String content();
 
+        Mono<ChatResponse> chatResponseMono();
+
+        Mono<String> contentMono();
+
         <T> ResponseEntity<ChatResponse, T> responseEntity(Class<T> type);
 
         <T> ResponseEntity<ChatResponse, T> responseEntity(ParameterizedTypeReference<T> type);
@@ -127,12 +139,45 @@ public interface ChatClient {
 
     interface StreamResponseSpec {
 
+        /**
+         * 累计输出文本满足条件时结束流并取消上游请求, 文本为只读视图
+         */
+        StreamResponseSpec until(Predicate<CharSequence> condition);
+
+        /**
+         * 输出遇到任一停止序列时结束, 输出不含停止序列
+         */
+        StreamResponseSpec stopSequences(String... sequences);
+
+        /**
+         * 输出达到最大字符数时结束
+         */
+        StreamResponseSpec maxChars(int maxChars);
+
         Flux<ChatResponse> chatResponse();
 
         Flux<String> content();
 
     }
 
+    interface BatchSpec {
+
+        /**
+         * 每条的用户文本, 覆盖请求中的 user text
+         */
+        BatchSpec users(List<String> texts);
+
+        /**
+         * 每条的模板参数, 与请求中的 user params 合并
+         */
+        BatchSpec params(List<Map<String, Object>> params);
+
+        BatchSpec options(BatchOptions options);
+
+        Flux<IndexedChatResponse> chatResponse();
+
+    }
+
     interface ChatClientPromptRequestSpec {
 
         CallPromptResponseSpec call();
@@ -149,6 +194,8 @@ public interface ChatClient {
 
         ChatResponse chatResponse();
 
+        Mono<ChatResponse> chatResponseMono();
+
     }
 
     interface StreamPromptResponseSpec {
@@ -209,6 +256,8 @@ public interface ChatClient {
 
         StreamResponseSpec stream();
 
+        BatchSpec batch();
+
     }
 
 
@@ -1,37 +1,51 @@
 package com.eastrobot.arch.llms.chat.client;
 
+import com.eastrobot.arch.llms.balancer.LoadBalancer;
+import com.eastrobot.arch.llms.chat.client.advisor.AbstractChatMemoryAdvisor;
 import com.eastrobot.arch.llms.chat.messages.Message;
 import com.eastrobot.arch.llms.chat.messages.SystemMessage;
 import com.eastrobot.arch.llms.chat.messages.UserMessage;
+import com.eastrobot.arch.llms.chat.model.BatchExecutor;
+import com.eastrobot.arch.llms.chat.model.BatchOptions;
 import com.eastrobot.arch.llms.chat.model.ChatModel;
 import com.eastrobot.arch.llms.chat.model.ChatResponse;
-import com.eastrobot.arch.llms.chat.model.Generation;
+import com.eastrobot.arch.llms.chat.model.IndexedChatResponse;
+import com.eastrobot.arch.llms.chat.model.StopCondition;
 import com.eastrobot.arch.llms.chat.model.StreamingChatModel;
+import com.eastrobot.arch.llms.chat.openai.OpenAiChatOptions;
+import com.eastrobot.arch.llms.chat.openai.model.ResponseFormat;
 import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
 import com.eastrobot.arch.llms.chat.prompt.Prompt;
 import com.eastrobot.arch.llms.chat.prompt.PromptTemplate;
+import com.eastrobot.arch.llms.chat.prompt.TemplateFormat;
 import com.eastrobot.arch.llms.common.RetryUtil;
 import com.eastrobot.arch.llms.converter.BeanOutputConverter;
+import com.eastrobot.arch.llms.converter.JsonSchemaStats;
 import com.eastrobot.arch.llms.converter.StructuredOutputConverter;
 import com.eastrobot.arch.llms.model.Media;
+import com.eastrobot.arch.llms.model.ModelOptionsUtils;
 import com.eastrobot.arch.llms.retry.Backoff;
 import com.eastrobot.arch.llms.retry.RetryPolicy;
-import com.eastrobot.arch.llms.retry.TransientAiException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.ResolvableType;
 import org.springframework.core.io.Resource;
-import org.springframework.retry.support.RetryTemplate;
 import org.springframework.util.*;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -57,6 +71,14 @@ public class DefaultChatClient implements ChatClient {
         this.defaultChatClientRequest = defaultChatClientRequest;
     }
 
+    /**
+     * 会话 id 作为负载均衡的路由键, 同一会话的多轮请求落到同一节点
+     */
+    private static Function<Context, Context> routingKey(Map<String, Object> context) {
+        Object conversationId = context.get(AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY);
+        return ctx -> conversationId == null ? ctx : ctx.put(LoadBalancer.ROUTING_KEY, conversationId.toString());
+    }
+
     @Override
     public ChatClientRequestSpec prompt() {
         return new DefaultChatClientRequestSpec(this.defaultChatClientRequest);
@@ -84,6 +106,8 @@ public class DefaultChatClient implements ChatClient {
 
         private final List<Media> media = new ArrayList<>();
 
+        private TemplateFormat templateFormat;
+
         @Override
         public PromptUserSpec media(Media... media) {
             this.media.addAll(Arrays.asList(media));
@@ -136,6 +160,12 @@ public class DefaultChatClient implements ChatClient {
             return this;
         }
 
+        @Override
+        public PromptUserSpec templateFormat(TemplateFormat templateFormat) {
+            this.templateFormat = templateFormat;
+            return this;
+        }
+
         protected String text() {
             return this.text;
         }
@@ -148,6 +178,10 @@ public class DefaultChatClient implements ChatClient {
             return this.media;
         }
 
+        protected TemplateFormat templateFormat() {
+            return this.templateFormat;
+        }
+
     }
 
 
@@ -157,6 +191,8 @@ public class DefaultChatClient implements ChatClient {
 
         private final Map<String, Object> params = new HashMap<>();
 
+        private TemplateFormat templateFormat;
+
         @Override
         public PromptSystemSpec text(String text) {
             this.text = text;
@@ -191,6 +227,12 @@ public class DefaultChatClient implements ChatClient {
             return this;
         }
 
+        @Override
+        public PromptSystemSpec templateFormat(TemplateFormat templateFormat) {
+            this.templateFormat = templateFormat;
+            return this;
+        }
+
         protected String text() {
             return this.text;
         }
@@ -199,6 +241,10 @@ public class DefaultChatClient implements ChatClient {
             return this.params;
         }
 
+        protected TemplateFormat templateFormat() {
+            return this.templateFormat;
+        }
+
     }
 
     public static class DefaultRetrySpec implements RetrySpec {
@@ -310,7 +356,7 @@ public class DefaultChatClient implements ChatClient {
         }
 
         protected <T> ResponseEntity<ChatResponse, T> doResponseEntity(StructuredOutputConverter<T> boc) {
-            ChatResponse chatResponse = doGetChatResponse(this.request, boc.getFormat());
+            ChatResponse chatResponse = doGetChatResponse(this.request, boc);
             String responseContent = chatResponse.getResult().getOutput().getContent();
             T entity = boc.convert(responseContent);
 
@@ -326,7 +372,7 @@ public class DefaultChatClient implements ChatClient {
         }
 
         private <T> T doSingleWithBeanOutputConverter(StructuredOutputConverter<T> boc) {
-            ChatResponse chatResponse = doGetChatResponse(this.request, boc.getFormat());
+            ChatResponse chatResponse = doGetChatResponse(this.request, boc);
             String stringResponse = chatResponse.getResult().getOutput().getContent();
             return boc.convert(stringResponse);
         }
@@ -342,86 +388,114 @@ public class DefaultChatClient implements ChatClient {
         }
 
         private ChatResponse doGetChatResponse(DefaultChatClientRequestSpec inputRequest, String formatParam) {
+            return this.doGetChatResponseMono(inputRequest, formatParam, null).block();
+        }
 
-            Map<String, Object> context = new ConcurrentHashMap<>(inputRequest.getAdvisorParams());
-            DefaultChatClientRequestSpec advisedRequest = DefaultChatClientRequestSpec.adviseOnRequest(inputRequest,
-                    context);
-
-            String processedUserText = StringUtils.hasText(formatParam)
-                    ? advisedRequest.getUserText() + System.lineSeparator() + "{spring_ai_soc_format}"
-                    : advisedRequest.getUserText();
-
-            Map<String, Object> userParams = new HashMap<>(advisedRequest.getUserParams());
-            if (StringUtils.hasText(formatParam)) {
-                userParams.put("spring_ai_soc_format", formatParam);
-            }
+        /**
+         * 模型支持时以 response_format 传递 schema, 否则在用户消息中追加转换器的格式说明
+         */
+        private ChatResponse doGetChatResponse(DefaultChatClientRequestSpec inputRequest,
+                                               StructuredOutputConverter<?> converter) {
+            ResponseFormat responseFormat = jsonSchemaResponseFormat(inputRequest, converter);
+            if (responseFormat == null)
+                return doGetChatResponse(inputRequest, converter.getFormat());
+            JsonSchemaStats.record(this.chatModel.model(), converter.getFormat());
+            return this.doGetChatResponseMono(inputRequest, "", responseFormat).block();
+        }
 
-//            List<Message> messages = new ArrayList<>(advisedRequest.getMessages());
-            List<Message> messages = new ArrayList<>();
-            boolean textsAreValid = (StringUtils.hasText(processedUserText)
-                    || StringUtils.hasText(advisedRequest.getSystemText()));
-            if (textsAreValid) {
-                if (StringUtils.hasText(advisedRequest.getSystemText())
-                        || !advisedRequest.getSystemParams().isEmpty()) {
-                    Message systemMessage = new SystemMessage(
-                            new PromptTemplate(advisedRequest.getSystemText(), advisedRequest.getSystemParams())
-                                    .render());
-                    messages.add(systemMessage);
-                }
-                // chat memory
-                messages.addAll(advisedRequest.getMessages());
-                UserMessage userMessage;
-                if (!CollectionUtils.isEmpty(userParams)) {
-                    userMessage = new UserMessage(new PromptTemplate(processedUserText, userParams).render(),
-                            advisedRequest.getMedia());
-                } else {
-                    userMessage = new UserMessage(processedUserText, advisedRequest.getMedia());
+        /**
+         * @return 转换器为 {@link BeanOutputConverter}、模型支持 json_schema、请求未指定 response_format 且 schema 根节点为
+         * object 时的 response_format, 否则为 null
+         */
+        private ResponseFormat jsonSchemaResponseFormat(DefaultChatClientRequestSpec inputRequest,
+                                                        StructuredOutputConverter<?> converter) {
+            if (!(converter instanceof BeanOutputConverter) || !this.chatModel.supportsJsonSchema())
+                return null;
+            ChatOptions options = inputRequest.getChatOptions() != null ? inputRequest.getChatOptions()
+                    : this.chatModel.getDefaultOptions();
+            if (options instanceof OpenAiChatOptions && ((OpenAiChatOptions) options).getResponseFormat() != null)
+                return null;
+            BeanOutputConverter<?> beanConverter = (BeanOutputConverter<?>) converter;
+            ObjectNode schema = beanConverter.getJsonSchemaNode();
+            if (!"object".equals(schema.path("type").asText()))
+                return null;
+            // the meta-schema uri only costs tokens
+            schema.remove("$schema");
+            return ResponseFormat.jsonSchema(schemaName(beanConverter.getType()), schema);
+        }
+
+        private Mono<ChatResponse> doGetChatResponseMono(DefaultChatClientRequestSpec inputRequest, String formatParam,
+                                                         ResponseFormat responseFormat) {
+            return Mono.defer(() -> {
+                Map<String, Object> context = new ConcurrentHashMap<>(inputRequest.getAdvisorParams());
+                DefaultChatClientRequestSpec advisedRequest = DefaultChatClientRequestSpec.adviseOnRequest(inputRequest,
+                        context);
+
+                String processedUserText = StringUtils.hasText(formatParam)
+                        ? advisedRequest.getUserText() + System.lineSeparator() + "{spring_ai_soc_format}"
+                        : advisedRequest.getUserText();
+
+                Map<String, Object> userParams = new HashMap<>(advisedRequest.getUserParams());
+                if (StringUtils.hasText(formatParam)) {
+                    userParams.put("spring_ai_soc_format", formatParam);
                 }
-                messages.add(userMessage);
-            }
 
-            Prompt prompt = new Prompt(messages, advisedRequest.getChatOptions());
+//                List<Message> messages = new ArrayList<>(advisedRequest.getMessages());
+                List<Message> messages = new ArrayList<>();
+                boolean textsAreValid = (StringUtils.hasText(processedUserText)
+                        || StringUtils.hasText(advisedRequest.getSystemText()));
+                if (textsAreValid) {
+                    if (StringUtils.hasText(advisedRequest.getSystemText())
+                            || !advisedRequest.getSystemParams().isEmpty()) {
+                        Message systemMessage = new SystemMessage(
+                                new PromptTemplate(advisedRequest.getSystemText(), advisedRequest.getSystemParams(),
+                                        advisedRequest.getSystemTemplateFormat())
+                                        .render());
+                        messages.add(systemMessage);
+                    }
+                    // chat memory
+                    messages.addAll(advisedRequest.getMessages());
+                    UserMessage userMessage;
+                    if (!CollectionUtils.isEmpty(userParams)) {
+                        userMessage = new UserMessage(new PromptTemplate(processedUserText, userParams,
+                                advisedRequest.getUserTemplateFormat()).render(), advisedRequest.getMedia());
+                    } else {
+                        userMessage = new UserMessage(processedUserText, advisedRequest.getMedia());
+                    }
+                    messages.add(userMessage);
+                }
 
-            ChatResponse advisedResponse;
-            if (advisedRequest.getRetryPolicy() != null) {
-                RetryPolicy retryPolicy = advisedRequest.getRetryPolicy();
-                RetryTemplate retryTemplate = RetryUtil.build(retryPolicy);
-                advisedResponse = retryTemplate.execute(retryContext -> {
-                            ChatResponse chatResponse = this.chatModel.call(prompt);
-                            if (retryPolicy.getPredicate() == null) return chatResponse;
-                            else {
-                                retryContext.setAttribute("conversation_id", userParams.get("conversation_id"));
-                                if (chatResponse != null && chatResponse.getResult() != null) {
-                                    boolean test = retryPolicy.getPredicate().test(chatResponse);
-                                    if (retryPolicy.isUseLastCallback())
-                                        retryContext.setAttribute("result", chatResponse);
-                                    if (!test) throw new TransientAiException("pre check failed，assert retry continues");
-                                    else {
-                                        retryContext.setExhaustedOnly();
-                                        return chatResponse;
-                                    }
-                                } else
-                                    throw new TransientAiException("the model: 【" + this.chatModel.model() + "】 response is null!");
-                            }
-                        }, retryContext -> {
-                            log.error("{} recovery callback", retryContext.getAttribute("conversation_id"));
-                            if (retryPolicy.isUseLastCallback())
-                                return (ChatResponse) retryContext.getAttribute("result");
-                            else
-                                return new ChatResponse(Collections.singletonList(new Generation(retryPolicy.getRecoveryCallback())));
-                        }
-                );
-            } else {
-                advisedResponse = this.chatModel.call(prompt);
-            }
-            // apply the advisors on response
-            if (!CollectionUtils.isEmpty(inputRequest.getAdvisors())) {
-                List<RequestResponseAdvisor> currentAdvisors = new ArrayList<>(inputRequest.getAdvisors());
-                for (RequestResponseAdvisor advisor : currentAdvisors) {
-                    advisedResponse = advisor.adviseResponse(advisedResponse, context);
+                Prompt prompt = new Prompt(messages, responseFormat == null ? advisedRequest.getChatOptions()
+                        : withResponseFormat(advisedRequest.getChatOptions(), responseFormat));
+
+                Function<Prompt, Mono<ChatResponse>> chain = p -> {
+                    Mono<ChatResponse> call = this.chatModel.callAsync(p);
+                    if (advisedRequest.getRetryPolicy() != null) {
+                        // the backoff is scheduled on a timer, no thread sleeps between attempts
+                        call = RetryUtil.retry(call, advisedRequest.getRetryPolicy(),
+                                userParams.get("conversation_id"), RetryUtil.retryBudget(this.chatModel.model()));
+                    }
+                    return call;
+                };
+                // the first advisor is the outermost
+                List<RequestResponseAdvisor> advisors = inputRequest.getAdvisors();
+                for (int i = advisors.size() - 1; i >= 0; i--) {
+                    RequestResponseAdvisor advisor = advisors.get(i);
+                    Function<Prompt, Mono<ChatResponse>> next = chain;
+                    chain = p -> advisor.aroundCall(p, context, next);
                 }
-            }
-            return advisedResponse;
+                Mono<ChatResponse> responseMono = chain.apply(prompt).contextWrite(routingKey(context));
+                return responseMono.map(advisedResponse -> {
+                    // apply the advisors on response
+                    if (!CollectionUtils.isEmpty(inputRequest.getAdvisors())) {
+                        List<RequestResponseAdvisor> currentAdvisors = new ArrayList<>(inputRequest.getAdvisors());
+                        for (RequestResponseAdvisor advisor : currentAdvisors) {
+                            advisedResponse = advisor.adviseResponse(advisedResponse, context);
+                        }
+                    }
+                    return advisedResponse;
+                });
+            });
         }
 
         public ChatResponse chatResponse() {
@@ -432,6 +506,37 @@ public class DefaultChatClient implements ChatClient {
             return doGetChatResponse().getResult().getOutput().getContent();
         }
 
+        public Mono<ChatResponse> chatResponseMono() {
+            return doGetChatResponseMono(this.request, "", null);
+        }
+
+        public Mono<String> contentMono() {
+            return doGetChatResponseMono(this.request, "", null).mapNotNull(r -> r.getResult() != null
+                    ? r.getResult().getOutput().getContent() : null);
+        }
+
+        /**
+         * 复制运行时选项并设置 response_format; 选项为空时只设置 response_format, 其余由模型合并默认选项
+         */
+        private static ChatOptions withResponseFormat(ChatOptions options, ResponseFormat responseFormat) {
+            OpenAiChatOptions openAiOptions = options == null ? OpenAiChatOptions.builder().build()
+                    : options instanceof OpenAiChatOptions ? OpenAiChatOptions.fromOptions((OpenAiChatOptions) options)
+                    : ModelOptionsUtils.copyToTarget(options, ChatOptions.class, OpenAiChatOptions.class);
+            openAiOptions.setResponseFormat(responseFormat);
+            return openAiOptions;
+        }
+
+        /**
+         * 目标类型的类名, 只保留字母、数字、下划线和中划线, 最长 64
+         */
+        static String schemaName(Type type) {
+            Class<?> clazz = ResolvableType.forType(type).resolve();
+            String name = clazz != null ? clazz.getSimpleName().replaceAll("[^a-zA-Z0-9_-]", "_") : "";
+            if (name.isEmpty())
+                return "response";
+            return name.length() > 64 ? name.substring(0, 64) : name;
+        }
+
     }
 
     public static class DefaultStreamResponseSpec implements StreamResponseSpec {
@@ -440,11 +545,28 @@ public class DefaultChatClient implements ChatClient {
 
         private final ChatModel chatModel;
 
+        private final StopCondition stopCondition = new StopCondition();
+
         public DefaultStreamResponseSpec(ChatModel chatModel, DefaultChatClientRequestSpec request) {
             this.chatModel = chatModel;
             this.request = request;
         }
 
+        public StreamResponseSpec until(Predicate<CharSequence> condition) {
+            this.stopCondition.until(condition);
+            return this;
+        }
+
+        public StreamResponseSpec stopSequences(String... sequences) {
+            this.stopCondition.stopSequences(sequences);
+            return this;
+        }
+
+        public StreamResponseSpec maxChars(int maxChars) {
+            this.stopCondition.maxChars(maxChars);
+            return this;
+        }
+
         private Flux<ChatResponse> doGetFluxChatResponse(DefaultChatClientRequestSpec inputRequest) {
 
             Map<String, Object> context = new ConcurrentHashMap<>(inputRequest.getAdvisorParams());
@@ -461,8 +583,8 @@ public class DefaultChatClient implements ChatClient {
                 UserMessage userMessage = null;
                 if (!CollectionUtils.isEmpty(userParams)) {
                     System.out.println("userParams:" + userParams);
-                    userMessage = new UserMessage(new PromptTemplate(processedUserText, userParams).render(),
-                            advisedRequest.getMedia());
+                    userMessage = new UserMessage(new PromptTemplate(processedUserText, userParams,
+                            advisedRequest.getUserTemplateFormat()).render(), advisedRequest.getMedia());
                 } else {
                     userMessage = new UserMessage(processedUserText, advisedRequest.getMedia());
                 }
@@ -470,7 +592,8 @@ public class DefaultChatClient implements ChatClient {
                         || !advisedRequest.getSystemParams().isEmpty()) {
                     System.out.println("systemParams:" + advisedRequest.getSystemParams());
                     Message systemMessage = new SystemMessage(
-                            new PromptTemplate(advisedRequest.getSystemText(), advisedRequest.getSystemParams())
+                            new PromptTemplate(advisedRequest.getSystemText(), advisedRequest.getSystemParams(),
+                                    advisedRequest.getSystemTemplateFormat())
                                     .render());
                     messages.add(systemMessage);
                 }
@@ -479,7 +602,29 @@ public class DefaultChatClient implements ChatClient {
 
             Prompt prompt = new Prompt(messages, advisedRequest.getChatOptions());
 
-            Flux<ChatResponse> advisedResponse = this.chatModel.stream(prompt);
+            Function<Prompt, Flux<ChatResponse>> chain = p -> {
+                Flux<ChatResponse> stream = Flux.defer(() -> this.chatModel.stream(p));
+                if (advisedRequest.getRetryPolicy() != null) {
+                    // reconnects only while no token has been emitted
+                    stream = RetryUtil.retry(stream, advisedRequest.getRetryPolicy(),
+                            userParams.get("conversation_id"), RetryUtil.retryBudget(this.chatModel.model()));
+                }
+                return stream;
+            };
+            // the first advisor is the outermost
+            List<RequestResponseAdvisor> advisors = inputRequest.getAdvisors();
+            for (int i = advisors.size() - 1; i >= 0; i--) {
+                RequestResponseAdvisor advisor = advisors.get(i);
+                Function<Prompt, Flux<ChatResponse>> next = chain;
+                chain = p -> advisor.aroundStream(p, context, next);
+            }
+            Function<Prompt, Flux<ChatResponse>> advisedChain = chain;
+            Flux<ChatResponse> advisedResponse = Flux.defer(() -> advisedChain.apply(prompt))
+                    .contextWrite(routingKey(context));
+            // stops before the advisors, so the chat memory keeps the truncated answer
+            ChatOptions chatOptions = advisedRequest.getChatOptions();
+            advisedResponse = this.stopCondition.apply(advisedResponse, this.chatModel.model(),
+                    chatOptions != null ? chatOptions.getMaxTokens() : null);
             // apply the advisors on response
             if (!CollectionUtils.isEmpty(inputRequest.getAdvisors())) {
                 List<RequestResponseAdvisor> currentAdvisors = new ArrayList<>(inputRequest.getAdvisors());
@@ -507,6 +652,57 @@ public class DefaultChatClient implements ChatClient {
 
     }
 
+    public static class DefaultBatchSpec implements BatchSpec {
+
+        private final ChatModel chatModel;
+
+        private final DefaultChatClientRequestSpec request;
+
+        private List<String> users = Collections.emptyList();
+
+        private List<Map<String, Object>> params = Collections.emptyList();
+
+        private BatchOptions options;
+
+        public DefaultBatchSpec(ChatModel chatModel, DefaultChatClientRequestSpec request) {
+            this.chatModel = chatModel;
+            this.request = request;
+        }
+
+        public BatchSpec users(List<String> texts) {
+            Assert.notNull(texts, "the texts must be non-null");
+            this.users = texts;
+            return this;
+        }
+
+        public BatchSpec params(List<Map<String, Object>> params) {
+            Assert.notNull(params, "the params must be non-null");
+            this.params = params;
+            return this;
+        }
+
+        public BatchSpec options(BatchOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public Flux<IndexedChatResponse> chatResponse() {
+            Assert.isTrue(this.users.isEmpty() || this.params.isEmpty() || this.users.size() == this.params.size(),
+                    "the users and params must have the same size");
+            int size = Math.max(this.users.size(), this.params.size());
+            return BatchExecutor.execute(size, index -> {
+                // 每条复制一份请求, advisor 与重试策略按单条生效
+                DefaultChatClientRequestSpec item = new DefaultChatClientRequestSpec(this.request);
+                if (!this.users.isEmpty())
+                    item.user(this.users.get(index));
+                if (!this.params.isEmpty() && this.params.get(index) != null)
+                    item.userParams.putAll(this.params.get(index));
+                return new DefaultCallResponseSpec(this.chatModel, item).chatResponseMono();
+            }, this.options);
+        }
+
+    }
+
     public static class DefaultChatClientRequestSpec implements ChatClientRequestSpec {
 
         private final ChatModel chatModel;
@@ -531,6 +727,10 @@ public class DefaultChatClient implements ChatClient {
 
         private final Map<String, Object> advisorParams = new HashMap<>();
 
+        private TemplateFormat userTemplateFormat = TemplateFormat.ST;
+
+        private TemplateFormat systemTemplateFormat = TemplateFormat.ST;
+
         public String getUserText() {
             return userText;
         }
@@ -571,10 +771,20 @@ public class DefaultChatClient implements ChatClient {
             return media;
         }
 
+        public TemplateFormat getUserTemplateFormat() {
+            return userTemplateFormat;
+        }
+
+        public TemplateFormat getSystemTemplateFormat() {
+            return systemTemplateFormat;
+        }
+
         /* copy constructor */
         DefaultChatClientRequestSpec(DefaultChatClientRequestSpec ccr) {
             this(ccr.chatModel, ccr.userText, ccr.userParams, ccr.systemText, ccr.systemParams, /*ccr.functionCallbacks,*/
                     ccr.messages, /*ccr.functionNames,*/ ccr.media, ccr.chatOptions, ccr.advisors, ccr.advisorParams, ccr.retryPolicy);
+            this.userTemplateFormat = ccr.userTemplateFormat;
+            this.systemTemplateFormat = ccr.systemTemplateFormat;
         }
 
         public DefaultChatClientRequestSpec(ChatModel chatModel, String userText, Map<String, Object> userParams,
@@ -603,9 +813,11 @@ public class DefaultChatClient implements ChatClient {
          */
         public Builder mutate() {
             DefaultChatClientBuilder builder = (DefaultChatClientBuilder) ChatClient.builder(chatModel)
-                    .defaultSystem(s -> s.text(this.systemText).params(this.systemParams))
+                    .defaultSystem(s -> s.text(this.systemText).params(this.systemParams)
+                            .templateFormat(this.systemTemplateFormat))
                     .defaultUser(u -> u.text(this.userText)
                             .params(this.userParams)
+                            .templateFormat(this.userTemplateFormat)
                             .media(this.media.toArray(new Media[0])))
                     .defaultOptions(this.chatOptions)
 //                    .defaultFunctions(StringUtils.toStringArray(this.functionNames))
@@ -701,6 +913,8 @@ public class DefaultChatClient implements ChatClient {
             consumer.accept(ss);
             this.systemText = StringUtils.hasText(ss.text()) ? ss.text() : this.systemText;
             this.systemParams.putAll(ss.params());
+            if (ss.templateFormat() != null)
+                this.systemTemplateFormat = ss.templateFormat();
             return this;
         }
 
@@ -733,6 +947,8 @@ public class DefaultChatClient implements ChatClient {
             this.userText = StringUtils.hasText(us.text()) ? us.text() : this.userText;
             this.userParams.putAll(us.params());
             this.media.addAll(us.media());
+            if (us.templateFormat() != null)
+                this.userTemplateFormat = us.templateFormat();
             return this;
         }
 
@@ -744,6 +960,10 @@ public class DefaultChatClient implements ChatClient {
             return new DefaultStreamResponseSpec(chatModel, this);
         }
 
+        public BatchSpec batch() {
+            return new DefaultBatchSpec(chatModel, this);
+        }
+
         public static DefaultChatClientRequestSpec adviseOnRequest(DefaultChatClientRequestSpec inputRequest,
                                                                    Map<String, Object> context) {
 
@@ -754,7 +974,8 @@ public class DefaultChatClient implements ChatClient {
                         inputRequest.systemText, inputRequest.chatOptions, inputRequest.media,
                         /*inputRequest.functionNames, inputRequest.functionCallbacks,*/ inputRequest.messages,
                         inputRequest.userParams, inputRequest.systemParams, inputRequest.advisors,
-                        inputRequest.advisorParams, inputRequest.getRetryPolicy());
+                        inputRequest.advisorParams, inputRequest.getRetryPolicy(), inputRequest.userTemplateFormat,
+                        inputRequest.systemTemplateFormat);
 
                 // apply the advisors onRequest
                 List<RequestResponseAdvisor> currentAdvisors = new ArrayList<>(inputRequest.advisors);
@@ -767,6 +988,8 @@ public class DefaultChatClient implements ChatClient {
                         /*adviseRequest.functionCallbacks(),*/ adviseRequest.getMessages(),/* adviseRequest.functionNames(),*/
                         adviseRequest.getMedia(), adviseRequest.getChatOptions(), adviseRequest.getAdvisors(),
                         adviseRequest.getAdvisorParams(), adviseRequest.getRetryPolicy());
+                advisedRequest.userTemplateFormat = adviseRequest.getUserTemplateFormat();
+                advisedRequest.systemTemplateFormat = adviseRequest.getSystemTemplateFormat();
             }
 
             return advisedRequest;
@@ -799,6 +1022,10 @@ public class DefaultChatClient implements ChatClient {
             return doGetChatResponse(this.prompt);
         }
 
+        public Mono<ChatResponse> chatResponseMono() {
+            return chatModel.callAsync(this.prompt);
+        }
+
         private ChatResponse doGetChatResponse(Prompt prompt) {
             return chatModel.call(prompt);
         }
@@ -20,8 +20,10 @@ import com.eastrobot.arch.llms.chat.model.ChatModel;
 import com.eastrobot.arch.llms.chat.model.ChatResponse;
 import com.eastrobot.arch.llms.chat.prompt.Prompt;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * Advisor called before and after the {@link ChatModel#call(Prompt)} and
@@ -68,4 +70,29 @@ public interface RequestResponseAdvisor {
         return fluxResponse;
     }
 
+    /**
+     * Wraps the model call, the first advisor in the chain being the outermost. Advisors
+     * may short-circuit the chain, e.g. to answer from a cache.
+     * @param prompt  the {@link Prompt} sealed from the advised request.
+     * @param context the shared data between the advisors in the chain.
+     * @param chain   the rest of the chain, ending with the {@link ChatModel#call(Prompt)}.
+     * @return the {@link ChatResponse} mono.
+     */
+    default Mono<ChatResponse> aroundCall(Prompt prompt, Map<String, Object> context,
+                                          Function<Prompt, Mono<ChatResponse>> chain) {
+        return chain.apply(prompt);
+    }
+
+    /**
+     * Wraps the model stream, the first advisor in the chain being the outermost.
+     * @param prompt  the {@link Prompt} sealed from the advised request.
+     * @param context the shared data between the advisors in the chain.
+     * @param chain   the rest of the chain, ending with the {@link ChatModel#stream(Prompt)}.
+     * @return the {@link ChatResponse} flux.
+     */
+    default Flux<ChatResponse> aroundStream(Prompt prompt, Map<String, Object> context,
+                                            Function<Prompt, Flux<ChatResponse>> chain) {
+        return chain.apply(prompt);
+    }
+
 }
@@ -0,0 +1,122 @@
+package com.eastrobot.arch.llms.chat.client.advisor;
+
+import com.eastrobot.arch.llms.chat.metadata.ChatGenerationMetadata;
+import com.eastrobot.arch.llms.chat.metadata.ChatResponseMetadata;
+import com.eastrobot.arch.llms.chat.model.ChatResponse;
+import com.eastrobot.arch.llms.chat.model.Generation;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <p>缓存的单个候选结果: 同步调用时还原为完整响应, 流式调用时按块重放</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/12 10:00
+ */
+final class CachedResponse {
+
+    private final String content;
+    private final Map<String, Object> properties;
+    private final ChatGenerationMetadata generationMetadata;
+    private final ChatResponseMetadata metadata;
+
+    private CachedResponse(String content, Generation generation, ChatResponseMetadata metadata) {
+        this.content = content;
+        this.properties = generation.getOutput().getMetadata();
+        this.generationMetadata = generation.getMetadata();
+        this.metadata = metadata;
+    }
+
+    /**
+     * @return 多个候选结果或没有内容时返回 null
+     */
+    static CachedResponse of(ChatResponse response) {
+        List<Generation> generations = response.getResults();
+        if (generations == null || generations.size() != 1 || generations.get(0).getOutput().getContent() == null)
+            return null;
+        return new CachedResponse(generations.get(0).getOutput().getContent(), generations.get(0), response.getMetadata());
+    }
+
+    /**
+     * 聚合流式响应, 仅在流正常结束时回调; 被取消、报错或出现多个候选结果时不回调
+     */
+    static Flux<ChatResponse> collect(Flux<ChatResponse> stream, Consumer<CachedResponse> onComplete) {
+        return Flux.defer(() -> {
+            StringBuilder content = new StringBuilder();
+            Generation[] last = new Generation[1];
+            ChatResponseMetadata[] metadata = new ChatResponseMetadata[1];
+            boolean[] cacheable = {true};
+            return stream
+                    .doOnNext(response -> {
+                        List<Generation> generations = response.getResults();
+                        if (generations != null && generations.size() > 1)
+                            cacheable[0] = false;
+                        else if (generations != null && !generations.isEmpty()) {
+                            last[0] = generations.get(0);
+                            if (last[0].getOutput().getContent() != null)
+                                content.append(last[0].getOutput().getContent());
+                        }
+                        if (response.getMetadata() != null)
+                            metadata[0] = response.getMetadata();
+                    })
+                    .doOnComplete(() -> {
+                        if (cacheable[0] && last[0] != null)
+                            onComplete.accept(new CachedResponse(content.toString(), last[0], metadata[0]));
+                    });
+        });
+    }
+
+    int length() {
+        return this.content.length();
+    }
+
+    /**
+     * @param hit 附加到响应元数据的命中信息
+     */
+    ChatResponse toResponse(Map<String, Object> hit) {
+        Generation generation = new Generation(this.content, this.properties)
+                .withGenerationMetadata(this.generationMetadata);
+        return new ChatResponse(Collections.singletonList(generation), metadata(true, hit));
+    }
+
+    /**
+     * 按字符数切块, 不拆分代理对; 最后一块带结束原因与完整的响应元数据
+     */
+    Flux<ChatResponse> toChunks(int chunkSize, Map<String, Object> hit) {
+        List<ChatResponse> chunks = new ArrayList<>();
+        int start = 0;
+        while (this.content.length() - start > chunkSize) {
+            int end = start + chunkSize;
+            if (Character.isHighSurrogate(this.content.charAt(end - 1)))
+                end--;
+            chunks.add(new ChatResponse(Collections.singletonList(new Generation(this.content.substring(start, end))),
+                    metadata(false, hit)));
+            start = end;
+        }
+        Generation generation = new Generation(this.content.substring(start), this.properties)
+                .withGenerationMetadata(this.generationMetadata);
+        chunks.add(new ChatResponse(Collections.singletonList(generation), metadata(true, hit)));
+        return Flux.fromIterable(chunks);
+    }
+
+    private ChatResponseMetadata metadata(boolean complete, Map<String, Object> hit) {
+        ChatResponseMetadata.Builder builder = ChatResponseMetadata.builder();
+        if (this.metadata != null) {
+            builder.withId(this.metadata.getId()).withModel(this.metadata.getModel());
+            if (complete) {
+                builder.withRateLimit(this.metadata.getRateLimit())
+                        .withUsage(this.metadata.getUsage())
+                        .withPromptMetadata(this.metadata.getPromptMetadata());
+                this.metadata.entrySet().forEach(entry -> builder.withKeyValue(entry.getKey(), entry.getValue()));
+            }
+        }
+        return builder.withMetadata(hit).build();
+    }
+
+}
@@ -63,7 +63,8 @@ public class MessageChatMemoryAdvisor extends AbstractChatMemoryAdvisor<ChatMemo
         AdvisedRequest advisedRequest = AdvisedRequest.from(request).withMessages(advisedMessages).build();
 
         // 4. Add the new user input to the conversation memory.
-        UserMessage userMessage = new UserMessage(new PromptTemplate(request.getUserText(), request.getUserParams()).render(), request.getMedia());
+        UserMessage userMessage = new UserMessage(new PromptTemplate(request.getUserText(), request.getUserParams(),
+                request.getUserTemplateFormat()).render(), request.getMedia());
         this.getChatMemoryStore().add(this.doGetConversationId(context), userMessage);
 
         return advisedRequest;
@@ -0,0 +1,285 @@
+package com.eastrobot.arch.llms.chat.client.advisor;
+
+import com.eastrobot.arch.llms.chat.client.RequestResponseAdvisor;
+import com.eastrobot.arch.llms.chat.model.ChatResponse;
+import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
+import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import com.eastrobot.arch.llms.chat.prompt.PromptDigest;
+import com.eastrobot.arch.llms.common.MetricsUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Getter;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * <p>精确匹配的响应缓存: 以规范化后的 Prompt(统一换行、合并空白)与生效选项为键, 命中时不再调用模型。</p>
+ * 同步调用直接返回缓存的响应, 流式调用将缓存内容按块重放, 响应元数据中 {@value #CACHE_HIT} 为 true;
+ * 未命中的流仅在正常结束后写入缓存, 被取消或报错的流不缓存。
+ * 缓存按估算的字节数限制容量(W-TinyLFU 淘汰), 每个条目有各自的过期时间, 可通过 {@value #CACHE_TTL_KEY} 参数按请求指定。
+ * 默认只缓存 temperature 为 0 的请求, 带媒体或多个候选结果的不缓存。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/12 10:00
+ */
+public class ResponseCacheAdvisor implements RequestResponseAdvisor {
+
+    /**
+     * 按请求指定的过期时间, {@link Duration} 或毫秒数
+     */
+    public static final String CACHE_TTL_KEY = "response_cache_ttl";
+
+    /**
+     * 响应元数据中是否命中缓存
+     */
+    public static final String CACHE_HIT = "cache-hit";
+
+    public static final long DEFAULT_MAXIMUM_BYTES = 64 * 1024 * 1024;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+    public static final int DEFAULT_CHUNK_SIZE = 32;
+
+    /**
+     * 每个条目除内容外的估算开销
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+    private static final Map<String, Object> HIT = Collections.singletonMap(CACHE_HIT, true);
+
+    /**
+     * 未指定缓存名的实例序号, 同名的指标只会注册第一个实例
+     */
+    private static final AtomicInteger UNNAMED = new AtomicInteger();
+
+    @Getter
+    private final String name;
+    @Getter
+    private final Duration ttl;
+    @Getter
+    private final boolean allowNonZeroTemperature;
+    private final int chunkSize;
+    /**
+     * 模型的默认选项, 运行时选项覆盖其上得到生效选项
+     */
+    private final ChatOptions defaultOptions;
+    private final Cache<String, Entry> cache;
+
+    public ResponseCacheAdvisor() {
+        this(builder());
+    }
+
+    private ResponseCacheAdvisor(Builder builder) {
+        this.name = builder.name != null ? builder.name : "default-" + UNNAMED.incrementAndGet();
+        this.ttl = builder.ttl;
+        this.allowNonZeroTemperature = builder.allowNonZeroTemperature;
+        this.chunkSize = builder.chunkSize;
+        this.defaultOptions = builder.defaultOptions;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(builder.maximumBytes)
+                .weigher((String key, Entry entry) -> entry.weight)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        MetricsUtil.counter("llms.cache.hits", this.name, this, advisor -> advisor.getStats().hitCount());
+        MetricsUtil.counter("llms.cache.misses", this.name, this, advisor -> advisor.getStats().missCount());
+        MetricsUtil.counter("llms.cache.evictions", this.name, this, advisor -> advisor.getStats().evictionCount());
+        MetricsUtil.gauge("llms.cache.size", this.name, this, ResponseCacheAdvisor::getSize);
+        MetricsUtil.gauge("llms.cache.bytes", this.name, this, ResponseCacheAdvisor::getBytes);
+    }
+
+    @Override
+    public Mono<ChatResponse> aroundCall(Prompt prompt, Map<String, Object> context,
+                                         Function<Prompt, Mono<ChatResponse>> chain) {
+        String key = key(prompt);
+        if (key == null)
+            return chain.apply(prompt);
+        return Mono.defer(() -> {
+            Entry entry = this.cache.getIfPresent(key);
+            if (entry != null)
+                return Mono.just(entry.response.toResponse(HIT));
+            return chain.apply(prompt).doOnNext(response -> {
+                CachedResponse cached = CachedResponse.of(response);
+                if (cached != null)
+                    put(key, cached, context);
+            });
+        });
+    }
+
+    @Override
+    public Flux<ChatResponse> aroundStream(Prompt prompt, Map<String, Object> context,
+                                           Function<Prompt, Flux<ChatResponse>> chain) {
+        String key = key(prompt);
+        if (key == null)
+            return chain.apply(prompt);
+        return Flux.defer(() -> {
+            Entry entry = this.cache.getIfPresent(key);
+            if (entry != null)
+                return entry.response.toChunks(this.chunkSize, HIT);
+            return CachedResponse.collect(chain.apply(prompt), cached -> put(key, cached, context));
+        });
+    }
+
+    /**
+     * 规范化的 Prompt 与生效选项的摘要; 不可缓存时返回 null
+     */
+    String key(Prompt prompt) {
+        ChatOptions options = PromptDigest.effectiveOptions(prompt.getOptions(), this.defaultOptions);
+        if (!this.allowNonZeroTemperature && !PromptDigest.isDeterministic(options))
+            return null;
+        return PromptDigest.digest(prompt, options, true);
+    }
+
+    private void put(String key, CachedResponse response, Map<String, Object> context) {
+        Duration ttl = ttl(context);
+        if (ttl.isZero() || ttl.isNegative())
+            return;
+        this.cache.put(key, new Entry(key, response, ttl));
+    }
+
+    private Duration ttl(Map<String, Object> context) {
+        Object ttl = context.get(CACHE_TTL_KEY);
+        if (ttl instanceof Duration)
+            return (Duration) ttl;
+        if (ttl instanceof Number)
+            return Duration.ofMillis(((Number) ttl).longValue());
+        if (ttl != null)
+            return Duration.ofMillis(Long.parseLong(ttl.toString()));
+        return this.ttl;
+    }
+
+    public CacheStats getStats() {
+        return this.cache.stats();
+    }
+
+    public long getSize() {
+        return this.cache.estimatedSize();
+    }
+
+    /**
+     * 已缓存内容的估算字节数
+     */
+    public long getBytes() {
+        return this.cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    public void clear() {
+        this.cache.invalidateAll();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCacheAdvisor{" +
+                "name='" + name + '\'' +
+                ", ttl=" + ttl +
+                ", size=" + getSize() +
+                ", stats=" + getStats() +
+                '}';
+    }
+
+    private static final class Entry {
+
+        private final CachedResponse response;
+        private final long ttlNanos;
+        private final int weight;
+
+        private Entry(String key, CachedResponse response, Duration ttl) {
+            this.response = response;
+            this.ttlNanos = ttl.toNanos();
+            this.weight = (int) Math.min(Integer.MAX_VALUE, 2L * (key.length() + response.length()) + ENTRY_OVERHEAD);
+        }
+    }
+
+    public static class Builder {
+
+        private String name;
+        private long maximumBytes = DEFAULT_MAXIMUM_BYTES;
+        private Duration ttl = DEFAULT_TTL;
+        private boolean allowNonZeroTemperature = false;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private ChatOptions defaultOptions;
+
+        private Builder() {
+        }
+
+        /**
+         * @param name 缓存名, 用于指标; 未指定时为 default-序号, 避免多个实例的指标重名
+         */
+        public Builder withName(String name) {
+            Assert.hasText(name, "The cache name must not be empty");
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * @param maximumBytes 按内容估算的最大字节数
+         */
+        public Builder withMaximumBytes(long maximumBytes) {
+            Assert.isTrue(maximumBytes > 0, "The maximum bytes must be positive");
+            this.maximumBytes = maximumBytes;
+            return this;
+        }
+
+        public Builder withTtl(Duration ttl) {
+            Assert.isTrue(ttl != null && !ttl.isNegative() && !ttl.isZero(), "The ttl must be positive");
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * @param allowNonZeroTemperature 是否缓存 temperature 不为 0 的请求
+         */
+        public Builder withAllowNonZeroTemperature(boolean allowNonZeroTemperature) {
+            this.allowNonZeroTemperature = allowNonZeroTemperature;
+            return this;
+        }
+
+        /**
+         * @param chunkSize 流式重放时每块的字符数
+         */
+        public Builder withChunkSize(int chunkSize) {
+            Assert.isTrue(chunkSize > 0, "The chunk size must be positive");
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param defaultOptions 模型的默认选项, 为空时只按运行时选项计算键
+         */
+        public Builder withDefaultOptions(ChatOptions defaultOptions) {
+            this.defaultOptions = defaultOptions;
+            return this;
+        }
+
+        public ResponseCacheAdvisor build() {
+            return new ResponseCacheAdvisor(this);
+        }
+    }
+
+}
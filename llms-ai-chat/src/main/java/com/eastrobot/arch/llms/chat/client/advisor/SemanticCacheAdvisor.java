@@ -0,0 +1,331 @@
+package com.eastrobot.arch.llms.chat.client.advisor;
+
+import com.eastrobot.arch.llms.chat.client.RequestResponseAdvisor;
+import com.eastrobot.arch.llms.chat.messages.Message;
+import com.eastrobot.arch.llms.chat.messages.MessageType;
+import com.eastrobot.arch.llms.chat.model.ChatResponse;
+import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
+import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import com.eastrobot.arch.llms.chat.prompt.PromptDigest;
+import com.eastrobot.arch.llms.common.EmbeddingUtils;
+import com.eastrobot.arch.llms.common.MetricsUtil;
+import com.eastrobot.arch.llms.model.MediaContent;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * <p>语义响应缓存: 对渲染后的用户消息做向量化, 在进程内的向量索引中检索此前的提问, 相似度达到阈值时直接返回缓存的回答。</p>
+ * 系统消息、历史消息与生效选项须完全一致(规范化后比较)才可复用; 流式调用按块重放缓存内容,
+ * 响应元数据中 {@value ResponseCacheAdvisor#CACHE_HIT} 为 true, {@value #CACHE_SIMILARITY} 为相似度。
+ * 向量化失败时直接调用模型。默认只缓存 temperature 为 0 的请求, 带媒体或多个候选结果的不缓存。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/13 10:00
+ */
+@Slf4j
+public class SemanticCacheAdvisor implements RequestResponseAdvisor {
+
+    /**
+     * 响应元数据中命中条目的相似度
+     */
+    public static final String CACHE_SIMILARITY = "cache-similarity";
+
+    public static final float DEFAULT_SIMILARITY_THRESHOLD = 0.92f;
+    public static final int DEFAULT_MAXIMUM_ENTRIES = 10000;
+
+    /**
+     * 未指定缓存名的实例序号, 同名的指标只会注册第一个实例
+     */
+    private static final AtomicInteger UNNAMED = new AtomicInteger();
+
+    @Getter
+    private final String name;
+    @Getter
+    private final float similarityThreshold;
+    @Getter
+    private final Duration ttl;
+    @Getter
+    private final boolean allowNonZeroTemperature;
+    private final int chunkSize;
+    private final ChatOptions defaultOptions;
+    private final Function<String, Mono<float[]>> embedding;
+    private final VectorIndex<Entry> index;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private SemanticCacheAdvisor(Builder builder) {
+        this.name = builder.name != null ? builder.name : "default-" + UNNAMED.incrementAndGet();
+        this.similarityThreshold = builder.similarityThreshold;
+        this.ttl = builder.ttl;
+        this.allowNonZeroTemperature = builder.allowNonZeroTemperature;
+        this.chunkSize = builder.chunkSize;
+        this.defaultOptions = builder.defaultOptions;
+        this.embedding = builder.embedding;
+        this.index = new VectorIndex<>(builder.maximumEntries);
+        MetricsUtil.counter("llms.semantic.cache.hits", this.name, this, SemanticCacheAdvisor::getHitCount);
+        MetricsUtil.counter("llms.semantic.cache.misses", this.name, this, SemanticCacheAdvisor::getMissCount);
+        MetricsUtil.gauge("llms.semantic.cache.size", this.name, this, SemanticCacheAdvisor::getSize);
+    }
+
+    @Override
+    public Mono<ChatResponse> aroundCall(Prompt prompt, Map<String, Object> context,
+                                         Function<Prompt, Mono<ChatResponse>> chain) {
+        Query query = query(prompt);
+        if (query == null)
+            return chain.apply(prompt);
+        return embed(query.text).flatMap(vector -> {
+            if (!vector.isPresent())
+                return chain.apply(prompt);
+            VectorIndex.Hit<Entry> hit = lookup(query.scope, vector.get());
+            if (hit != null)
+                return Mono.just(hit.value.response.toResponse(hit(hit.score)));
+            return chain.apply(prompt).doOnNext(response -> {
+                CachedResponse cached = CachedResponse.of(response);
+                if (cached != null)
+                    put(query.scope, vector.get(), cached);
+            });
+        });
+    }
+
+    @Override
+    public Flux<ChatResponse> aroundStream(Prompt prompt, Map<String, Object> context,
+                                           Function<Prompt, Flux<ChatResponse>> chain) {
+        Query query = query(prompt);
+        if (query == null)
+            return chain.apply(prompt);
+        return embed(query.text).flatMapMany(vector -> {
+            if (!vector.isPresent())
+                return chain.apply(prompt);
+            VectorIndex.Hit<Entry> hit = lookup(query.scope, vector.get());
+            if (hit != null)
+                return hit.value.response.toChunks(this.chunkSize, hit(hit.score));
+            return CachedResponse.collect(chain.apply(prompt), cached -> put(query.scope, vector.get(), cached));
+        });
+    }
+
+    /**
+     * 最后一条用户消息为检索文本, 其余消息与生效选项(运行时选项合并默认选项)的摘要为作用域; 不可缓存时返回 null
+     */
+    Query query(Prompt prompt) {
+        ChatOptions options = PromptDigest.effectiveOptions(prompt.getOptions(), this.defaultOptions);
+        if (!this.allowNonZeroTemperature && !PromptDigest.isDeterministic(options))
+            return null;
+        List<Message> messages = prompt.getInstructions();
+        if (messages.isEmpty())
+            return null;
+        Message last = messages.get(messages.size() - 1);
+        if (last.getMessageType() != MessageType.USER || !StringUtils.hasText(last.getContent())
+                || last instanceof MediaContent && !CollectionUtils.isEmpty(((MediaContent) last).getMedia()))
+            return null;
+        String scope = PromptDigest.digest(new Prompt(messages.subList(0, messages.size() - 1), options), options, true);
+        if (scope == null)
+            return null;
+        return new Query(last.getContent(), scope);
+    }
+
+    /**
+     * @return 向量化失败或维度不一致时为空
+     */
+    private Mono<Optional<float[]>> embed(String text) {
+        return Mono.defer(() -> this.embedding.apply(text))
+                .map(vector -> {
+                    int dimensions = this.index.dimensions();
+                    if (dimensions > 0 && vector.length != dimensions) {
+                        log.warn("The semantic cache [{}] expects {} dimensions but got {}, bypass it", this.name,
+                                dimensions, vector.length);
+                        return Optional.<float[]>empty();
+                    }
+                    return Optional.of(EmbeddingUtils.normalize(vector));
+                })
+                .defaultIfEmpty(Optional.empty())
+                .onErrorResume(e -> {
+                    log.warn("The semantic cache [{}] failed to embed the prompt, bypass it: {}", this.name, e.toString());
+                    return Mono.just(Optional.empty());
+                });
+    }
+
+    /**
+     * 检索时只比较作用域一致的行, 其他作用域中更相似的条目不会挤掉命中
+     */
+    private VectorIndex.Hit<Entry> lookup(String scope, float[] vector) {
+        List<VectorIndex.Hit<Entry>> hits = this.index.search(vector, 1, this.similarityThreshold,
+                entry -> entry.scope.equals(scope), System.nanoTime());
+        if (hits.isEmpty()) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return hits.get(0);
+    }
+
+    private void put(String scope, float[] vector, CachedResponse response) {
+        try {
+            this.index.add(vector, new Entry(scope, response), System.nanoTime() + this.ttl.toNanos());
+        } catch (IllegalArgumentException e) {
+            log.warn("The semantic cache [{}] failed to store the response: {}", this.name, e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> hit(float score) {
+        Map<String, Object> hit = new HashMap<>();
+        hit.put(ResponseCacheAdvisor.CACHE_HIT, true);
+        hit.put(CACHE_SIMILARITY, score);
+        return hit;
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public int getSize() {
+        return this.index.size();
+    }
+
+    public void clear() {
+        this.index.clear();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "SemanticCacheAdvisor{" +
+                "name='" + name + '\'' +
+                ", similarityThreshold=" + similarityThreshold +
+                ", size=" + getSize() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                '}';
+    }
+
+    static final class Query {
+
+        final String text;
+        final String scope;
+
+        private Query(String text, String scope) {
+            this.text = text;
+            this.scope = scope;
+        }
+    }
+
+    private static final class Entry {
+
+        private final String scope;
+        private final CachedResponse response;
+
+        private Entry(String scope, CachedResponse response) {
+            this.scope = scope;
+            this.response = response;
+        }
+    }
+
+    public static class Builder {
+
+        private String name;
+        private Function<String, Mono<float[]>> embedding;
+        private float similarityThreshold = DEFAULT_SIMILARITY_THRESHOLD;
+        private int maximumEntries = DEFAULT_MAXIMUM_ENTRIES;
+        private Duration ttl = ResponseCacheAdvisor.DEFAULT_TTL;
+        private boolean allowNonZeroTemperature = false;
+        private int chunkSize = ResponseCacheAdvisor.DEFAULT_CHUNK_SIZE;
+        private ChatOptions defaultOptions;
+
+        private Builder() {
+        }
+
+        /**
+         * @param name 缓存名, 用于指标; 未指定时为 default-序号, 避免多个实例的指标重名
+         */
+        public Builder withName(String name) {
+            Assert.hasText(name, "The cache name must not be empty");
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * @param embedding 文本向量化, 如调用 embedding 模型; 离线时可用 {@link EmbeddingUtils#hashingEmbedding}
+         */
+        public Builder withEmbedding(Function<String, Mono<float[]>> embedding) {
+            Assert.notNull(embedding, "The embedding function must not be null");
+            this.embedding = embedding;
+            return this;
+        }
+
+        /**
+         * @param similarityThreshold 余弦相似度阈值, (0, 1]
+         */
+        public Builder withSimilarityThreshold(float similarityThreshold) {
+            Assert.isTrue(similarityThreshold > 0 && similarityThreshold <= 1, "The similarity threshold must be in (0, 1]");
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        /**
+         * @param maximumEntries 最大条目数, 满后覆盖最早的条目
+         */
+        public Builder withMaximumEntries(int maximumEntries) {
+            Assert.isTrue(maximumEntries > 0, "The maximum entries must be positive");
+            this.maximumEntries = maximumEntries;
+            return this;
+        }
+
+        public Builder withTtl(Duration ttl) {
+            Assert.isTrue(ttl != null && !ttl.isNegative() && !ttl.isZero(), "The ttl must be positive");
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * @param allowNonZeroTemperature 是否缓存 temperature 不为 0 的请求
+         */
+        public Builder withAllowNonZeroTemperature(boolean allowNonZeroTemperature) {
+            this.allowNonZeroTemperature = allowNonZeroTemperature;
+            return this;
+        }
+
+        /**
+         * @param chunkSize 流式重放时每块的字符数
+         */
+        public Builder withChunkSize(int chunkSize) {
+            Assert.isTrue(chunkSize > 0, "The chunk size must be positive");
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param defaultOptions 模型的默认选项, 为空时只按运行时选项判断与计算作用域
+         */
+        public Builder withDefaultOptions(ChatOptions defaultOptions) {
+            this.defaultOptions = defaultOptions;
+            return this;
+        }
+
+        public SemanticCacheAdvisor build() {
+            Assert.notNull(this.embedding, "The embedding function must be set");
+            return new SemanticCacheAdvisor(this);
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.eastrobot.arch.llms.chat.client.advisor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * <p>进程内的向量索引: 归一化后的向量按行连续存放在一个 float[] 中, 暴力内积检索 top-k, 行数较多时按块并行。</p>
+ * 容量满后覆盖最早写入的行, 过期或不满足过滤条件的行在检索时跳过。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/13 10:00
+ */
+final class VectorIndex<T> {
+
+    /**
+     * 每个并行任务处理的行数, 行数不超过一块时不并行
+     */
+    private static final int BLOCK_ROWS = 1024;
+
+    private final int capacity;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int dimensions;
+    private float[] vectors = new float[0];
+    private Object[] values = new Object[0];
+    private long[] expiresAt = new long[0];
+    private int size;
+    private int next;
+
+    VectorIndex(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return 首次写入前为 0
+     */
+    int dimensions() {
+        this.lock.readLock().lock();
+        try {
+            return this.dimensions;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param vector    已归一化的向量
+     * @param expiresAt 过期时间 (nanoTime)
+     */
+    void add(float[] vector, T value, long expiresAt) {
+        this.lock.writeLock().lock();
+        try {
+            if (this.dimensions == 0)
+                this.dimensions = vector.length;
+            else if (vector.length != this.dimensions)
+                throw new IllegalArgumentException("The vector dimensions must be " + this.dimensions + ": " + vector.length);
+            int row = this.next;
+            if (row >= this.values.length)
+                grow();
+            System.arraycopy(vector, 0, this.vectors, row * this.dimensions, this.dimensions);
+            this.values[row] = value;
+            this.expiresAt[row] = expiresAt;
+            this.next = (row + 1) % this.capacity;
+            this.size = Math.max(this.size, row + 1);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param query    已归一化的向量
+     * @param minScore 最低相似度
+     * @param filter   只检索满足条件的行, 在计算相似度前判断
+     * @param now      当前时间 (nanoTime)
+     * @return 按相似度降序
+     */
+    List<Hit<T>> search(float[] query, int k, float minScore, Predicate<? super T> filter, long now) {
+        this.lock.readLock().lock();
+        try {
+            if (this.size == 0 || query.length != this.dimensions)
+                return Collections.emptyList();
+            int blocks = (this.size + BLOCK_ROWS - 1) / BLOCK_ROWS;
+            TopK top = blocks == 1 ? scan(query, 0, this.size, k, minScore, filter, now)
+                    : IntStream.range(0, blocks).parallel()
+                    .mapToObj(block -> scan(query, block * BLOCK_ROWS, Math.min(this.size, (block + 1) * BLOCK_ROWS), k,
+                            minScore, filter, now))
+                    .reduce(TopK::merge)
+                    .orElseGet(() -> new TopK(k));
+            List<Hit<T>> hits = new ArrayList<>(top.count);
+            for (int i = 0; i < top.count; i++) {
+                @SuppressWarnings("unchecked")
+                T value = (T) this.values[top.rows[i]];
+                hits.add(new Hit<>(value, top.scores[i]));
+            }
+            return hits;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    void clear() {
+        this.lock.writeLock().lock();
+        try {
+            this.vectors = new float[0];
+            this.values = new Object[0];
+            this.expiresAt = new long[0];
+            this.size = 0;
+            this.next = 0;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private TopK scan(float[] query, int from, int to, int k, float minScore, Predicate<? super T> filter, long now) {
+        TopK top = new TopK(k);
+        int dimensions = this.dimensions;
+        float[] vectors = this.vectors;
+        for (int row = from; row < to; row++) {
+            if (this.expiresAt[row] - now <= 0 || !filter.test((T) this.values[row]))
+                continue;
+            int offset = row * dimensions;
+            float score = 0;
+            for (int i = 0; i < dimensions; i++)
+                score += query[i] * vectors[offset + i];
+            if (score >= minScore)
+                top.offer(row, score);
+        }
+        return top;
+    }
+
+    /**
+     * 按需翻倍扩容, 不超过容量
+     */
+    private void grow() {
+        int rows = Math.min(this.capacity, Math.max(16, this.values.length * 2));
+        this.vectors = Arrays.copyOf(this.vectors, rows * this.dimensions);
+        this.values = Arrays.copyOf(this.values, rows);
+        this.expiresAt = Arrays.copyOf(this.expiresAt, rows);
+    }
+
+    static final class Hit<T> {
+
+        final T value;
+        final float score;
+
+        private Hit(T value, float score) {
+            this.value = value;
+            this.score = score;
+        }
+    }
+
+    /**
+     * 按相似度降序的定长候选列表, k 较小时插入排序即可
+     */
+    private static final class TopK {
+
+        private final int[] rows;
+        private final float[] scores;
+        private int count;
+
+        private TopK(int k) {
+            this.rows = new int[k];
+            this.scores = new float[k];
+        }
+
+        private void offer(int row, float score) {
+            if (this.count == this.rows.length && score <= this.scores[this.count - 1])
+                return;
+            int i = this.count == this.rows.length ? this.count - 1 : this.count++;
+            while (i > 0 && this.scores[i - 1] < score) {
+                this.rows[i] = this.rows[i - 1];
+                this.scores[i] = this.scores[i - 1];
+                i--;
+            }
+            this.rows[i] = row;
+            this.scores[i] = score;
+        }
+
+        private TopK merge(TopK other) {
+            for (int i = 0; i < other.count; i++)
+                offer(other.rows[i], other.scores[i]);
+            return this;
+        }
+    }
+
+}
@@ -10,4 +10,6 @@ public final class OpenAiApiConstants {
 
 	public static final String DEFAULT_BASE_URL = "https://api.openai.com";
 
+	public static final String DEFAULT_CHAT_COMPLETIONS_PATH = "/v1/chat/completions";
+
 }
@@ -0,0 +1,199 @@
+package com.eastrobot.arch.llms.chat.openai;
+
+import com.eastrobot.arch.llms.chat.api.LlmsAiBatchApi;
+import com.eastrobot.arch.llms.chat.model.IndexedChatResponse;
+import com.eastrobot.arch.llms.chat.openai.model.Batch;
+import com.eastrobot.arch.llms.chat.openai.model.BatchRequestLine;
+import com.eastrobot.arch.llms.chat.openai.model.BatchResponseLine;
+import com.eastrobot.arch.llms.chat.openai.model.FileObject;
+import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import com.eastrobot.arch.llms.common.RetryUtil;
+import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * <p>基于 OpenAI 兼容 /v1/batches 的离线批处理: 逐条写入 jsonl、上传、轮询直至结束, 再流式解析结果文件。</p>
+ * 请求体由 {@link OpenAiChatModel#createRequest} 生成, 选项处理与在线调用一致; custom_id 为 prompt 在列表中的下标。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/20 10:30
+ */
+@Slf4j
+@Getter
+@Setter
+public class OpenAiBatchModel {
+
+    private static final String PURPOSE = "batch";
+
+    private final OpenAiChatModel chatModel;
+    private final LlmsAiBatchApi batchApi;
+
+    private Duration pollInterval = Duration.ofSeconds(30);
+    /**
+     * 等待批任务结束的最长时间, 为空时一直轮询到终态
+     */
+    private Duration maxWait;
+    /**
+     * 轮询时允许连续出现的瞬时错误(429/5xx/网络异常)次数, 超过后以该错误结束等待
+     */
+    private int maxPollErrors = 10;
+    /**
+     * {@link #call} 消费完结果(完成、出错或取消)后是否删除输入、输出与错误文件;
+     * 关闭后由调用方通过 {@link #cleanup} 或 {@link LlmsAiBatchApi#deleteFile} 自行清理
+     */
+    private boolean deleteFiles = true;
+    private String completionWindow = LlmsAiBatchApi.DEFAULT_COMPLETION_WINDOW;
+
+    public OpenAiBatchModel(OpenAiChatModel chatModel, LlmsAiBatchApi batchApi) {
+        Assert.notNull(chatModel, "ChatModel must not be null");
+        Assert.notNull(batchApi, "BatchApi must not be null");
+        this.chatModel = chatModel;
+        this.batchApi = batchApi;
+    }
+
+    /**
+     * 提交批任务, 等待结束后按结果文件流式返回, 输出顺序为结果文件中的顺序
+     */
+    public Flux<IndexedChatResponse> call(List<Prompt> prompts) {
+        return submit(prompts)
+                .flatMap(batch -> await(batch.getId()))
+                .flatMapMany(batch -> this.deleteFiles
+                        ? Flux.usingWhen(Mono.just(batch), this::results, this::cleanup)
+                        : results(batch));
+    }
+
+    /**
+     * 写入临时 jsonl 文件并上传, 创建批任务; 临时文件在上传结束后删除
+     */
+    public Mono<Batch> submit(List<Prompt> prompts) {
+        Assert.notEmpty(prompts, "The prompts must not be empty");
+        return Mono.using(() -> writeRequests(prompts, Files.createTempFile("llms-batch-", ".jsonl")),
+                        file -> this.batchApi.uploadFile(file, PURPOSE, FileObject.class),
+                        this::deleteQuietly)
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(file -> this.batchApi.createBatch(file.getId(), endpoint(), this.completionWindow, Batch.class))
+                .doOnNext(batch -> log.info("openai batch created:{}, prompts:{}", batch.getId(), prompts.size()));
+    }
+
+    /**
+     * 按 pollInterval 轮询, 直到批任务进入终态(completed/failed/expired/cancelled);
+     * 单次轮询的瞬时错误只记录日志, 在下一次轮询时重试, 最终的错误信息带上 batchId
+     */
+    public Mono<Batch> await(String batchId) {
+        return Mono.defer(() -> {
+            AtomicInteger errors = new AtomicInteger();
+            Mono<Batch> terminal = this.batchApi.retrieveBatch(batchId, Batch.class)
+                    .doOnNext(batch -> {
+                        errors.set(0);
+                        if (log.isDebugEnabled())
+                            log.debug("openai batch:{}, status:{}", batchId, batch.getStatus());
+                    })
+                    .onErrorResume(e -> RetryUtil.isTransient(e) && errors.incrementAndGet() <= this.maxPollErrors, e -> {
+                        log.warn("Failed to poll the openai batch:{}, retry in {}: {}", batchId, this.pollInterval, e.toString());
+                        return Mono.empty();
+                    })
+                    .repeatWhen(completed -> completed.delayElements(this.pollInterval))
+                    .filter(Batch::isTerminal)
+                    .next();
+            return this.maxWait != null ? terminal.timeout(this.maxWait) : terminal;
+        }).onErrorMap(e -> e instanceof TimeoutException
+                ? new IllegalStateException("The batch [" + batchId + "] did not end within " + this.maxWait, e)
+                : new IllegalStateException("Failed to poll the batch [" + batchId + "]: " + e.getMessage(), e));
+    }
+
+    /**
+     * 流式解析输出文件与错误文件, 按 custom_id 还原为 prompt 下标
+     */
+    public Flux<IndexedChatResponse> results(Batch batch) {
+        if (StringUtils.isBlank(batch.getOutputFileId()) && StringUtils.isBlank(batch.getErrorFileId()))
+            return Flux.error(new IllegalStateException("The batch [" + batch.getId() + "] ended without results, status: " + batch.getStatus()));
+        Flux<BatchResponseLine> lines = Flux.empty();
+        if (StringUtils.isNotBlank(batch.getOutputFileId()))
+            lines = lines.concatWith(this.batchApi.fileLines(batch.getOutputFileId(), BatchResponseLine.class));
+        if (StringUtils.isNotBlank(batch.getErrorFileId()))
+            lines = lines.concatWith(this.batchApi.fileLines(batch.getErrorFileId(), BatchResponseLine.class));
+        return lines.map(this::toIndexedResponse);
+    }
+
+    /**
+     * 删除批任务的输入、输出与错误文件, 删除失败只记录日志
+     */
+    public Mono<Void> cleanup(Batch batch) {
+        return Flux.fromStream(Stream.of(batch.getInputFileId(), batch.getOutputFileId(), batch.getErrorFileId())
+                        .filter(StringUtils::isNotBlank))
+                .flatMap(fileId -> this.batchApi.deleteFile(fileId)
+                        .onErrorResume(e -> {
+                            log.warn("Failed to delete the file:{} of the openai batch:{}: {}", fileId, batch.getId(), e.toString());
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    /**
+     * 逐条生成请求并写入 jsonl, 同一时刻只持有一条请求体; 写入或生成请求失败时删除文件, 不留下部分写入的 prompt
+     */
+    public Path writeRequests(List<Prompt> prompts, Path file) {
+        String url = endpoint();
+        try (SequenceWriter writer = ModelOptionsUtils.OBJECT_MAPPER.writer()
+                .withRootValueSeparator("\n")
+                .writeValues(Files.newOutputStream(file))) {
+            for (int i = 0; i < prompts.size(); i++)
+                writer.write(new BatchRequestLine(String.valueOf(i), "POST", url,
+                        this.chatModel.createRequest(prompts.get(i), false)));
+        } catch (IOException e) {
+            deleteQuietly(file);
+            throw new UncheckedIOException("Failed to write the batch file: " + file, e);
+        } catch (RuntimeException e) {
+            deleteQuietly(file);
+            throw e;
+        }
+        return file;
+    }
+
+    private IndexedChatResponse toIndexedResponse(BatchResponseLine line) {
+        int index = Integer.parseInt(line.getCustomId());
+        BatchResponseLine.Response response = line.getResponse();
+        if (line.getError() != null)
+            return IndexedChatResponse.failure(index, new IllegalStateException(
+                    "The batch request failed: " + line.getError().getCode() + ", " + line.getError().getMessage()));
+        if (response == null || response.getStatusCode() == null || response.getStatusCode() != 200 || response.getBody() == null)
+            return IndexedChatResponse.failure(index, new IllegalStateException(
+                    "The batch request failed with status: " + (response == null ? null : response.getStatusCode())));
+        return IndexedChatResponse.success(index, this.chatModel.toChatResponse(null, response.getBody()));
+    }
+
+    private String endpoint() {
+        String uri = this.batchApi.getUri();
+        if (StringUtils.isBlank(uri))
+            return OpenAiApiConstants.DEFAULT_CHAT_COMPLETIONS_PATH;
+        return uri.startsWith("/") ? uri : "/" + uri;
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete the batch file:{}", file, e);
+        }
+    }
+
+}
@@ -1,7 +1,9 @@
 package com.eastrobot.arch.llms.chat.openai;
 
+import com.eastrobot.arch.llms.balancer.LoadBalancer;
 import com.eastrobot.arch.llms.chat.api.LlmsAiApi;
 import com.eastrobot.arch.llms.chat.messages.AssistantMessage;
+import com.eastrobot.arch.llms.chat.messages.Message;
 import com.eastrobot.arch.llms.chat.messages.MessageType;
 import com.eastrobot.arch.llms.chat.messages.UserMessage;
 import com.eastrobot.arch.llms.chat.metadata.ChatGenerationMetadata;
@@ -12,19 +14,26 @@ import com.eastrobot.arch.llms.chat.model.ChatModel;
 import com.eastrobot.arch.llms.chat.model.ChatResponse;
 import com.eastrobot.arch.llms.chat.model.Generation;
 import com.eastrobot.arch.llms.chat.openai.metadata.OpenAiUsage;
+import com.eastrobot.arch.llms.chat.openai.metadata.support.OpenAiResponseHeaderExtractor;
 import com.eastrobot.arch.llms.chat.openai.model.*;
 import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
 import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import com.eastrobot.arch.llms.common.ApiUtils;
 import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.MimeType;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -37,8 +46,25 @@ import java.util.stream.Collectors;
 @Slf4j
 public class OpenAiChatModel implements ChatModel {
 
+    private static final byte[] CALL_REQUEST_SUFFIX = ",\"stream\":false}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] STREAM_REQUEST_SUFFIX = ",\"stream\":true}".getBytes(StandardCharsets.UTF_8);
+
     private final LlmsAiApi llmsAiApi;
     private final OpenAiChatOptions defaultOptions;
+    /**
+     * 构建时固化的默认选项与默认请求, 每次请求只需合并 Prompt 中的运行时选项
+     */
+    private final OpenAiChatOptions defaultSnapshot;
+    private final ChatCompletionRequest defaultRequest;
+    /**
+     * 默认选项预序列化后的请求前缀(以 "messages": 结尾), 运行时选项与默认一致时直接拼接消息字节
+     */
+    private final byte[] callRequestPrefix;
+    private final byte[] streamRequestPrefix;
+    /**
+     * 模型是否支持 response_format 为 json_schema
+     */
+    private volatile boolean jsonSchemaSupported;
 
     /**
      * Creates an instance of the OpenAiChatModel.
@@ -63,6 +89,11 @@ public class OpenAiChatModel implements ChatModel {
         Assert.notNull(options, "Options must not be null");
         this.llmsAiApi = openAiApi;
         this.defaultOptions = options;
+        this.defaultSnapshot = OpenAiChatOptions.fromOptions(options);
+        this.defaultRequest = ModelOptionsUtils.merge(null, this.defaultSnapshot, ChatCompletionRequest.class);
+        this.streamRequestPrefix = requestPrefix(this.defaultRequest);
+        // Remove `streamOptions` from the non streaming request
+        this.callRequestPrefix = requestPrefix(this.defaultRequest.withStreamOptions(null));
     }
 
     @Override
@@ -70,18 +101,54 @@ public class OpenAiChatModel implements ChatModel {
         return this.defaultOptions.getModel();
     }
 
+    @Override
+    public boolean supportsJsonSchema() {
+        return this.jsonSchemaSupported;
+    }
+
+    public void setJsonSchemaSupported(boolean jsonSchemaSupported) {
+        this.jsonSchemaSupported = jsonSchemaSupported;
+    }
+
     @Override
     public ChatResponse call(Prompt prompt) {
-        ChatCompletionRequest request = createRequest(prompt, false);
-        if (log.isDebugEnabled())
-            log.debug("openai request:{}", ModelOptionsUtils.toJsonString(request));
-        ChatCompletion chatCompletion = this.llmsAiApi.chatCompletionEntity(request, ChatCompletion.class);
+        return callAsync(prompt).block();
+    }
+
+    @Override
+    public Mono<ChatResponse> callAsync(Prompt prompt) {
+        return Mono.defer(() -> {
+            Object request = createRequestBody(prompt, false);
+            if (log.isDebugEnabled())
+                log.debug("openai request:{}", requestJson(request));
+            return this.llmsAiApi.chatCompletionResponseMono(request, ChatCompletion.class, estimateTokens(prompt))
+                    .filter(entity -> entity.getBody() != null)
+                    .map(entity -> toChatResponse(prompt, entity.getBody(),
+                            OpenAiResponseHeaderExtractor.extractAiResponseHeaders(entity.getHeaders())))
+                    .switchIfEmpty(Mono.fromSupplier(() -> {
+                        log.warn("No chat completion returned for prompt: {}", prompt);
+                        return new ChatResponse(new ArrayList<>());
+                    }));
+        }).contextWrite(routingKey(prompt));
+    }
+
+    /**
+     * 未指定会话 id 时以 user 作为负载均衡的路由键
+     */
+    private Function<Context, Context> routingKey(Prompt prompt) {
+        String user = prompt.getOptions() instanceof OpenAiChatOptions
+                ? ((OpenAiChatOptions) prompt.getOptions()).getUser() : null;
+        String key = user != null ? user : this.defaultSnapshot.getUser();
+        return ctx -> key == null || ctx.hasKey(LoadBalancer.ROUTING_KEY) ? ctx : ctx.put(LoadBalancer.ROUTING_KEY, key);
+    }
+
+    ChatResponse toChatResponse(Prompt prompt, ChatCompletion chatCompletion) {
+        return toChatResponse(prompt, chatCompletion, null);
+    }
+
+    ChatResponse toChatResponse(Prompt prompt, ChatCompletion chatCompletion, RateLimit rateLimit) {
         if (log.isDebugEnabled())
             log.debug("openai completion:{}", ModelOptionsUtils.toJsonString(chatCompletion));
-        if (chatCompletion == null) {
-            log.warn("No chat completion returned for prompt: {}", prompt);
-            return new ChatResponse(new ArrayList<>());
-        }
 
        /* if (isToolFunctionCall(chatCompletion)) {
             List<Message> toolCallMessageConversation = this.handleToolCallRequests(prompt.getInstructions(),
@@ -92,9 +159,6 @@ public class OpenAiChatModel implements ChatModel {
             return this.call(new Prompt(toolCallMessageConversation, prompt.getOptions()));
         }*/
 
-        // Non function calling.
-//        RateLimit rateLimits = OpenAiResponseHeaderExtractor.extractAiResponseHeaders(completionEntity);
-
         List<ChatCompletion.Choice> choices = chatCompletion.getChoices();
         if (choices == null) {
             log.warn("No choices returned for prompt: {}", prompt);
@@ -119,17 +183,89 @@ public class OpenAiChatModel implements ChatModel {
 
         }).collect(Collectors.toList());
 
-        return new ChatResponse(generations, from(chatCompletion, null));
-        /*return new ChatResponse(generations,
-                OpenAiChatResponseMetadata.from(chatCompletion).withRateLimit(rateLimits));*/
+        return new ChatResponse(generations, from(chatCompletion, rateLimit));
 
 //        return null;
     }
 
+    /**
+     * 粗略预估请求消耗的 token 数(输入 + max_tokens), 仅用于客户端限流, 估算方式见 {@link ApiUtils#estimateTokens}
+     */
+    long estimateTokens(Prompt prompt) {
+        long tokens = 0;
+        for (Message message : prompt.getInstructions())
+            tokens += ApiUtils.estimateTokens(message.getContent());
+        Integer maxTokens = prompt.getOptions() != null ? prompt.getOptions().getMaxTokens() : null;
+        if (maxTokens == null)
+            maxTokens = this.defaultSnapshot.getMaxTokens();
+        return tokens + (maxTokens != null ? maxTokens : 0);
+    }
+
+    /**
+     * 运行时选项为空或与默认选项一致时, 直接拼接预序列化的默认前缀与消息; 否则构建 {@link ChatCompletionRequest}。
+     *
+     * @return byte[] 或 ChatCompletionRequest
+     */
+    Object createRequestBody(Prompt prompt, boolean stream) {
+        ChatOptions options = prompt.getOptions();
+        if (options != null && !this.defaultSnapshot.equals(options))
+            return createRequest(prompt, stream);
+        byte[] prefix = stream ? this.streamRequestPrefix : this.callRequestPrefix;
+        byte[] suffix = stream ? STREAM_REQUEST_SUFFIX : CALL_REQUEST_SUFFIX;
+        byte[] messages;
+        try {
+            messages = ModelOptionsUtils.OBJECT_MAPPER.writeValueAsBytes(toCompletionMessages(prompt));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] body = new byte[prefix.length + messages.length + suffix.length];
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+        System.arraycopy(messages, 0, body, prefix.length, messages.length);
+        System.arraycopy(suffix, 0, body, prefix.length + messages.length, suffix.length);
+        return body;
+    }
+
     ChatCompletionRequest createRequest(Prompt prompt, boolean stream) {
 
 //        Set<String> functionsForThisRequest = new HashSet<>();
-        List<ChatCompletionMessage> chatCompletionMessages = prompt.getInstructions().stream().map(message -> {
+        List<ChatCompletionMessage> chatCompletionMessages = toCompletionMessages(prompt);
+
+        ChatCompletionRequest request;
+
+        if (prompt.getOptions() != null) {
+            OpenAiChatOptions updatedRuntimeOptions = ModelOptionsUtils.copyToTarget(prompt.getOptions(),
+                    ChatOptions.class, OpenAiChatOptions.class);
+
+            /*Set<String> promptEnabledFunctions = this.handleFunctionCallbackConfigurations(updatedRuntimeOptions,
+                    IS_RUNTIME_CALL);
+            functionsForThisRequest.addAll(promptEnabledFunctions);*/
+
+            // the runtime options override the pre-resolved default request
+            request = ModelOptionsUtils.merge(updatedRuntimeOptions, this.defaultRequest, ChatCompletionRequest.class);
+        } else {
+            request = ModelOptionsUtils.merge(null, this.defaultRequest, ChatCompletionRequest.class);
+        }
+        request.setMessages(chatCompletionMessages);
+        request.setStream(stream);
+
+        // Add the enabled functions definitions to the request's tools parameter.
+        /*if (!CollectionUtils.isEmpty(functionsForThisRequest)) {
+
+            request = ModelOptionsUtils.merge(
+                    OpenAiChatOptions.builder().withTools(this.getFunctionTools(functionsForThisRequest)).build(),
+                    request, ChatCompletionRequest.class);
+        }*/
+
+        // Remove `streamOptions` from the request if it is not a streaming request
+        if (request.getStreamOptions() != null && !stream) {
+            log.warn("Removing streamOptions from the request as it is not a streaming request!");
+            request = request.withStreamOptions(null);
+        }
+        return request;
+    }
+
+    private List<ChatCompletionMessage> toCompletionMessages(Prompt prompt) {
+        return prompt.getInstructions().stream().map(message -> {
             if (message.getMessageType() == MessageType.USER || message.getMessageType() == MessageType.SYSTEM) {
                 Object content = message.getContent();
                 if (message instanceof UserMessage) {
@@ -176,44 +312,16 @@ public class OpenAiChatModel implements ChatModel {
                 throw new IllegalArgumentException("Unsupported message type: " + message.getMessageType());
             }
         }).flatMap(List::stream).collect(Collectors.toList());
+    }
 
-        ChatCompletionRequest request = new ChatCompletionRequest(chatCompletionMessages, stream);
-
-        if (prompt.getOptions() != null) {
-            OpenAiChatOptions updatedRuntimeOptions = ModelOptionsUtils.copyToTarget(prompt.getOptions(),
-                    ChatOptions.class, OpenAiChatOptions.class);
-
-            /*Set<String> promptEnabledFunctions = this.handleFunctionCallbackConfigurations(updatedRuntimeOptions,
-                    IS_RUNTIME_CALL);
-            functionsForThisRequest.addAll(promptEnabledFunctions);*/
-
-            request = ModelOptionsUtils.merge(updatedRuntimeOptions, request, ChatCompletionRequest.class);
-        }
-
-        if (this.defaultOptions != null) {
-
-            /*Set<String> defaultEnabledFunctions = this.handleFunctionCallbackConfigurations(this.defaultOptions,
-                    !IS_RUNTIME_CALL);
-
-            functionsForThisRequest.addAll(defaultEnabledFunctions);*/
-
-            request = ModelOptionsUtils.merge(request, this.defaultOptions, ChatCompletionRequest.class);
-        }
-
-        // Add the enabled functions definitions to the request's tools parameter.
-        /*if (!CollectionUtils.isEmpty(functionsForThisRequest)) {
-
-            request = ModelOptionsUtils.merge(
-                    OpenAiChatOptions.builder().withTools(this.getFunctionTools(functionsForThisRequest)).build(),
-                    request, ChatCompletionRequest.class);
-        }*/
+    private static byte[] requestPrefix(ChatCompletionRequest defaultRequest) {
+        String json = ModelOptionsUtils.toJsonString(defaultRequest);
+        String fields = json.substring(1, json.length() - 1);
+        return ("{" + (fields.isEmpty() ? "" : fields + ",") + "\"messages\":").getBytes(StandardCharsets.UTF_8);
+    }
 
-        // Remove `streamOptions` from the request if it is not a streaming request
-        if (request.getStreamOptions() != null && !stream) {
-            log.warn("Removing streamOptions from the request as it is not a streaming request!");
-            request = request.withStreamOptions(null);
-        }
-        return request;
+    private static String requestJson(Object request) {
+        return request instanceof byte[] ? new String((byte[]) request, StandardCharsets.UTF_8) : ModelOptionsUtils.toJsonString(request);
     }
 
     private String fromMediaData(MimeType mimeType, Object mediaContentData) {
@@ -234,12 +342,18 @@ public class OpenAiChatModel implements ChatModel {
 
     private ChatResponseMetadata from(ChatCompletion result, RateLimit rateLimit) {
         Assert.notNull(result, "OpenAI ChatCompletionResult must not be null");
+        return from(result.getId(), result.getUsage(), result.getModel(), result.getCreated(),
+                result.getSystemFingerprint(), rateLimit);
+    }
+
+    private ChatResponseMetadata from(String id, Usage usage, String model, Long created, String systemFingerprint,
+                                      RateLimit rateLimit) {
         ChatResponseMetadata.Builder builder = ChatResponseMetadata.builder()
-                .withId(result.getId() != null ? result.getId() : "")
-                .withUsage(result.getUsage() != null ? OpenAiUsage.from(result.getUsage()) : new EmptyUsage())
-                .withModel(result.getModel() != null ? result.getModel() : "")
-                .withKeyValue("created", result.getCreated() != null ? result.getCreated() : 0L)
-                .withKeyValue("system-fingerprint", result.getSystemFingerprint() != null ? result.getSystemFingerprint() : "");
+                .withId(id != null ? id : "")
+                .withUsage(usage != null ? OpenAiUsage.from(usage) : new EmptyUsage())
+                .withModel(model != null ? model : "")
+                .withKeyValue("created", created != null ? created : 0L)
+                .withKeyValue("system-fingerprint", systemFingerprint != null ? systemFingerprint : "");
         if (rateLimit != null) {
             builder.withRateLimit(rateLimit);
         }
@@ -253,47 +367,52 @@ public class OpenAiChatModel implements ChatModel {
 
     @Override
     public Flux<ChatResponse> stream(Prompt prompt) {
-        ChatCompletionRequest request = createRequest(prompt, true);
-        log.info("openai stream:{}", ModelOptionsUtils.toJsonString(request));
-        Flux<ChatCompletionChunk> completionChunks = this.llmsAiApi.chatCompletionStream(request, ChatCompletionChunk.class);
+        Object request = createRequestBody(prompt, true);
+        if (log.isDebugEnabled())
+            log.debug("openai stream:{}", requestJson(request));
+        AtomicReference<RateLimit> rateLimit = new AtomicReference<>();
+        OpenAiChatOptions runtimeOptions = prompt.getOptions() instanceof OpenAiChatOptions
+                ? (OpenAiChatOptions) prompt.getOptions() : this.defaultSnapshot;
+        Flux<ChatCompletionChunk> completionChunks = this.llmsAiApi.chatCompletionStream(request, ChatCompletionChunk.class,
+                estimateTokens(prompt), headers -> rateLimit.set(OpenAiResponseHeaderExtractor.extractAiResponseHeaders(headers)),
+                ModelOptionsUtils.mergeOption(runtimeOptions.getFirstTokenTimeout(), this.defaultSnapshot.getFirstTokenTimeout()),
+                ModelOptionsUtils.mergeOption(runtimeOptions.getIdleTimeout(), this.defaultSnapshot.getIdleTimeout()));
         ConcurrentHashMap<String, String> roleMap = new ConcurrentHashMap<>();
 
-        // Convert the ChatCompletionChunk into a ChatCompletion to be able to reuse
-        // the function call handling logic.
-        Flux<ChatResponse> chatResponse = completionChunks.map(this::chunkToChatCompletion)
-                .switchMap(chatCompletion -> Mono.just(chatCompletion).map(chatCompletion2 -> {
-                    try {
-                        @SuppressWarnings("null")
-                        String id = chatCompletion2.getId();
-                        // @formatter:off
-                        List<Generation> generations = chatCompletion2.getChoices().stream().map(choice -> {
-                            if (choice.getMessage().getRole() != null) {
-                                roleMap.putIfAbsent(id, choice.getMessage().getRole().name());
-                            }
-                            Map<String, Object> metadata = new HashMap<String, Object>() {{
-                                put("id", chatCompletion2.getId());
-                                put("role", roleMap.getOrDefault(id, ""));
-                                put("finishReason", choice.getFinishReason() != null ? choice.getFinishReason().name() : "");
-                            }};
-                            Generation generation = new Generation(choice.getMessage().content(), metadata);
-                            if (choice.getFinishReason() != null) {
-                                generation = generation
-                                        .withGenerationMetadata(ChatGenerationMetadata.from(choice.getFinishReason().name(), null));
-                            }
-                            return generation;
-                        }).collect(Collectors.toList());
-                        // @formatter:on
-
-                        if (chatCompletion2.getUsage() != null) {
-                            return new ChatResponse(generations, from(chatCompletion2, null));
-                        } else {
-                            return new ChatResponse(generations);
-                        }
-                    } catch (Exception e) {
-                        log.error("Error processing chat completion", e);
-                        return new ChatResponse(Collections.emptyList());
+        // Map the ChatCompletionChunk straight to a ChatResponse, without copying it into a ChatCompletion.
+        Flux<ChatResponse> chatResponse = completionChunks.map(chunk -> {
+            try {
+                String id = chunk.getId();
+                // @formatter:off
+                List<Generation> generations = chunk.getChoices().stream().map(choice -> {
+                    if (choice.getDelta().getRole() != null) {
+                        roleMap.putIfAbsent(id, choice.getDelta().getRole().name());
                     }
-                }));
+                    Map<String, Object> metadata = new HashMap<String, Object>() {{
+                        put("id", id);
+                        put("role", roleMap.getOrDefault(id, ""));
+                        put("finishReason", choice.getFinishReason() != null ? choice.getFinishReason().name() : "");
+                    }};
+                    Generation generation = new Generation(choice.getDelta().content(), metadata);
+                    if (choice.getFinishReason() != null) {
+                        generation = generation
+                                .withGenerationMetadata(ChatGenerationMetadata.from(choice.getFinishReason().name(), null));
+                    }
+                    return generation;
+                }).collect(Collectors.toList());
+                // @formatter:on
+
+                if (chunk.getUsage() != null) {
+                    return new ChatResponse(generations, from(chunk.getId(), chunk.getUsage(), chunk.getModel(),
+                            chunk.getCreated(), chunk.getSystemFingerprint(), rateLimit.get()));
+                } else {
+                    return new ChatResponse(generations);
+                }
+            } catch (Exception e) {
+                log.error("Error processing chat completion", e);
+                return new ChatResponse(Collections.emptyList());
+            }
+        });
 
         /*if (isToolCall(response, OpenAiApi.ChatCompletionFinishReason.TOOL_CALLS.name())) {
                 var toolCallConversation = handleToolCalls(prompt, response);
@@ -303,7 +422,7 @@ public class OpenAiChatModel implements ChatModel {
             }
             else {*/
         //            }
-        return chatResponse.flatMap(Flux::just);
+        return chatResponse.flatMap(Flux::just).contextWrite(routingKey(prompt));
 
 
 //        return ChatModel.super.stream(prompt);
@@ -319,15 +438,4 @@ public class OpenAiChatModel implements ChatModel {
                 .withKeyValue("system-fingerprint", result.systemFingerprint())
                 .build();
     }*/
-
-    private ChatCompletion chunkToChatCompletion(ChatCompletionChunk chunk) {
-        List<ChatCompletion.Choice> choices = chunk.getChoices()
-                .stream()
-                .map(chunkChoice -> new ChatCompletion.Choice(chunkChoice.getFinishReason(), chunkChoice.getIndex(), chunkChoice.getDelta(),
-                        chunkChoice.getLogprobs()))
-                .collect(Collectors.toList());
-
-        return new ChatCompletion(chunk.getId(), choices, chunk.getCreated(), chunk.getModel(),
-                chunk.getSystemFingerprint(), "chat.completion", chunk.getUsage());
-    }
 }
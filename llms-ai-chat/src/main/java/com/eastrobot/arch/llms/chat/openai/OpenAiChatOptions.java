@@ -18,13 +18,16 @@ package com.eastrobot.arch.llms.chat.openai;
 import com.eastrobot.arch.llms.chat.openai.model.ResponseFormat;
 import com.eastrobot.arch.llms.chat.openai.model.StreamOptions;
 import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
+import com.eastrobot.arch.llms.chat.prompt.StreamTimeoutOptions;
 import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import org.springframework.boot.context.properties.NestedConfigurationProperty;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -37,7 +40,7 @@ import java.util.Objects;
  */
 @Data
 @JsonInclude(Include.NON_NULL)
-public class OpenAiChatOptions implements ChatOptions {
+public class OpenAiChatOptions implements ChatOptions, StreamTimeoutOptions {
 
     // @formatter:off
     /**
@@ -128,6 +131,16 @@ public class OpenAiChatOptions implements ChatOptions {
 
     private @JsonProperty("custom") Map<String, Object> custom;
 
+    /**
+     * 流式请求的首个数据块超时, 为空时使用模型配置, 不发送给模型
+     */
+    private @JsonIgnore Duration firstTokenTimeout;
+
+    /**
+     * 流式请求两个数据块之间的最大间隔, 为空时使用模型配置, 不发送给模型
+     */
+    private @JsonIgnore Duration idleTimeout;
+
     public static Builder builder() {
         return new Builder();
     }
@@ -227,6 +240,16 @@ public class OpenAiChatOptions implements ChatOptions {
             return this;
         }
 
+        public Builder withFirstTokenTimeout(Duration firstTokenTimeout) {
+            this.options.firstTokenTimeout = firstTokenTimeout;
+            return this;
+        }
+
+        public Builder withIdleTimeout(Duration idleTimeout) {
+            this.options.idleTimeout = idleTimeout;
+            return this;
+        }
+
         public OpenAiChatOptions build() {
             return this.options;
         }
@@ -246,7 +269,8 @@ public class OpenAiChatOptions implements ChatOptions {
     public int hashCode() {
         return Objects.hash(this.model, this.frequencyPenalty, this.logitBias, this.logprobs, this.topLogprobs,
                 this.maxTokens, this.n, this.presencePenalty, this.responseFormat, this.streamOptions, this.seed,
-                this.stop, this.temperature, this.topP, this.topK, this.user, this.custom);
+                this.stop, this.temperature, this.topP, this.topK, this.user, this.custom, this.firstTokenTimeout,
+                this.idleTimeout);
     }
 
     @Override
@@ -265,7 +289,9 @@ public class OpenAiChatOptions implements ChatOptions {
                 && Objects.equals(this.streamOptions, other.streamOptions) && Objects.equals(this.seed, other.seed)
                 && Objects.equals(this.stop, other.stop) && Objects.equals(this.temperature, other.temperature)
                 && Objects.equals(this.topP, other.topP) && Objects.equals(this.topK, other.topK)
-                && Objects.equals(this.user, other.user) && Objects.equals(this.custom, other.custom);
+                && Objects.equals(this.user, other.user) && Objects.equals(this.custom, other.custom)
+                && Objects.equals(this.firstTokenTimeout, other.firstTokenTimeout)
+                && Objects.equals(this.idleTimeout, other.idleTimeout);
     }
 
     @Override
@@ -292,6 +318,8 @@ public class OpenAiChatOptions implements ChatOptions {
                 .withTopK(fromOptions.getTopK())
                 .withUser(fromOptions.getUser())
                 .withCustom(fromOptions.getCustom())
+                .withFirstTokenTimeout(fromOptions.getFirstTokenTimeout())
+                .withIdleTimeout(fromOptions.getIdleTimeout())
                 .build();
     }
 
@@ -66,6 +66,12 @@ public class OpenAiUsage implements Usage {
         }
     }
 
+    @Override
+    public Long getCachedTokens() {
+        com.eastrobot.arch.llms.chat.openai.model.Usage.PromptTokensDetails details = getUsage().getPromptTokensDetails();
+        return details != null && details.getCachedTokens() != null ? details.getCachedTokens().longValue() : 0;
+    }
+
     @Override
     public String toString() {
         return getUsage().toString();
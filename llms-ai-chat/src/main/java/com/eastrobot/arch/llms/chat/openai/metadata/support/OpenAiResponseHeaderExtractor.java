@@ -22,13 +22,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.Assert;
-import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
-import java.util.List;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -47,39 +45,39 @@ public class OpenAiResponseHeaderExtractor {
 	private static final Logger logger = LoggerFactory.getLogger(OpenAiResponseHeaderExtractor.class);
 
 	public static RateLimit extractAiResponseHeaders(ResponseEntity<?> response) {
+		return extractAiResponseHeaders(response.getHeaders());
+	}
+
+	public static RateLimit extractAiResponseHeaders(HttpHeaders headers) {
 
-		Long requestsLimit = getHeaderAsLong(response, REQUESTS_LIMIT_HEADER.getName());
-		Long requestsRemaining = getHeaderAsLong(response, REQUESTS_REMAINING_HEADER.getName());
-		Long tokensLimit = getHeaderAsLong(response, TOKENS_LIMIT_HEADER.getName());
-		Long tokensRemaining = getHeaderAsLong(response, TOKENS_REMAINING_HEADER.getName());
+		Long requestsLimit = getHeaderAsLong(headers, REQUESTS_LIMIT_HEADER.getName());
+		Long requestsRemaining = getHeaderAsLong(headers, REQUESTS_REMAINING_HEADER.getName());
+		Long tokensLimit = getHeaderAsLong(headers, TOKENS_LIMIT_HEADER.getName());
+		Long tokensRemaining = getHeaderAsLong(headers, TOKENS_REMAINING_HEADER.getName());
 
-		Duration requestsReset = getHeaderAsDuration(response, REQUESTS_RESET_HEADER.getName());
-		Duration tokensReset = getHeaderAsDuration(response, TOKENS_RESET_HEADER.getName());
+		Duration requestsReset = getHeaderAsDuration(headers, REQUESTS_RESET_HEADER.getName());
+		Duration tokensReset = getHeaderAsDuration(headers, TOKENS_RESET_HEADER.getName());
 
 		return new OpenAiRateLimit(requestsLimit, requestsRemaining, requestsReset, tokensLimit, tokensRemaining,
 				tokensReset);
 	}
 
-	private static Duration getHeaderAsDuration(ResponseEntity<?> response, String headerName) {
-		HttpHeaders headers = response.getHeaders();
-		if (headers.containsKey(headerName)) {
-			List<String> values = headers.get(headerName);
-			if (!CollectionUtils.isEmpty(values)) {
-				return DurationFormatter.TIME_UNIT.parse(values.get(0));
+	private static Duration getHeaderAsDuration(HttpHeaders headers, String headerName) {
+		String value = headers.getFirst(headerName);
+		if (StringUtils.hasText(value)) {
+			try {
+				return DurationFormatter.TIME_UNIT.parse(value);
+			}
+			catch (RuntimeException e) {
+				logger.warn("Value [{}] for HTTP header [{}] is not valid: {}", value, headerName, e.getMessage());
 			}
 		}
 		return null;
 	}
 
-	private static Long getHeaderAsLong(ResponseEntity<?> response, String headerName) {
-		HttpHeaders headers = response.getHeaders();
-		if (headers.containsKey(headerName)) {
-			List<String> values = headers.get(headerName);
-			if (!CollectionUtils.isEmpty(values)) {
-				return parseLong(headerName, values.get(0));
-			}
-		}
-		return null;
+	private static Long getHeaderAsLong(HttpHeaders headers, String headerName) {
+		String value = headers.getFirst(headerName);
+		return value != null ? parseLong(headerName, value) : null;
 	}
 
 	private static Long parseLong(String headerName, String headerValue) {
@@ -99,7 +97,7 @@ public class OpenAiResponseHeaderExtractor {
 
 	enum DurationFormatter {
 
-		TIME_UNIT("\\d+[a-zA-Z]{1,2}");
+		TIME_UNIT("\\d+(?:\\.\\d+)?[a-zA-Z]{1,2}");
 
 		private final Pattern pattern;
 
@@ -165,8 +163,8 @@ public class OpenAiResponseHeaderExtractor {
 				return parse(value, Character::isLetter);
 			}
 
-			private static Long parseTime(String value) {
-				return Long.parseLong(parse(value, Character::isDigit));
+			private static double parseTime(String value) {
+				return Double.parseDouble(parse(value, character -> Character.isDigit(character) || character == '.'));
 			}
 
 			public String getName() {
@@ -182,7 +180,8 @@ public class OpenAiResponseHeaderExtractor {
 			}
 
 			public Duration toDuration(String value) {
-				return Duration.of(parseTime(value), getUnit());
+				// fractional values such as 1.5s
+				return Duration.ofNanos(Math.round(parseTime(value) * getUnit().getDuration().toNanos()));
 			}
 
 		}
@@ -0,0 +1,62 @@
+package com.eastrobot.arch.llms.chat.openai.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents a batch job of the file based batch api (/v1/batches).
+ *
+ * @param id               The batch identifier.
+ * @param endpoint         The endpoint used by the batch, e.g. /v1/chat/completions.
+ * @param inputFileId      The id of the uploaded jsonl input file.
+ * @param completionWindow The time frame within which the batch should be processed.
+ * @param status           The current status of the batch.
+ * @param outputFileId     The id of the file containing the successful results.
+ * @param errorFileId      The id of the file containing the failed requests.
+ * @param requestCounts    The request counts for different statuses within the batch.
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/20 10:30
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Batch {
+
+    public static final List<String> TERMINAL_STATUSES = Arrays.asList("completed", "failed", "expired", "cancelled");
+
+    @JsonProperty("id") String id;
+    @JsonProperty("object") String object;
+    @JsonProperty("endpoint") String endpoint;
+    @JsonProperty("input_file_id") String inputFileId;
+    @JsonProperty("completion_window") String completionWindow;
+    @JsonProperty("status") String status;
+    @JsonProperty("output_file_id") String outputFileId;
+    @JsonProperty("error_file_id") String errorFileId;
+    @JsonProperty("created_at") Long createdAt;
+    @JsonProperty("completed_at") Long completedAt;
+    @JsonProperty("request_counts") RequestCounts requestCounts;
+
+    @JsonIgnore
+    public boolean isTerminal() {
+        return TERMINAL_STATUSES.contains(this.status);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class RequestCounts {
+        @JsonProperty("total") Integer total;
+        @JsonProperty("completed") Integer completed;
+        @JsonProperty("failed") Integer failed;
+    }
+
+}
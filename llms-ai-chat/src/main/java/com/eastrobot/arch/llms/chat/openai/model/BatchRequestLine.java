@@ -0,0 +1,29 @@
+package com.eastrobot.arch.llms.chat.openai.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of the jsonl input file of a batch.
+ *
+ * @param customId A developer provided id used to match the output line to this request.
+ * @param method   The http method, only POST is supported.
+ * @param url      The relative url of the endpoint, e.g. /v1/chat/completions.
+ * @param body     The request body sent to the endpoint.
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/20 10:30
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchRequestLine {
+
+    @JsonProperty("custom_id") String customId;
+    @JsonProperty("method") String method;
+    @JsonProperty("url") String url;
+    @JsonProperty("body") Object body;
+
+}
@@ -0,0 +1,46 @@
+package com.eastrobot.arch.llms.chat.openai.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of the output or error file of a batch.
+ *
+ * @param id       The line identifier.
+ * @param customId The custom id of the matching input line.
+ * @param response The response of the request, null when the request could not be executed.
+ * @param error    The error of the request, null on success.
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/20 10:30
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BatchResponseLine {
+
+    @JsonProperty("id") String id;
+    @JsonProperty("custom_id") String customId;
+    @JsonProperty("response") Response response;
+    @JsonProperty("error") Error error;
+
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Response {
+        @JsonProperty("status_code") Integer statusCode;
+        @JsonProperty("request_id") String requestId;
+        @JsonProperty("body") ChatCompletion body;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Error {
+        @JsonProperty("code") String code;
+        @JsonProperty("message") String message;
+    }
+
+}
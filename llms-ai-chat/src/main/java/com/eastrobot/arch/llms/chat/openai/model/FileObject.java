@@ -0,0 +1,31 @@
+package com.eastrobot.arch.llms.chat.openai.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Represents a file uploaded through the files api (/v1/files).
+ *
+ * @param id       The file identifier.
+ * @param bytes    The size of the file, in bytes.
+ * @param filename The name of the file.
+ * @param purpose  The intended purpose of the file, batch for the batch input.
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/20 10:30
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class FileObject {
+
+    @JsonProperty("id") String id;
+    @JsonProperty("object") String object;
+    @JsonProperty("bytes") Long bytes;
+    @JsonProperty("created_at") Long createdAt;
+    @JsonProperty("filename") String filename;
+    @JsonProperty("purpose") String purpose;
+
+}
@@ -1,6 +1,9 @@
 package com.eastrobot.arch.llms.chat.openai.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -13,14 +16,51 @@ import lombok.NoArgsConstructor;
  */
 @Data
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ResponseFormat {
+
+    public static final String TEXT = "text";
+    public static final String JSON_OBJECT = "json_object";
+    public static final String JSON_SCHEMA = "json_schema";
+
     /**
-     * Must be one of 'text' or 'json_object'.
+     * Must be one of 'text', 'json_object' or 'json_schema'.
      */
     @JsonProperty("type")
     String type;
+    /**
+     * type 为 json_schema 时模型输出须遵循的 schema
+     */
+    @JsonProperty("json_schema")
+    JsonSchema jsonSchema;
 
     public ResponseFormat(String type){
         this.type = type;
     }
+
+    /**
+     * @param name   schema 名称, 只能包含字母、数字、下划线和中划线, 最长 64
+     * @param schema 根节点为 object 的 JSON Schema
+     */
+    public static ResponseFormat jsonSchema(String name, JsonNode schema) {
+        ResponseFormat responseFormat = new ResponseFormat(JSON_SCHEMA);
+        responseFormat.setJsonSchema(new JsonSchema(name, schema, null));
+        return responseFormat;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class JsonSchema {
+        @JsonProperty("name")
+        String name;
+        @JsonProperty("schema")
+        JsonNode schema;
+        /**
+         * 严格模式要求所有字段 required 且 additionalProperties 为 false, 生成的 schema 默认不满足, 不设置
+         */
+        @JsonProperty("strict")
+        Boolean strict;
+    }
 }
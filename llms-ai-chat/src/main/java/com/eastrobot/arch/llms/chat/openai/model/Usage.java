@@ -10,6 +10,7 @@ import lombok.Data;
  * @param completionTokens Number of tokens in the generated completion. Only applicable for completion requests.
  * @param promptTokens     Number of tokens in the prompt.
  * @param totalTokens      Total number of tokens used in the request (prompt + completion).
+ * @param promptTokensDetails Breakdown of the prompt tokens, e.g. the tokens served from the prefix cache.
  * @author han.sun
  * @version 6.0.0
  * @since 2024/7/11 15:39
@@ -20,4 +21,14 @@ public class Usage {
     @JsonProperty("completion_tokens") Integer completionTokens;
     @JsonProperty("prompt_tokens") Integer promptTokens;
     @JsonProperty("total_tokens") Integer totalTokens;
+    @JsonProperty("prompt_tokens_details") PromptTokensDetails promptTokensDetails;
+
+    /**
+     * @param cachedTokens 命中前缀缓存的 prompt token 数
+     */
+    @Data
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class PromptTokensDetails {
+        @JsonProperty("cached_tokens") Integer cachedTokens;
+    }
 }
@@ -0,0 +1,146 @@
+package com.eastrobot.arch.llms.balancer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>按路由键(会话 id / user)一致性哈希, 同一会话的多轮请求落到同一节点以复用服务端 KV/前缀缓存。</p>
+ * 有界负载: 节点在途数超过 loadFactor * 平均在途数(按权重折算)时沿哈希环顺延到下一个节点, 热点会话不会压垮单个节点;
+ * 无路由键的请求按最少在途请求选择。每个节点按权重放置 {@value #REPLICAS} 倍的虚拟节点。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/27 10:00
+ */
+public class ConsistentHashSelector implements EndpointSelector {
+
+    private static final int REPLICAS = 100;
+
+    private final double loadFactor;
+    private final LeastRequestSelector fallback = new LeastRequestSelector();
+
+    /**
+     * 覆盖所有节点的哈希环, 节点摘除或恢复时不重建, 选择时跳过不在候选集合中的节点;
+     * 只在遇到环上没有的节点时重建(未预先给出节点时每个节点最多一次)
+     */
+    private volatile Ring ring = new Ring(Collections.emptySet(), new TreeMap<>());
+
+    public ConsistentHashSelector() {
+        this(1.25);
+    }
+
+    public ConsistentHashSelector(double loadFactor) {
+        this.loadFactor = Math.max(1.0, loadFactor);
+    }
+
+    /**
+     * @param endpoints 所有节点, 预先构建哈希环
+     */
+    public ConsistentHashSelector(List<? extends Endpoint<?>> endpoints, double loadFactor) {
+        this(loadFactor);
+        this.ring(endpoints);
+    }
+
+    @Override
+    public <T> Endpoint<T> select(List<Endpoint<T>> candidates, String key) {
+        if (key == null || candidates.size() == 1)
+            return this.fallback.select(candidates, key);
+        Ring ring = ring(candidates);
+        NavigableMap<Long, Endpoint<?>> nodes = ring.nodes;
+        // 所有节点都是候选时无需逐个判断
+        Set<Endpoint<?>> eligible = null;
+        if (candidates.size() < ring.members.size()) {
+            eligible = Collections.newSetFromMap(new IdentityHashMap<>());
+            eligible.addAll(candidates);
+        }
+
+        long outstanding = 0;
+        long weights = 0;
+        for (Endpoint<T> endpoint : candidates) {
+            outstanding += endpoint.getOutstanding();
+            weights += endpoint.getWeight();
+        }
+        double capacityPerWeight = this.loadFactor * (outstanding + 1) / weights;
+
+        long hash = hash(key);
+        Map.Entry<Long, Endpoint<?>> entry = nodes.ceilingEntry(hash);
+        if (entry == null)
+            entry = nodes.firstEntry();
+        Long start = entry.getKey();
+        do {
+            // 不可用或被排除的节点顺延, 其哈希区间由环上的下一个候选节点接管
+            if (eligible == null || eligible.contains(entry.getValue())) {
+                @SuppressWarnings("unchecked")
+                Endpoint<T> endpoint = (Endpoint<T>) entry.getValue();
+                if (endpoint.getOutstanding() + 1 <= Math.ceil(capacityPerWeight * endpoint.getWeight()))
+                    return endpoint;
+            }
+            entry = nodes.higherEntry(entry.getKey());
+            if (entry == null)
+                entry = nodes.firstEntry();
+        } while (!entry.getKey().equals(start));
+        return this.fallback.select(candidates, key);
+    }
+
+    private Ring ring(List<? extends Endpoint<?>> endpoints) {
+        Ring current = this.ring;
+        if (current.containsAll(endpoints))
+            return current;
+        synchronized (this) {
+            current = this.ring;
+            if (current.containsAll(endpoints))
+                return current;
+            Set<Endpoint<?>> members = Collections.newSetFromMap(new IdentityHashMap<>());
+            members.addAll(current.members);
+            NavigableMap<Long, Endpoint<?>> nodes = new TreeMap<>(current.nodes);
+            for (Endpoint<?> endpoint : endpoints)
+                if (members.add(endpoint))
+                    for (int i = 0; i < REPLICAS * endpoint.getWeight(); i++)
+                        nodes.put(hash(endpoint.getId() + "#" + i), endpoint);
+            this.ring = current = new Ring(members, nodes);
+            return current;
+        }
+    }
+
+    /**
+     * FNV-1a 64 位哈希, 再经 murmur3 fmix64 打散
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Ring {
+
+        private final Set<Endpoint<?>> members;
+        private final NavigableMap<Long, Endpoint<?>> nodes;
+
+        private Ring(Set<Endpoint<?>> members, NavigableMap<Long, Endpoint<?>> nodes) {
+            this.members = members;
+            this.nodes = nodes;
+        }
+
+        private boolean containsAll(List<? extends Endpoint<?>> endpoints) {
+            for (Endpoint<?> endpoint : endpoints)
+                if (!this.members.contains(endpoint))
+                    return false;
+            return true;
+        }
+    }
+
+}
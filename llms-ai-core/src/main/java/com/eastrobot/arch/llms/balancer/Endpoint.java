@@ -0,0 +1,137 @@
+package com.eastrobot.arch.llms.balancer;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>同一逻辑模型下的一个部署节点, 记录在途请求数、峰值 EWMA 耗时与连续失败次数</p>
+ * 连续失败达到阈值后摘除 ejectTime, 到期后进入半开状态, 只放行一个探测请求: 成功则恢复, 失败则再次摘除。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/26 10:00
+ */
+public class Endpoint<T> {
+
+    /**
+     * 峰值 EWMA 的衰减时间常数
+     */
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Getter
+    private final String id;
+    @Getter
+    private final int weight;
+    @Getter
+    private final T client;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private double ewmaNanos;
+    private long ewmaStamp;
+    private int consecutiveFailures;
+    /**
+     * 摘除截止时间, 0 表示正常
+     */
+    private long ejectedUntil;
+    private boolean probing;
+
+    public Endpoint(String id, int weight, T client) {
+        this.id = id;
+        this.weight = Math.max(1, weight);
+        this.client = client;
+    }
+
+    public int getOutstanding() {
+        return this.outstanding.get();
+    }
+
+    /**
+     * 峰值 EWMA 耗时(纳秒): 样本高于当前值时直接取样本, 否则按时间衰减; 未采样时为 0
+     */
+    public synchronized double getEwmaNanos() {
+        return this.ewmaNanos;
+    }
+
+    public synchronized boolean isEjected() {
+        return this.ejectedUntil != 0;
+    }
+
+    /**
+     * 正常, 或摘除已到期且尚无探测请求
+     */
+    synchronized boolean isAvailable(long now) {
+        return this.ejectedUntil == 0 || (now >= this.ejectedUntil && !this.probing);
+    }
+
+    /**
+     * 选中后占用, 半开状态下只有一个请求能占用成功
+     */
+    synchronized boolean tryAcquire(long now) {
+        if (this.ejectedUntil != 0) {
+            if (now < this.ejectedUntil || this.probing)
+                return false;
+            this.probing = true;
+        }
+        this.outstanding.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 无可用节点时强制占用, 不参与半开探测
+     */
+    void forceAcquire() {
+        this.outstanding.incrementAndGet();
+    }
+
+    synchronized void onSample(long nanos, long now) {
+        if (this.ewmaStamp == 0 || nanos > this.ewmaNanos) {
+            this.ewmaNanos = nanos;
+        } else {
+            double w = Math.exp(-(double) Math.max(0, now - this.ewmaStamp) / DECAY_NANOS);
+            this.ewmaNanos = this.ewmaNanos * w + nanos * (1 - w);
+        }
+        this.ewmaStamp = now;
+    }
+
+    synchronized void onSuccess() {
+        this.consecutiveFailures = 0;
+        this.ejectedUntil = 0;
+        this.probing = false;
+    }
+
+    /**
+     * @return true: 本次失败导致摘除
+     */
+    synchronized boolean onFailure(int failureThreshold, long ejectNanos, long now) {
+        this.consecutiveFailures++;
+        if (this.probing || this.consecutiveFailures >= failureThreshold) {
+            this.ejectedUntil = now + ejectNanos;
+            this.probing = false;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void onIgnore() {
+        this.probing = false;
+    }
+
+    void release() {
+        this.outstanding.decrementAndGet();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Endpoint{" +
+                "id='" + id + '\'' +
+                ", weight=" + weight +
+                ", outstanding=" + outstanding +
+                ", ewma=" + TimeUnit.NANOSECONDS.toMillis((long) ewmaNanos) + "ms" +
+                ", failures=" + consecutiveFailures +
+                ", ejected=" + (ejectedUntil != 0) +
+                '}';
+    }
+}
@@ -0,0 +1,19 @@
+package com.eastrobot.arch.llms.balancer;
+
+import java.util.List;
+
+/**
+ * <p>节点选择策略, candidates 为当前可用节点, 不为空</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/26 10:00
+ */
+public interface EndpointSelector {
+
+    /**
+     * @param key 路由键, 如会话 id; 策略不关心时忽略
+     */
+    <T> Endpoint<T> select(List<Endpoint<T>> candidates, String key);
+
+}
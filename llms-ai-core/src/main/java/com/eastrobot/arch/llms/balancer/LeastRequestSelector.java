@@ -0,0 +1,39 @@
+package com.eastrobot.arch.llms.balancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * <p>最少在途请求: 选择 (在途数 + 1) / 权重 最小的节点, 相同时从随机位置开始取第一个</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/26 10:00
+ */
+public class LeastRequestSelector implements EndpointSelector {
+
+    @Override
+    public <T> Endpoint<T> select(List<Endpoint<T>> candidates, String key) {
+        return selectMin(candidates, endpoint -> (endpoint.getOutstanding() + 1.0) / endpoint.getWeight());
+    }
+
+    static <T> Endpoint<T> selectMin(List<Endpoint<T>> candidates, ToDoubleFunction<Endpoint<T>> cost) {
+        int size = candidates.size();
+        if (size == 1)
+            return candidates.get(0);
+        int start = ThreadLocalRandom.current().nextInt(size);
+        Endpoint<T> best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Endpoint<T> endpoint = candidates.get((start + i) % size);
+            double value = cost.applyAsDouble(endpoint);
+            if (best == null || value < bestCost) {
+                best = endpoint;
+                bestCost = value;
+            }
+        }
+        return best;
+    }
+
+}
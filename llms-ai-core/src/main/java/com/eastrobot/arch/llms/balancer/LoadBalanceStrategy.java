@@ -0,0 +1,40 @@
+package com.eastrobot.arch.llms.balancer;
+
+/**
+ * <p>节点选择策略</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/26 10:00
+ */
+public enum LoadBalanceStrategy {
+    /**
+     * 平滑加权轮询
+     */
+    ROUND_ROBIN,
+    /**
+     * 最少在途请求
+     */
+    LEAST_REQUEST,
+    /**
+     * 峰值 EWMA 耗时 * 在途请求数
+     */
+    PEAK_EWMA,
+    /**
+     * 按会话 id / user 一致性哈希, 有界负载
+     */
+    CONSISTENT_HASH;
+
+    public EndpointSelector selector() {
+        switch (this) {
+            case LEAST_REQUEST:
+                return new LeastRequestSelector();
+            case PEAK_EWMA:
+                return new PeakEwmaSelector();
+            case CONSISTENT_HASH:
+                return new ConsistentHashSelector();
+            default:
+                return new RoundRobinSelector();
+        }
+    }
+}
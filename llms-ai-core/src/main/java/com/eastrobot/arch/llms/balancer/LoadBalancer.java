@@ -0,0 +1,159 @@
+package com.eastrobot.arch.llms.balancer;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * <p>同一逻辑模型的多节点负载均衡: 按策略从可用节点中选择, 连续失败的节点被摘除, 到期后半开探测恢复。</p>
+ * 所有节点均被摘除时退化为在全部节点中选择, 不因摘除而整体不可用。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/26 10:00
+ */
+@Slf4j
+public class LoadBalancer<T> {
+
+    /**
+     * Reactor Context 中的路由键, 一致性哈希按此选择节点
+     */
+    public static final String ROUTING_KEY = LoadBalancer.class.getName() + ".ROUTING_KEY";
+
+    @Getter
+    private final List<Endpoint<T>> endpoints;
+    @Getter
+    private final EndpointSelector selector;
+    /**
+     * 连续失败多少次后摘除
+     */
+    @Getter
+    private final int failureThreshold;
+    @Getter
+    private final Duration ejectTime;
+
+    public LoadBalancer(List<Endpoint<T>> endpoints, EndpointSelector selector) {
+        this(endpoints, selector, 5, Duration.ofSeconds(30));
+    }
+
+    public LoadBalancer(List<Endpoint<T>> endpoints, EndpointSelector selector, int failureThreshold, Duration ejectTime) {
+        Assert.notEmpty(endpoints, "The endpoints must not be empty");
+        Assert.notNull(selector, "The endpoint selector must not be null");
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.selector = selector;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.ejectTime = ejectTime != null ? ejectTime : Duration.ofSeconds(30);
+    }
+
+    /**
+     * 选择节点并开始一次调用, 调用结束后必须调用 {@link Call} 的 success/failure/cancel 之一
+     *
+     * @param key 路由键, 可为空
+     */
+    public Call<T> call(String key) {
+        return call(key, null);
+    }
+
+    /**
+     * @param exclude 排除的节点, 如对冲请求排除首个请求所在节点; 没有其他可用节点时忽略
+     */
+    public Call<T> call(String key, Endpoint<T> exclude) {
+        long now = System.nanoTime();
+        List<Endpoint<T>> candidates = this.endpoints.stream()
+                .filter(endpoint -> endpoint != exclude && endpoint.isAvailable(now))
+                .collect(Collectors.toList());
+        while (!candidates.isEmpty()) {
+            Endpoint<T> endpoint = this.selector.select(candidates, key);
+            if (endpoint.tryAcquire(now))
+                return new Call<>(this, endpoint, now);
+            // 半开节点的探测名额已被占用
+            candidates.remove(endpoint);
+        }
+        Endpoint<T> endpoint = this.selector.select(this.endpoints, key);
+        endpoint.forceAcquire();
+        return new Call<>(this, endpoint, now);
+    }
+
+    @Override
+    public String toString() {
+        return "LoadBalancer{" +
+                "endpoints=" + endpoints +
+                ", selector=" + selector.getClass().getSimpleName() +
+                '}';
+    }
+
+    /**
+     * 一次调用, 结束操作只生效一次
+     */
+    public static final class Call<T> {
+
+        private final LoadBalancer<T> balancer;
+        @Getter
+        private final Endpoint<T> endpoint;
+        private final long startNanos;
+        private final AtomicBoolean firstToken = new AtomicBoolean();
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private Call(LoadBalancer<T> balancer, Endpoint<T> endpoint, long startNanos) {
+            this.balancer = balancer;
+            this.endpoint = endpoint;
+            this.startNanos = startNanos;
+        }
+
+        public T getClient() {
+            return this.endpoint.getClient();
+        }
+
+        /**
+         * 流式请求收到首个数据块, 以 TTFT 作为耗时样本
+         */
+        public void firstToken() {
+            if (!this.finished.get() && this.firstToken.compareAndSet(false, true)) {
+                long now = System.nanoTime();
+                this.endpoint.onSample(now - this.startNanos, now);
+            }
+        }
+
+        public void success() {
+            if (this.finished.compareAndSet(false, true)) {
+                if (!this.firstToken.get()) {
+                    long now = System.nanoTime();
+                    this.endpoint.onSample(now - this.startNanos, now);
+                }
+                this.endpoint.onSuccess();
+                this.endpoint.release();
+            }
+        }
+
+        /**
+         * 节点故障(连接失败/超时/5xx 等), 计入连续失败
+         */
+        public void failure() {
+            if (this.finished.compareAndSet(false, true)) {
+                if (this.endpoint.onFailure(this.balancer.failureThreshold, this.balancer.ejectTime.toNanos(), System.nanoTime()))
+                    log.warn("The endpoint is ejected for {}: {}", this.balancer.ejectTime, this.endpoint);
+                this.endpoint.release();
+            }
+        }
+
+        /**
+         * 取消: 已收到数据视为成功, 否则只释放
+         */
+        public void cancel() {
+            if (this.firstToken.get()) {
+                success();
+            } else if (this.finished.compareAndSet(false, true)) {
+                this.endpoint.onIgnore();
+                this.endpoint.release();
+            }
+        }
+    }
+
+}
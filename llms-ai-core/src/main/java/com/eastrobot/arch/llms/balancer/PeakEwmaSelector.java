@@ -0,0 +1,20 @@
+package com.eastrobot.arch.llms.balancer;
+
+import java.util.List;
+
+/**
+ * <p>峰值 EWMA: 选择 峰值耗时 * (在途数 + 1) / 权重 最小的节点, 未采样的节点耗时为 0, 会被优先探测</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/26 10:00
+ */
+public class PeakEwmaSelector implements EndpointSelector {
+
+    @Override
+    public <T> Endpoint<T> select(List<Endpoint<T>> candidates, String key) {
+        return LeastRequestSelector.selectMin(candidates,
+                endpoint -> endpoint.getEwmaNanos() * (endpoint.getOutstanding() + 1) / endpoint.getWeight());
+    }
+
+}
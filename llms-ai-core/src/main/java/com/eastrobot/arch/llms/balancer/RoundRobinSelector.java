@@ -0,0 +1,38 @@
+package com.eastrobot.arch.llms.balancer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>平滑加权轮询(同 nginx): 每轮各节点累加自身权重, 选中累计值最大的节点后减去总权重</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/26 10:00
+ */
+public class RoundRobinSelector implements EndpointSelector {
+
+    private final Map<Endpoint<?>, long[]> currentWeights = new WeakHashMap<>();
+
+    @Override
+    public synchronized <T> Endpoint<T> select(List<Endpoint<T>> candidates, String key) {
+        if (candidates.size() == 1)
+            return candidates.get(0);
+        long total = 0;
+        Endpoint<T> best = null;
+        long[] bestWeight = null;
+        for (Endpoint<T> endpoint : candidates) {
+            long[] current = this.currentWeights.computeIfAbsent(endpoint, e -> new long[1]);
+            current[0] += endpoint.getWeight();
+            total += endpoint.getWeight();
+            if (bestWeight == null || current[0] > bestWeight[0]) {
+                best = endpoint;
+                bestWeight = current;
+            }
+        }
+        bestWeight[0] -= total;
+        return best;
+    }
+
+}
@@ -59,4 +59,11 @@ public interface Usage {
         return promptTokens + completionTokens;
     }
 
+    /**
+     * 命中服务端前缀缓存(KV cache)的 prompt token 数, 包含在 {@link #getPromptTokens()} 中
+     */
+    default Long getCachedTokens() {
+        return 0L;
+    }
+
 }
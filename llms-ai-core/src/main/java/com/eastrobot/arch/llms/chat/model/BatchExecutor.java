@@ -0,0 +1,138 @@
+package com.eastrobot.arch.llms.chat.model;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.Assert;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>批量调用执行器: 有界并发、单条重试、按服务端限流重置时间统一暂停派发</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/18 15:10
+ */
+@Slf4j
+public final class BatchExecutor {
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+
+    private BatchExecutor() {
+    }
+
+    /**
+     * @param size    条目数
+     * @param call    按下标发起单条调用, 每次订阅都应重新请求
+     * @param options 批量配置, 为空时使用默认值
+     */
+    public static Flux<IndexedChatResponse> execute(int size, IntFunction<Mono<ChatResponse>> call, BatchOptions options) {
+        Assert.isTrue(size >= 0, "The batch size must not be negative");
+        Assert.notNull(call, "The batch call must not be null");
+        BatchOptions batchOptions = options != null ? options : new BatchOptions();
+        // 收到 429 后, 整个批次在重置时间前不再派发新请求
+        AtomicLong resumeAt = new AtomicLong();
+        Function<Integer, Mono<IndexedChatResponse>> item = index -> Mono.defer(() -> awaitResume(resumeAt)
+                        .then(Mono.defer(() -> call.apply(index))))
+                .retryWhen(retry(batchOptions, resumeAt))
+                .map(response -> IndexedChatResponse.success(index, response))
+                .defaultIfEmpty(IndexedChatResponse.success(index, new ChatResponse(Collections.emptyList())))
+                .onErrorResume(e -> {
+                    log.warn("The batch item [{}] failed: {}", index, e.getMessage());
+                    return Mono.just(IndexedChatResponse.failure(index, e));
+                });
+        int concurrency = Math.max(batchOptions.getConcurrency(), 1);
+        Flux<Integer> indexes = Flux.range(0, size);
+        return batchOptions.isOrdered()
+                ? indexes.flatMapSequential(item, concurrency)
+                : indexes.flatMap(item, concurrency);
+    }
+
+    private static Mono<Long> awaitResume(AtomicLong resumeAt) {
+        long wait = resumeAt.get() - System.currentTimeMillis();
+        return wait > 0 ? Mono.delay(Duration.ofMillis(wait)) : Mono.empty();
+    }
+
+    private static Retry retry(BatchOptions options, AtomicLong resumeAt) {
+        return Retry.from(signals -> {
+            AtomicReference<Duration> previous = new AtomicReference<>();
+            return signals.concatMap(signal -> {
+                Throwable failure = signal.failure();
+                long attempt = signal.totalRetries() + 1;
+                if (attempt >= options.getMaxAttempts() || !options.getRetryable().test(failure))
+                    return Mono.error(failure);
+                Duration delay = options.getBackoff().interval(attempt, previous.get());
+                previous.set(delay);
+                Duration reset = rateLimitReset(failure);
+                if (reset != null) {
+                    long until = System.currentTimeMillis() + reset.toMillis();
+                    resumeAt.accumulateAndGet(until, Math::max);
+                    if (reset.compareTo(delay) > 0)
+                        delay = reset;
+                }
+                return Mono.delay(delay);
+            });
+        });
+    }
+
+    /**
+     * 从 429 响应头中解析限流重置时间: Retry-After(秒)、x-ratelimit-reset-requests / tokens(如 1m30s、20ms)
+     */
+    static Duration rateLimitReset(Throwable failure) {
+        if (!(failure instanceof WebClientResponseException)
+                || ((WebClientResponseException) failure).getRawStatusCode() != 429)
+            return null;
+        HttpHeaders headers = ((WebClientResponseException) failure).getHeaders();
+        Duration reset = null;
+        String retryAfter = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter != null && retryAfter.trim().matches("\\d+"))
+            reset = Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+        reset = max(reset, parseDuration(headers.getFirst("x-ratelimit-reset-requests")));
+        reset = max(reset, parseDuration(headers.getFirst("x-ratelimit-reset-tokens")));
+        return reset;
+    }
+
+    static Duration parseDuration(String text) {
+        if (text == null)
+            return null;
+        Matcher matcher = DURATION_PART.matcher(text);
+        double millis = 0;
+        boolean found = false;
+        while (matcher.find()) {
+            found = true;
+            double value = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "ms":
+                    millis += value;
+                    break;
+                case "s":
+                    millis += value * 1000;
+                    break;
+                case "m":
+                    millis += value * 60_000;
+                    break;
+                default:
+                    millis += value * 3_600_000;
+            }
+        }
+        return found ? Duration.ofMillis((long) Math.ceil(millis)) : null;
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        if (a == null)
+            return b;
+        return b == null || a.compareTo(b) >= 0 ? a : b;
+    }
+
+}
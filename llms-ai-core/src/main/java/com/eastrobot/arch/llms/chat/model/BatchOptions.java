@@ -0,0 +1,78 @@
+package com.eastrobot.arch.llms.chat.model;
+
+import com.eastrobot.arch.llms.common.RetryUtil;
+import com.eastrobot.arch.llms.retry.Backoff;
+import lombok.Data;
+
+import java.time.Duration;
+import java.util.function.Predicate;
+
+/**
+ * <p>批量调用配置</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/18 15:10
+ */
+@Data
+public class BatchOptions {
+    /**
+     * 同一批次同时在途的最大请求数
+     */
+    private int concurrency = 8;
+    /**
+     * true: 按输入顺序输出, false: 完成即输出
+     */
+    private boolean ordered = true;
+    /**
+     * 单条最大尝试次数(含首次), 失败不影响批次中的其他条目
+     */
+    private int maxAttempts = 3;
+    /**
+     * 单条重试的退避策略, 服务端返回限流重置时间时取两者较大值
+     */
+    private Backoff backoff = Backoff.exponential(Duration.ofMillis(500), 2, Duration.ofSeconds(10));
+    /**
+     * 哪些异常允许重试, 默认 {@link RetryUtil#isTransient}
+     */
+    private Predicate<Throwable> retryable = RetryUtil::isTransient;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final BatchOptions options = new BatchOptions();
+
+        public Builder withConcurrency(int concurrency) {
+            this.options.concurrency = concurrency;
+            return this;
+        }
+
+        public Builder withOrdered(boolean ordered) {
+            this.options.ordered = ordered;
+            return this;
+        }
+
+        public Builder withMaxAttempts(int maxAttempts) {
+            this.options.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder withBackoff(Backoff backoff) {
+            this.options.backoff = backoff;
+            return this;
+        }
+
+        public Builder withRetryable(Predicate<Throwable> retryable) {
+            this.options.retryable = retryable;
+            return this;
+        }
+
+        public BatchOptions build() {
+            return this.options;
+        }
+    }
+
+}
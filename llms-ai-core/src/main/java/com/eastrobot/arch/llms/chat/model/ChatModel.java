@@ -5,9 +5,13 @@ import com.eastrobot.arch.llms.chat.messages.UserMessage;
 import com.eastrobot.arch.llms.model.Model;
 import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
 import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import org.springframework.util.Assert;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * <p></p>
@@ -35,8 +39,43 @@ public interface ChatModel extends Model<Prompt, ChatResponse>, StreamingChatMod
     @Override
     ChatResponse call(Prompt prompt);
 
+    /**
+     * Non-blocking variant of {@link #call(Prompt)}. Implementations backed by a reactive client should override
+     * it, the default simply offloads the blocking call onto the bounded elastic scheduler.
+     *
+     * @param prompt the prompt to send to the model
+     * @return a {@link Mono} emitting the model response
+     */
+    default Mono<ChatResponse> callAsync(Prompt prompt) {
+        return Mono.fromCallable(() -> call(prompt)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Calls the model for every prompt with bounded concurrency. A failed item is emitted as a failure
+     * {@link IndexedChatResponse} instead of failing the whole batch, cancelling the returned flux stops
+     * dispatching the remaining prompts.
+     *
+     * @param prompts the prompts to send to the model
+     * @param options the batch options, {@code null} for the defaults
+     * @return the responses tagged with the index of their prompt
+     */
+    default Flux<IndexedChatResponse> callBatch(List<Prompt> prompts, BatchOptions options) {
+        Assert.notNull(prompts, "The prompts must not be null");
+        return BatchExecutor.execute(prompts.size(), index -> callAsync(prompts.get(index)), options);
+    }
+
     ChatOptions getDefaultOptions();
 
+    /**
+     * Whether the model accepts a {@code response_format} of type {@code json_schema}. When it does, the chat client
+     * sends the schema of a structured output through the runtime options instead of appending it to the user message.
+     *
+     * @return {@code true} if json_schema structured output is supported
+     */
+    default boolean supportsJsonSchema() {
+        return false;
+    }
+
     default Flux<ChatResponse> stream(Prompt prompt) {
         throw new UnsupportedOperationException("streaming is not supported");
     }
@@ -0,0 +1,196 @@
+package com.eastrobot.arch.llms.chat.model;
+
+import com.eastrobot.arch.llms.chat.metadata.ChatResponseMetadata;
+import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
+import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import com.eastrobot.arch.llms.chat.prompt.StreamTimeoutOptions;
+import com.eastrobot.arch.llms.common.RetryUtil;
+import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * <p>模型降级链: 首个模型报错(超时、熔断、限流、5xx 等)时依次尝试后续模型, 流式请求仅在尚未输出任何数据时降级。</p>
+ * 运行时选项中与首个模型默认选项不同的部分覆盖到降级模型的默认选项上, model 始终使用降级模型自身的;
+ * 实际应答的模型记录在 {@link ChatResponseMetadata} 的 {@value #ANSWERED_BY} 中。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/8 10:00
+ */
+@Slf4j
+public class FallbackChatModel implements ChatModel {
+
+    /**
+     * 响应元数据中实际应答的模型名
+     */
+    public static final String ANSWERED_BY = "answered-by";
+
+    private static final String MODEL = "model";
+
+    @Getter
+    private final List<ChatModel> models;
+    private final Predicate<Throwable> fallbackOn;
+    private final ChatOptions primaryOptions;
+    private final Map<String, Object> primaryOptionsMap;
+
+    /**
+     * 只在瞬时异常(超时、熔断、限流、429/5xx 等)时降级, 4xx 等请求本身的错误降级后同样会失败
+     */
+    public FallbackChatModel(List<ChatModel> models) {
+        this(models, RetryUtil::isTransient);
+    }
+
+    /**
+     * @param models     首个为主模型, 其余按顺序降级
+     * @param fallbackOn 哪些异常触发降级
+     */
+    public FallbackChatModel(List<ChatModel> models, Predicate<Throwable> fallbackOn) {
+        Assert.notEmpty(models, "The models must not be empty");
+        Assert.noNullElements(models, "The models must not contain null elements");
+        Assert.notNull(fallbackOn, "The fallback predicate must not be null");
+        this.models = Collections.unmodifiableList(new ArrayList<>(models));
+        this.fallbackOn = fallbackOn;
+        this.primaryOptions = models.get(0).getDefaultOptions();
+        this.primaryOptionsMap = ModelOptionsUtils.objectToMap(this.primaryOptions);
+    }
+
+    @Override
+    public String model() {
+        return this.models.get(0).model();
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return callAsync(prompt).block();
+    }
+
+    @Override
+    public Mono<ChatResponse> callAsync(Prompt prompt) {
+        return callAsync(prompt, 0);
+    }
+
+    private Mono<ChatResponse> callAsync(Prompt prompt, int index) {
+        ChatModel model = this.models.get(index);
+        Mono<ChatResponse> call = Mono.defer(() -> model.callAsync(translate(prompt, index)))
+                .map(response -> answeredBy(response, model));
+        if (index == this.models.size() - 1)
+            return call;
+        return call.onErrorResume(this.fallbackOn, e -> {
+            log.warn("The chat model [{}] failed, fall back to [{}]: {}", model.model(), this.models.get(index + 1).model(),
+                    e.toString());
+            return callAsync(prompt, index + 1);
+        });
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return stream(prompt, 0);
+    }
+
+    private Flux<ChatResponse> stream(Prompt prompt, int index) {
+        ChatModel model = this.models.get(index);
+        if (index == this.models.size() - 1)
+            return Flux.defer(() -> model.stream(translate(prompt, index))).map(response -> answeredBy(response, model));
+        return Flux.defer(() -> {
+            AtomicBoolean started = new AtomicBoolean();
+            return model.stream(translate(prompt, index))
+                    .doOnNext(response -> started.set(true))
+                    .map(response -> answeredBy(response, model))
+                    .onErrorResume(e -> !started.get() && this.fallbackOn.test(e), e -> {
+                        log.warn("The chat model [{}] failed before streaming, fall back to [{}]: {}", model.model(),
+                                this.models.get(index + 1).model(), e.toString());
+                        return stream(prompt, index + 1);
+                    });
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return this.models.get(0).getDefaultOptions();
+    }
+
+    /**
+     * 降级时 schema 随选项传递给降级模型, 所有模型都支持时才支持
+     */
+    @Override
+    public boolean supportsJsonSchema() {
+        for (ChatModel model : this.models) {
+            if (!model.supportsJsonSchema())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 将主模型的运行时选项转换为目标模型的选项: 与主模型默认选项一致时使用目标模型的默认选项
+     */
+    private Prompt translate(Prompt prompt, int index) {
+        ChatOptions options = prompt.getOptions();
+        if (index == 0 || options == null)
+            return prompt;
+        if (options.equals(this.primaryOptions))
+            return new Prompt(prompt.getInstructions(), null);
+        ChatOptions defaults = this.models.get(index).getDefaultOptions();
+        if (defaults == null)
+            return new Prompt(prompt.getInstructions(), null);
+        Map<String, Object> merged = ModelOptionsUtils.objectToMap(defaults);
+        ModelOptionsUtils.objectToMap(options).forEach((key, value) -> {
+            if (!MODEL.equals(key) && !value.equals(this.primaryOptionsMap.get(key)))
+                merged.put(key, value);
+        });
+        ChatOptions translated = ModelOptionsUtils.mapToClass(merged, defaults.getClass());
+        copyStreamTimeouts(options, translated);
+        return new Prompt(prompt.getInstructions(), translated);
+    }
+
+    /**
+     * 超时选项不参与 JSON 转换, 与主模型默认选项不同时单独复制
+     */
+    private void copyStreamTimeouts(ChatOptions source, ChatOptions target) {
+        if (!(source instanceof StreamTimeoutOptions) || !(target instanceof StreamTimeoutOptions))
+            return;
+        StreamTimeoutOptions from = (StreamTimeoutOptions) source;
+        StreamTimeoutOptions to = (StreamTimeoutOptions) target;
+        StreamTimeoutOptions primary = this.primaryOptions instanceof StreamTimeoutOptions
+                ? (StreamTimeoutOptions) this.primaryOptions : null;
+        if (from.getFirstTokenTimeout() != null
+                && (primary == null || !from.getFirstTokenTimeout().equals(primary.getFirstTokenTimeout())))
+            to.setFirstTokenTimeout(from.getFirstTokenTimeout());
+        if (from.getIdleTimeout() != null
+                && (primary == null || !from.getIdleTimeout().equals(primary.getIdleTimeout())))
+            to.setIdleTimeout(from.getIdleTimeout());
+    }
+
+    private static ChatResponse answeredBy(ChatResponse response, ChatModel model) {
+        ChatResponseMetadata metadata = response.getMetadata();
+        ChatResponseMetadata.Builder builder = ChatResponseMetadata.builder();
+        if (metadata != null) {
+            builder.withId(metadata.getId())
+                    .withModel(metadata.getModel())
+                    .withRateLimit(metadata.getRateLimit())
+                    .withUsage(metadata.getUsage())
+                    .withPromptMetadata(metadata.getPromptMetadata());
+            metadata.entrySet().forEach(entry -> builder.withKeyValue(entry.getKey(), entry.getValue()));
+        }
+        return new ChatResponse(response.getResults(), builder.withKeyValue(ANSWERED_BY, model.model()).build());
+    }
+
+    @Override
+    public String toString() {
+        List<String> names = new ArrayList<>();
+        this.models.forEach(model -> names.add(model.model()));
+        return "FallbackChatModel{" + names + '}';
+    }
+
+}
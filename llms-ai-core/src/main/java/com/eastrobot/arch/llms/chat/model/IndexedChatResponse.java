@@ -0,0 +1,48 @@
+package com.eastrobot.arch.llms.chat.model;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * <p>批量调用中单条结果, index 为输入列表中的下标; 失败时 chatResponse 为空, error 为最后一次异常</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/18 15:10
+ */
+@Getter
+@ToString
+public class IndexedChatResponse {
+
+    private final int index;
+    private final ChatResponse chatResponse;
+    private final Throwable error;
+
+    private IndexedChatResponse(int index, ChatResponse chatResponse, Throwable error) {
+        this.index = index;
+        this.chatResponse = chatResponse;
+        this.error = error;
+    }
+
+    public static IndexedChatResponse success(int index, ChatResponse chatResponse) {
+        return new IndexedChatResponse(index, chatResponse, null);
+    }
+
+    public static IndexedChatResponse failure(int index, Throwable error) {
+        return new IndexedChatResponse(index, null, error);
+    }
+
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+
+    /**
+     * 成功时返回第一条生成内容
+     */
+    public String getContent() {
+        if (this.chatResponse == null || this.chatResponse.getResult() == null)
+            return null;
+        return this.chatResponse.getResult().getOutput().getContent();
+    }
+
+}
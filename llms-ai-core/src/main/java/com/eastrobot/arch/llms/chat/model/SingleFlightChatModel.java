@@ -0,0 +1,145 @@
+package com.eastrobot.arch.llms.chat.model;
+
+import com.eastrobot.arch.llms.chat.prompt.ChatOptions;
+import com.eastrobot.arch.llms.chat.prompt.PromptDigest;
+import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import com.eastrobot.arch.llms.common.MetricsUtil;
+import lombok.Getter;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>合并并发的相同请求: 按消息与生效选项的规范化哈希, 同一时刻相同的请求共享一个在途的 Mono/Flux, 完成后即移除。</p>
+ * 流式请求的后加入者会先收到已产生的数据块; 全部订阅者取消时取消上游。
+ * 输出不确定的请求(temperature 不为 0 或未指定)默认不合并, 带媒体的请求不合并。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/11 10:00
+ */
+public class SingleFlightChatModel implements ChatModel {
+
+    @Getter
+    private final ChatModel delegate;
+    /**
+     * 是否合并 temperature 不为 0 的请求
+     */
+    @Getter
+    private final boolean allowNonZeroTemperature;
+    private final ChatOptions defaultOptions;
+
+    private final Map<String, Mono<ChatResponse>> calls = new ConcurrentHashMap<>();
+    private final Map<String, Flux<ChatResponse>> streams = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    public SingleFlightChatModel(ChatModel delegate) {
+        this(delegate, false);
+    }
+
+    public SingleFlightChatModel(ChatModel delegate, boolean allowNonZeroTemperature) {
+        Assert.notNull(delegate, "The chat model must not be null");
+        this.delegate = delegate;
+        this.allowNonZeroTemperature = allowNonZeroTemperature;
+        this.defaultOptions = delegate.getDefaultOptions();
+        MetricsUtil.counter("llms.singleflight.requests", delegate.model(), this, SingleFlightChatModel::getRequestCount);
+        MetricsUtil.counter("llms.singleflight.shared", delegate.model(), this, SingleFlightChatModel::getSharedCount);
+    }
+
+    @Override
+    public String model() {
+        return this.delegate.model();
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return callAsync(prompt).block();
+    }
+
+    @Override
+    public Mono<ChatResponse> callAsync(Prompt prompt) {
+        String key = key(prompt);
+        if (key == null)
+            return this.delegate.callAsync(prompt);
+        return Mono.defer(() -> {
+            this.requests.increment();
+            AtomicReference<Mono<ChatResponse>> created = new AtomicReference<>();
+            Mono<ChatResponse> flight = this.calls.computeIfAbsent(key, k -> {
+                Mono<ChatResponse> call = Mono.defer(() -> this.delegate.callAsync(prompt))
+                        .doFinally(signal -> this.calls.remove(k, created.get()))
+                        .share();
+                created.set(call);
+                return call;
+            });
+            if (flight != created.get())
+                this.shared.increment();
+            return flight;
+        });
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        String key = key(prompt);
+        if (key == null)
+            return this.delegate.stream(prompt);
+        return Flux.defer(() -> {
+            this.requests.increment();
+            AtomicReference<Flux<ChatResponse>> created = new AtomicReference<>();
+            Flux<ChatResponse> flight = this.streams.computeIfAbsent(key, k -> {
+                Flux<ChatResponse> stream = Flux.defer(() -> this.delegate.stream(prompt))
+                        .doFinally(signal -> this.streams.remove(k, created.get()))
+                        .replay()
+                        .refCount();
+                created.set(stream);
+                return stream;
+            });
+            if (flight != created.get())
+                this.shared.increment();
+            return flight;
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return this.delegate.getDefaultOptions();
+    }
+
+    @Override
+    public boolean supportsJsonSchema() {
+        return this.delegate.supportsJsonSchema();
+    }
+
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    public long getSharedCount() {
+        return this.shared.sum();
+    }
+
+    /**
+     * 消息与生效选项(运行时选项合并模型默认选项)的摘要; 不可合并时返回 null
+     */
+    String key(Prompt prompt) {
+        ChatOptions options = PromptDigest.effectiveOptions(prompt.getOptions(), this.defaultOptions);
+        if (!this.allowNonZeroTemperature && !PromptDigest.isDeterministic(options))
+            return null;
+        return PromptDigest.digest(prompt, options, false);
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlightChatModel{" +
+                "delegate=" + delegate +
+                ", requests=" + getRequestCount() +
+                ", shared=" + getSharedCount() +
+                '}';
+    }
+
+}
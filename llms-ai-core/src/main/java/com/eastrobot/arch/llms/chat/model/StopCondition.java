@@ -0,0 +1,273 @@
+package com.eastrobot.arch.llms.chat.model;
+
+import com.eastrobot.arch.llms.common.MetricsUtil;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * <p>流式输出的客户端停止条件: 满足任一条件时流正常结束并立即取消上游请求, 不再为后续生成的 token 付费。</p>
+ * 停止序列与最大字符数会截断最后一个数据块, 输出不含停止序列; 自定义条件按累计文本判断, 保留触发的数据块。
+ * 跨数据块的停止序列: 可能是停止序列开头的尾部暂不输出, 随下一个数据块判断后再输出, 流结束时补发。
+ * 每个模型的停止次数与节省的 token 数(按 max_tokens 减去已输出的数据块数估算)记录在指标中。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/10 10:00
+ */
+public class StopCondition {
+
+    private static final Map<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    private final List<Predicate<CharSequence>> predicates = new ArrayList<>();
+    private final List<String> sequences = new ArrayList<>();
+    private int maxChars;
+
+    /**
+     * @param predicate 累计输出文本满足时停止; 文本为只读视图, 不随每个数据块复制, 需要保留时自行 toString
+     */
+    public StopCondition until(Predicate<CharSequence> predicate) {
+        Assert.notNull(predicate, "The stop predicate must not be null");
+        this.predicates.add(predicate);
+        return this;
+    }
+
+    public StopCondition stopSequences(String... sequences) {
+        for (String sequence : sequences) {
+            Assert.hasLength(sequence, "The stop sequence must not be empty");
+            this.sequences.add(sequence);
+        }
+        return this;
+    }
+
+    public StopCondition maxChars(int maxChars) {
+        Assert.isTrue(maxChars > 0, "The max chars must be positive");
+        this.maxChars = maxChars;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return this.predicates.isEmpty() && this.sequences.isEmpty() && this.maxChars <= 0;
+    }
+
+    /**
+     * @param model     模型名, 用于指标
+     * @param maxTokens 请求的 max_tokens, 为空时不估算节省的 token 数
+     */
+    public Flux<ChatResponse> apply(Flux<ChatResponse> stream, String model, Integer maxTokens) {
+        if (isEmpty())
+            return stream;
+        Stats stats = model != null ? stats(model) : null;
+        return Flux.defer(() -> {
+            Output output = new Output(stats, maxTokens);
+            return stream.concatMapIterable(output::accept)
+                    .takeUntil(response -> output.stopped)
+                    .concatWith(Flux.defer(output::flush));
+        });
+    }
+
+    /**
+     * @param from 本次新增文本的起始位置
+     * @return 满足条件时保留的累计文本长度, 不满足返回 -1
+     */
+    private int cutAt(StringBuilder text, int from, CharSequence view) {
+        int cut = -1;
+        for (String sequence : this.sequences) {
+            int index = text.indexOf(sequence, Math.max(0, from - sequence.length() + 1));
+            if (index >= 0 && (cut < 0 || index < cut))
+                cut = index;
+        }
+        if (this.maxChars > 0 && text.length() >= this.maxChars && (cut < 0 || this.maxChars < cut))
+            cut = this.maxChars;
+        if (cut < 0) {
+            for (Predicate<CharSequence> predicate : this.predicates)
+                if (predicate.test(view))
+                    return text.length();
+        }
+        return cut;
+    }
+
+    /**
+     * @return 累计文本末尾可能是某个停止序列开头的最长长度
+     */
+    private int pending(StringBuilder text) {
+        int pending = 0;
+        for (String sequence : this.sequences) {
+            for (int length = Math.min(sequence.length() - 1, text.length()); length > pending; length--) {
+                if (endsWith(text, sequence, length)) {
+                    pending = length;
+                    break;
+                }
+            }
+        }
+        return pending;
+    }
+
+    private static boolean endsWith(StringBuilder text, String sequence, int length) {
+        int offset = text.length() - length;
+        for (int i = 0; i < length; i++)
+            if (text.charAt(offset + i) != sequence.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static String content(ChatResponse response) {
+        Generation generation = response.getResult();
+        if (generation == null || generation.getOutput() == null || generation.getOutput().getContent() == null)
+            return "";
+        return generation.getOutput().getContent();
+    }
+
+    private static ChatResponse withContent(ChatResponse response, String content) {
+        Generation generation = response.getResult();
+        Generation replaced = new Generation(content, generation.getOutput().getMetadata())
+                .withGenerationMetadata(generation.getMetadata());
+        return new ChatResponse(Collections.singletonList(replaced), response.getMetadata());
+    }
+
+    public static long getStoppedCount(String model) {
+        Stats stats = STATS.get(model);
+        return stats == null ? 0 : stats.stopped.sum();
+    }
+
+    public static long getSavedTokens(String model) {
+        Stats stats = STATS.get(model);
+        return stats == null ? 0 : stats.savedTokens.sum();
+    }
+
+    private static Stats stats(String model) {
+        return STATS.computeIfAbsent(model, key -> {
+            Stats stats = new Stats();
+            MetricsUtil.counter("llms.stream.stopped", key, stats, s -> s.stopped.sum());
+            MetricsUtil.counter("llms.stream.tokens.saved", key, stats, s -> s.savedTokens.sum());
+            return stats;
+        });
+    }
+
+    /**
+     * 一次订阅的输出状态: text 为收到的全部文本, emitted 之前的部分已输出
+     */
+    private final class Output {
+
+        private final Stats stats;
+        private final Integer maxTokens;
+        private final StringBuilder text = new StringBuilder();
+        private final CharSequence view = new TextView(this.text);
+        private int emitted;
+        private int chunks;
+        private boolean stopped;
+        /**
+         * 最近一个尾部未输出的数据块, 补发时沿用其元数据
+         */
+        private ChatResponse held;
+
+        private Output(Stats stats, Integer maxTokens) {
+            this.stats = stats;
+            this.maxTokens = maxTokens;
+        }
+
+        private List<ChatResponse> accept(ChatResponse response) {
+            String content = content(response);
+            if (content.isEmpty()) {
+                // 结束原因、usage 等非文本块之前先补发保留的文本
+                ChatResponse pending = release();
+                return pending == null ? Collections.singletonList(response) : Arrays.asList(pending, response);
+            }
+            int from = this.text.length();
+            this.text.append(content);
+            this.chunks++;
+            int cut = cutAt(this.text, from, this.view);
+            if (cut >= 0) {
+                this.stopped = true;
+                if (this.stats != null)
+                    this.stats.onStopped(this.maxTokens != null ? this.maxTokens - this.chunks : 0);
+                return Collections.singletonList(emit(response, from, Math.max(this.emitted, cut)));
+            }
+            int end = Math.max(this.emitted, this.text.length() - pending(this.text));
+            if (end == this.emitted) {
+                this.held = response;
+                return Collections.emptyList();
+            }
+            this.held = end < this.text.length() ? response : null;
+            return Collections.singletonList(emit(response, from, end));
+        }
+
+        /**
+         * 输出 [emitted, end) 的文本, 恰好是本数据块的内容时原样输出
+         */
+        private ChatResponse emit(ChatResponse response, int from, int end) {
+            int start = this.emitted;
+            this.emitted = end;
+            if (start == from && end == this.text.length())
+                return response;
+            return withContent(response, this.text.substring(start, end));
+        }
+
+        private ChatResponse release() {
+            if (this.held == null || this.emitted >= this.text.length())
+                return null;
+            ChatResponse pending = withContent(this.held, this.text.substring(this.emitted));
+            this.emitted = this.text.length();
+            this.held = null;
+            return pending;
+        }
+
+        private Flux<ChatResponse> flush() {
+            ChatResponse pending = this.stopped ? null : release();
+            return pending == null ? Flux.empty() : Flux.just(pending);
+        }
+    }
+
+    /**
+     * 累计文本的只读视图
+     */
+    private static final class TextView implements CharSequence {
+
+        private final StringBuilder text;
+
+        private TextView(StringBuilder text) {
+            this.text = text;
+        }
+
+        @Override
+        public int length() {
+            return this.text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return this.text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return this.text.substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return this.text.toString();
+        }
+    }
+
+    private static final class Stats {
+
+        private final LongAdder stopped = new LongAdder();
+        private final LongAdder savedTokens = new LongAdder();
+
+        private void onStopped(long savedTokens) {
+            this.stopped.increment();
+            if (savedTokens > 0)
+                this.savedTokens.add(savedTokens);
+        }
+    }
+
+}
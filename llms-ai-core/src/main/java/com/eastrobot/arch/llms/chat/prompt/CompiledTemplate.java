@@ -0,0 +1,84 @@
+package com.eastrobot.arch.llms.chat.prompt;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.compiler.STLexer;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>编译后的模板: 按模板文本缓存解析、编译后的 {@link ST} 原型与输入变量, 渲染时基于原型创建轻量的实例。</p>
+ * 原型从不添加属性, 其 CompiledST 的形参表保持为空, 并发创建实例是安全的; 实例各自持有 CompiledST 的浅拷贝。
+ * 缓存按模板长度限制容量(W-TinyLFU 淘汰), 只出现一次的用户输入不会挤掉高频的系统提示词。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/14 10:00
+ */
+final class CompiledTemplate {
+
+    /**
+     * 缓存的模板总字符数上限
+     */
+    private static final long MAXIMUM_CHARS = 4 * 1024 * 1024;
+
+    private static final Cache<String, CompiledTemplate> CACHE = Caffeine.newBuilder()
+            .maximumWeight(MAXIMUM_CHARS)
+            .weigher((String template, CompiledTemplate compiled) -> Math.max(1, template.length()))
+            .build();
+
+    private final ST prototype;
+    private final Set<String> inputVariables;
+
+    private CompiledTemplate(String template) {
+        this.prototype = new ST(template, '{', '}');
+        this.inputVariables = Collections.unmodifiableSet(inputVariables(this.prototype.impl.tokens));
+    }
+
+    /**
+     * @throws RuntimeException 模板无法编译时
+     */
+    static CompiledTemplate of(String template) {
+        return CACHE.get(template, CompiledTemplate::new);
+    }
+
+    /**
+     * @return 可添加属性的新实例
+     */
+    ST newInstance() {
+        return new ST(this.prototype);
+    }
+
+    Set<String> getInputVariables() {
+        return this.inputVariables;
+    }
+
+    private static Set<String> inputVariables(TokenStream tokens) {
+        Set<String> inputVariables = new HashSet<>();
+        boolean isInsideList = false;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+
+            if (token.getType() == STLexer.LDELIM && i + 1 < tokens.size()
+                    && tokens.get(i + 1).getType() == STLexer.ID) {
+                if (i + 2 < tokens.size() && tokens.get(i + 2).getType() == STLexer.COLON) {
+                    inputVariables.add(tokens.get(i + 1).getText());
+                    isInsideList = true;
+                }
+            } else if (token.getType() == STLexer.RDELIM) {
+                isInsideList = false;
+            } else if (!isInsideList && token.getType() == STLexer.ID) {
+                inputVariables.add(token.getText());
+            }
+        }
+
+        return inputVariables;
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.eastrobot.arch.llms.chat.prompt;
+
+import com.eastrobot.arch.llms.chat.messages.Message;
+import com.eastrobot.arch.llms.model.MediaContent;
+import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.util.CollectionUtils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Prompt 的规范化摘要: 消息类型与内容、生效选项按固定顺序序列化后取 SHA-256, 用于请求合并与响应缓存的键</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/12 10:00
+ */
+public final class PromptDigest {
+
+    private static final ObjectMapper CANONICAL_MAPPER = ModelOptionsUtils.OBJECT_MAPPER.copy()
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+    private static final Pattern HORIZONTAL_WHITESPACE = Pattern.compile("[ \\t\\x0B\\f]+");
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r\\n?");
+
+    private PromptDigest() {
+    }
+
+    /**
+     * @param options   生效选项, 为空时只按消息计算
+     * @param normalize 是否规范化消息内容: 统一换行符、合并连续空白、去除首尾空白
+     * @return 十六进制摘要, 含媒体的 Prompt 返回 null
+     */
+    public static String digest(Prompt prompt, ChatOptions options, boolean normalize) {
+        List<List<String>> messages = new ArrayList<>();
+        for (Message message : prompt.getInstructions()) {
+            if (message instanceof MediaContent && !CollectionUtils.isEmpty(((MediaContent) message).getMedia()))
+                return null;
+            String content = message.getContent();
+            if (normalize && content != null)
+                content = HORIZONTAL_WHITESPACE.matcher(LINE_BREAK.matcher(content).replaceAll("\n")).replaceAll(" ").trim();
+            messages.add(Arrays.asList(message.getMessageType().name(), content));
+        }
+        try {
+            byte[] canonical = CANONICAL_MAPPER.writeValueAsBytes(Arrays.asList(messages, options));
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return hex.toString();
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to digest the prompt", e);
+        }
+    }
+
+    /**
+     * 运行时选项的非空字段覆盖到默认选项上: 只设置了部分字段(如 maxTokens)的请求按默认的 temperature 判断,
+     * 与显式写出默认值的请求得到相同的摘要; 两者类型不同时无法合并, 取运行时选项
+     *
+     * @param defaults 模型的默认选项, 为空时返回运行时选项
+     */
+    public static ChatOptions effectiveOptions(ChatOptions options, ChatOptions defaults) {
+        if (defaults == null)
+            return options;
+        if (options == null || options.equals(defaults))
+            return defaults;
+        if (options.getClass() != defaults.getClass())
+            return options;
+        return ModelOptionsUtils.merge(options, defaults, defaults.getClass());
+    }
+
+    /**
+     * temperature 明确为 0 时输出确定
+     */
+    public static boolean isDeterministic(ChatOptions options) {
+        return options != null && options.getTemperature() != null && options.getTemperature() == 0f;
+    }
+
+}
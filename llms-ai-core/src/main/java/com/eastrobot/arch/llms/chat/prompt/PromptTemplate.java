@@ -17,12 +17,9 @@ package com.eastrobot.arch.llms.chat.prompt;
 
 import com.eastrobot.arch.llms.chat.messages.Message;
 import com.eastrobot.arch.llms.chat.messages.UserMessage;
-import org.antlr.runtime.Token;
-import org.antlr.runtime.TokenStream;
 import org.springframework.core.io.Resource;
 import org.springframework.util.StreamUtils;
 import org.stringtemplate.v4.ST;
-import org.stringtemplate.v4.compiler.STLexer;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,8 +35,12 @@ import java.util.Set;
  */
 public class PromptTemplate implements PromptTemplateActions, PromptTemplateMessageActions {
 
+    private final CompiledTemplate compiled;
+
     private final ST st;
 
+    private final SimpleTemplate simple;
+
     private final Map<String, Object> dynamicModel = new HashMap<>();
 
     protected String template;
@@ -47,50 +48,46 @@ public class PromptTemplate implements PromptTemplateActions, PromptTemplateMess
     protected TemplateFormat templateFormat = TemplateFormat.ST;
 
     public PromptTemplate(Resource resource) {
-        try (InputStream inputStream = resource.getInputStream()) {
-            this.template = StreamUtils.copyToString(inputStream, Charset.defaultCharset());
-        } catch (IOException ex) {
-            throw new RuntimeException("Failed to read resource", ex);
-        }
-        try {
-            this.st = new ST(this.template, '{', '}');
-        } catch (Exception ex) {
-            throw new IllegalArgumentException("The template string is not valid.", ex);
-        }
+        this(resource, new HashMap<>());
     }
 
     public PromptTemplate(String template) {
-        this.template = template;
-        // If the template string is not valid, an exception will be thrown
-        try {
-            this.st = new ST(this.template, '{', '}');
-        } catch (Exception ex) {
-            throw new IllegalArgumentException("The template string is not valid.", ex);
-        }
+        this(template, new HashMap<>());
     }
 
     public PromptTemplate(String template, Map<String, Object> model) {
-        this.template = template;
-        // If the template string is not valid, an exception will be thrown
-        try {
-            this.st = new ST(this.template, '{', '}');
-            for (Entry<String, Object> entry : model.entrySet()) {
-                add(entry.getKey(), entry.getValue());
-            }
-        } catch (Exception ex) {
-            throw new IllegalArgumentException("The template string is not valid.", ex);
-        }
+        this(template, model, TemplateFormat.ST);
     }
 
     public PromptTemplate(Resource resource, Map<String, Object> model) {
-        try (InputStream inputStream = resource.getInputStream()) {
-            this.template = StreamUtils.copyToString(inputStream, Charset.defaultCharset());
-        } catch (IOException ex) {
-            throw new RuntimeException("Failed to read resource", ex);
-        }
+        this(renderResource(resource), model);
+    }
+
+    public PromptTemplate(String template, TemplateFormat templateFormat) {
+        this(template, new HashMap<>(), templateFormat);
+    }
+
+    public PromptTemplate(Resource resource, TemplateFormat templateFormat) {
+        this(renderResource(resource), new HashMap<>(), templateFormat);
+    }
+
+    /**
+     * @param templateFormat 模板引擎, 为空时使用 {@link TemplateFormat#ST}; 编译结果按模板文本缓存
+     */
+    public PromptTemplate(String template, Map<String, Object> model, TemplateFormat templateFormat) {
+        this.template = template;
+        this.templateFormat = templateFormat != null ? templateFormat : TemplateFormat.ST;
         // If the template string is not valid, an exception will be thrown
         try {
-            this.st = new ST(this.template, '{', '}');
+            if (this.templateFormat == TemplateFormat.SIMPLE) {
+                this.compiled = null;
+                this.st = null;
+                this.simple = SimpleTemplate.of(this.template);
+            } else {
+                this.compiled = CompiledTemplate.of(this.template);
+                this.st = this.compiled.newInstance();
+                this.simple = null;
+            }
             for (Entry<String, Object> entry : model.entrySet()) {
                 add(entry.getKey(), entry.getValue());
             }
@@ -100,7 +97,8 @@ public class PromptTemplate implements PromptTemplateActions, PromptTemplateMess
     }
 
     public void add(String name, Object value) {
-        this.st.add(name, value);
+        if (this.st != null)
+            this.st.add(name, value);
         this.dynamicModel.put(name, value);
     }
 
@@ -117,12 +115,19 @@ public class PromptTemplate implements PromptTemplateActions, PromptTemplateMess
      */
     @Override
     public String render() {
+        if (this.simple != null)
+            return this.simple.render(resolve(this.dynamicModel));
         validate(this.dynamicModel);
         return st.render();
     }
 
     @Override
     public String render(Map<String, Object> model) {
+        if (this.simple != null) {
+            Map<String, Object> merged = new HashMap<>(this.dynamicModel);
+            merged.putAll(model);
+            return this.simple.render(resolve(merged));
+        }
         validate(model);
         for (Entry<String, Object> entry : model.entrySet()) {
             if (this.st.getAttribute(entry.getKey()) != null) {
@@ -138,7 +143,22 @@ public class PromptTemplate implements PromptTemplateActions, PromptTemplateMess
         return this.st.render();
     }
 
-    private String renderResource(Resource resource) {
+    /**
+     * {@link TemplateFormat#SIMPLE} 的资源类型变量替换为资源内容
+     */
+    private static Map<String, Object> resolve(Map<String, Object> model) {
+        Map<String, Object> resolved = model;
+        for (Entry<String, Object> entry : model.entrySet()) {
+            if (entry.getValue() instanceof Resource) {
+                if (resolved == model)
+                    resolved = new HashMap<>(model);
+                resolved.put(entry.getKey(), renderResource((Resource) entry.getValue()));
+            }
+        }
+        return resolved;
+    }
+
+    private static String renderResource(Resource resource) {
         try (InputStream inputStream = resource.getInputStream()) {
             return StreamUtils.copyToString(inputStream, Charset.defaultCharset());
         } catch (IOException ex) {
@@ -172,27 +192,7 @@ public class PromptTemplate implements PromptTemplateActions, PromptTemplateMess
     }
 
     public Set<String> getInputVariables() {
-        TokenStream tokens = this.st.impl.tokens;
-        Set<String> inputVariables = new HashSet<>();
-        boolean isInsideList = false;
-
-        for (int i = 0; i < tokens.size(); i++) {
-            Token token = tokens.get(i);
-
-            if (token.getType() == STLexer.LDELIM && i + 1 < tokens.size()
-                    && tokens.get(i + 1).getType() == STLexer.ID) {
-                if (i + 2 < tokens.size() && tokens.get(i + 2).getType() == STLexer.COLON) {
-                    inputVariables.add(tokens.get(i + 1).getText());
-                    isInsideList = true;
-                }
-            } else if (token.getType() == STLexer.RDELIM) {
-                isInsideList = false;
-            } else if (!isInsideList && token.getType() == STLexer.ID) {
-                inputVariables.add(token.getText());
-            }
-        }
-
-        return inputVariables;
+        return new HashSet<>(this.simple != null ? this.simple.getInputVariables() : this.compiled.getInputVariables());
     }
 
     private Set<String> getModelKeys(Map<String, Object> model) {
@@ -0,0 +1,125 @@
+package com.eastrobot.arch.llms.chat.prompt;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>{@link TemplateFormat#SIMPLE} 模板: 只支持 {name} 变量替换, 解析一次拆分为字面量与占位符, 按模板文本缓存。</p>
+ * 变量名由字母、数字、下划线、点和中划线组成, 其余花括号(如 JSON)原样输出, \{ 与 \} 转义为花括号;
+ * 渲染时先取出全部变量值计算总长度, 再一次写入预分配的 StringBuilder, 缺少任一变量时报错;
+ * 值按 toString 输出(集合不像 ST 那样逐项拼接), 为 null 时输出空串。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/14 10:00
+ */
+final class SimpleTemplate {
+
+    /**
+     * 缓存的模板总字符数上限
+     */
+    private static final long MAXIMUM_CHARS = 4 * 1024 * 1024;
+
+    private static final Cache<String, SimpleTemplate> CACHE = Caffeine.newBuilder()
+            .maximumWeight(MAXIMUM_CHARS)
+            .weigher((String template, SimpleTemplate compiled) -> Math.max(1, template.length()))
+            .build();
+
+    /**
+     * 字面量比占位符多一个, 依次交替输出
+     */
+    private final String[] literals;
+    private final String[] names;
+    private final int literalLength;
+    private final Set<String> inputVariables;
+
+    private SimpleTemplate(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int length = template.length();
+        for (int i = 0; i < length; i++) {
+            char c = template.charAt(i);
+            if (c == '\\' && i + 1 < length && (template.charAt(i + 1) == '{' || template.charAt(i + 1) == '}')) {
+                literal.append(template.charAt(++i));
+                continue;
+            }
+            int end = c == '{' ? placeholderEnd(template, i + 1) : -1;
+            if (end < 0) {
+                literal.append(c);
+                continue;
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            names.add(template.substring(i + 1, end));
+            i = end;
+        }
+        literals.add(literal.toString());
+        this.literals = literals.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        int literalLength = 0;
+        for (String s : this.literals)
+            literalLength += s.length();
+        this.literalLength = literalLength;
+        this.inputVariables = Collections.unmodifiableSet(new LinkedHashSet<>(names));
+    }
+
+    static SimpleTemplate of(String template) {
+        return CACHE.get(template, SimpleTemplate::new);
+    }
+
+    Set<String> getInputVariables() {
+        return this.inputVariables;
+    }
+
+    /**
+     * @throws IllegalStateException 缺少变量时
+     */
+    String render(Map<String, ?> model) {
+        String[] values = new String[this.names.length];
+        int length = this.literalLength;
+        Set<String> missing = null;
+        for (int i = 0; i < this.names.length; i++) {
+            Object value = model.get(this.names[i]);
+            if (value == null && !model.containsKey(this.names[i])) {
+                if (missing == null)
+                    missing = new LinkedHashSet<>();
+                missing.add(this.names[i]);
+                continue;
+            }
+            values[i] = value == null ? "" : value.toString();
+            length += values[i].length();
+        }
+        if (missing != null)
+            throw new IllegalStateException(
+                    "Not all template variables were replaced. Missing variable names are " + missing);
+        StringBuilder builder = new StringBuilder(length).append(this.literals[0]);
+        for (int i = 0; i < values.length; i++)
+            builder.append(values[i]).append(this.literals[i + 1]);
+        return builder.toString();
+    }
+
+    /**
+     * @return 占位符的右花括号位置, 不是合法变量名时返回 -1
+     */
+    private static int placeholderEnd(String template, int start) {
+        int i = start;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (c == '}')
+                return i > start ? i : -1;
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && c != '-')
+                return -1;
+            i++;
+        }
+        return -1;
+    }
+
+}
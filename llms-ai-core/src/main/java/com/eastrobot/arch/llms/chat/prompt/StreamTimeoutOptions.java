@@ -0,0 +1,29 @@
+package com.eastrobot.arch.llms.chat.prompt;
+
+import java.time.Duration;
+
+/**
+ * <p>流式请求的超时选项, 只在客户端生效, 不序列化也不发送给模型</p>
+ * 选项按 JSON 转换(如降级时转换为其他模型的选项)会丢失这些字段, 需要通过本接口单独复制。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/17 10:00
+ */
+public interface StreamTimeoutOptions {
+
+    /**
+     * 首个数据块超时, 为空时使用模型配置
+     */
+    Duration getFirstTokenTimeout();
+
+    void setFirstTokenTimeout(Duration firstTokenTimeout);
+
+    /**
+     * 两个数据块之间的最大间隔, 为空时使用模型配置
+     */
+    Duration getIdleTimeout();
+
+    void setIdleTimeout(Duration idleTimeout);
+
+}
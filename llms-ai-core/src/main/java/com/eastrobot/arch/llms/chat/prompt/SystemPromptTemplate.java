@@ -31,6 +31,14 @@ public class SystemPromptTemplate extends PromptTemplate {
 		super(resource);
 	}
 
+	public SystemPromptTemplate(String template, TemplateFormat templateFormat) {
+		super(template, templateFormat);
+	}
+
+	public SystemPromptTemplate(Resource resource, TemplateFormat templateFormat) {
+		super(resource, templateFormat);
+	}
+
 	@Override
 	public Message createMessage() {
 		return new SystemMessage(render());
@@ -20,7 +20,12 @@ public enum TemplateFormat {
 	/**
 	 *
 	 */
-	ST("ST");
+	ST("ST"),
+
+	/**
+	 * 只支持 {name} 变量替换的轻量模板, 单次遍历渲染, 缺少变量时报错
+	 */
+	SIMPLE("SIMPLE");
 
 	private final String value;
 
@@ -22,10 +22,16 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.util.ClassUtils;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.netty.http.client.HttpClient;
-import reactor.netty.tcp.TcpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
 
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -37,6 +43,14 @@ import java.util.function.Function;
  */
 public class ApiUtils {
 
+    /**
+     * 连接池与事件循环按 host 共享, 同一 host 下的多个模型复用同一组连接
+     */
+    private static final Map<String, ConnectionProvider> CONNECTION_PROVIDERS = new ConcurrentHashMap<>();
+    private static final Map<String, LoopResources> LOOP_RESOURCES = new ConcurrentHashMap<>();
+
+    private static final boolean METRICS_PRESENT = ClassUtils.isPresent("io.micrometer.core.instrument.Metrics", ApiUtils.class.getClassLoader());
+
     private ApiUtils() {
     }
 
@@ -67,7 +81,9 @@ public class ApiUtils {
         int connectTimeout = restProperties == null ? 3000 : restProperties.apply("connectTimeout");
         int readTimeout = restProperties == null ? 60000 : restProperties.apply("readTimeout");
         int writeTimeout = restProperties == null ? 60000 : restProperties.apply("writeTimeout");
-        TcpClient tcpClient = TcpClient.create()
+        String host = hostKey(baseUrl);
+        ConnectionProvider provider = CONNECTION_PROVIDERS.computeIfAbsent(host, key -> connectionProvider(key, restProperties));
+        HttpClient httpClient = HttpClient.create(provider)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout > 0 ? connectTimeout : 3000)
                 .doOnConnected(connection -> {
                     connection.addHandlerLast(
@@ -77,15 +93,85 @@ public class ApiUtils {
                             new WriteTimeoutHandler(writeTimeout >= 3000 ? writeTimeout : 60000, TimeUnit.MILLISECONDS)
                     );
                 });
+        int loopThreads = getOrDefault(restProperties, "pool.loopThreads", 0);
+        if (loopThreads > 0)
+            httpClient = httpClient.runOn(LOOP_RESOURCES.computeIfAbsent(host,
+                    key -> LoopResources.create("llms-" + key.replaceAll("\\W+", "-"), loopThreads, true)));
         WebClient.Builder builder = WebClient.builder().baseUrl(baseUrl);
         if (consumer == null)
             consumer = getJsonContentHeaders(token);
         else
             consumer = consumer.andThen(getJsonContentHeaders(token));
         builder.defaultHeaders(consumer);
-        builder.clientConnector(new ReactorClientHttpConnector(HttpClient.from(tcpClient)));
+        builder.clientConnector(new ReactorClientHttpConnector(httpClient));
         return builder.build();
     }
 
+    /**
+     * 粗略估算文本的 token 数, 用于限流预占与指标: ASCII 按 4 字符 1 token, 其余按 1 字符 1 token
+     */
+    public static long estimateTokens(CharSequence text) {
+        if (text == null)
+            return 0;
+        double tokens = 0;
+        for (int i = 0; i < text.length(); i++)
+            tokens += text.charAt(i) < 0x80 ? 0.25 : 1;
+        return (long) Math.ceil(tokens);
+    }
+
+    /**
+     * 获取 host 对应的共享连接池, 未创建时返回 null
+     */
+    public static ConnectionProvider getConnectionProvider(String baseUrl) {
+        return CONNECTION_PROVIDERS.get(hostKey(baseUrl));
+    }
+
+    /**
+     * 释放所有共享的连接池与事件循环, 应用关闭时调用; 之后新建的 WebClient 会重新创建
+     */
+    public static void dispose(Duration timeout) {
+        for (String host : CONNECTION_PROVIDERS.keySet()) {
+            ConnectionProvider provider = CONNECTION_PROVIDERS.remove(host);
+            if (provider != null)
+                provider.disposeLater().block(timeout);
+        }
+        for (String host : LOOP_RESOURCES.keySet()) {
+            LoopResources loopResources = LOOP_RESOURCES.remove(host);
+            if (loopResources != null)
+                loopResources.disposeLater(Duration.ZERO, timeout).block(timeout);
+        }
+    }
+
+    private static ConnectionProvider connectionProvider(String host, Function<String, Integer> restProperties) {
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("llms-" + host.replaceAll("\\W+", "-"))
+                .maxConnections(getOrDefault(restProperties, "pool.maxConnections", 500))
+                .pendingAcquireMaxCount(getOrDefault(restProperties, "pool.pendingAcquireMaxCount", 1000))
+                .pendingAcquireTimeout(Duration.ofMillis(getOrDefault(restProperties, "pool.pendingAcquireTimeout", 45000)));
+        int maxIdleTime = getOrDefault(restProperties, "pool.maxIdleTime", 30000);
+        if (maxIdleTime > 0)
+            builder.maxIdleTime(Duration.ofMillis(maxIdleTime));
+        int maxLifeTime = getOrDefault(restProperties, "pool.maxLifeTime", -1);
+        if (maxLifeTime > 0)
+            builder.maxLifeTime(Duration.ofMillis(maxLifeTime));
+        if (getOrDefault(restProperties, "pool.lifo", 0) > 0)
+            builder.lifo();
+        else
+            builder.fifo();
+        // gauges: reactor.netty.connection.provider.{total,active,idle,pending}.connections
+        builder.metrics(METRICS_PRESENT && getOrDefault(restProperties, "pool.metrics", 1) > 0);
+        return builder.build();
+    }
+
+    private static int getOrDefault(Function<String, Integer> restProperties, String key, int defaultValue) {
+        Integer value = restProperties == null ? null : restProperties.apply(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static String hostKey(String baseUrl) {
+        URI uri = URI.create(baseUrl);
+        if (uri.getHost() == null)
+            return baseUrl;
+        return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+    }
 
 }
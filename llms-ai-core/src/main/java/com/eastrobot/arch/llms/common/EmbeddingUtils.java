@@ -73,4 +73,52 @@ public class EmbeddingUtils {
 		return output;
 	}
 
+	/**
+	 * 内积, 两个向量均已归一化时即为余弦相似度
+	 */
+	public static float dot(float[] a, float[] b) {
+		if (a.length != b.length) {
+			throw new IllegalArgumentException("Vectors lengths must be equal: " + a.length + " != " + b.length);
+		}
+		float sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	public static float cosineSimilarity(float[] a, float[] b) {
+		float norm = (float) Math.sqrt(dot(a, a) * dot(b, b));
+		return norm == 0 ? 0 : dot(a, b) / norm;
+	}
+
+	/**
+	 * @return L2 归一化后的新数组, 零向量原样复制
+	 */
+	public static float[] normalize(float[] vector) {
+		float norm = (float) Math.sqrt(dot(vector, vector));
+		float[] result = new float[vector.length];
+		for (int i = 0; i < vector.length; i++) {
+			result[i] = norm == 0 ? vector[i] : vector[i] / norm;
+		}
+		return result;
+	}
+
+	/**
+	 * 确定性的本地向量: 小写并合并空白后的字符三元组按哈希映射到各维度, 结果已归一化。
+	 * 不依赖外部模型, 适合离线测试或字面相近的文本匹配
+	 */
+	public static float[] hashingEmbedding(String text, int dimensions) {
+		if (dimensions <= 0) {
+			throw new IllegalArgumentException("Dimensions must be positive: " + dimensions);
+		}
+		float[] vector = new float[dimensions];
+		String normalized = " " + text.toLowerCase().trim().replaceAll("\\s+", " ") + " ";
+		for (int i = 0; i + 3 <= normalized.length(); i++) {
+			int hash = normalized.substring(i, i + 3).hashCode();
+			vector[Math.floorMod(hash, dimensions)] += (hash & 0x80000000) == 0 ? 1 : -1;
+		}
+		return normalize(vector);
+	}
+
 }
@@ -0,0 +1,79 @@
+package com.eastrobot.arch.llms.common;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.util.ClassUtils;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * <p>指标注册, micrometer 为可选依赖, 不存在时忽略; 指标注册到 {@link Metrics#globalRegistry}</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/23 11:00
+ */
+public final class MetricsUtil {
+
+    private static final boolean METRICS_PRESENT = ClassUtils.isPresent("io.micrometer.core.instrument.Metrics", MetricsUtil.class.getClassLoader());
+
+    private MetricsUtil() {
+    }
+
+    public static boolean isPresent() {
+        return METRICS_PRESENT;
+    }
+
+    /**
+     * 瞬时值, 如可用令牌数
+     */
+    public static <T> void gauge(String name, String model, T obj, ToDoubleFunction<T> f) {
+        if (METRICS_PRESENT)
+            Micrometer.gauge(name, model, obj, f);
+    }
+
+    /**
+     * 单调递增的累计值, 如重试次数
+     */
+    public static <T> void counter(String name, String model, T obj, ToDoubleFunction<T> f) {
+        if (METRICS_PRESENT)
+            Micrometer.counter(name, model, obj, f);
+    }
+
+    /**
+     * 按节点区分的瞬时值, 如节点的可用令牌数
+     */
+    public static <T> void gauge(String name, String model, String endpoint, T obj, ToDoubleFunction<T> f) {
+        if (METRICS_PRESENT)
+            Micrometer.gauge(name, model, endpoint, obj, f);
+    }
+
+    public static <T> void counter(String name, String model, String endpoint, T obj, ToDoubleFunction<T> f) {
+        if (METRICS_PRESENT)
+            Micrometer.counter(name, model, endpoint, obj, f);
+    }
+
+    /**
+     * 隔离 micrometer 类型, 未引入依赖时不会被加载
+     */
+    private static final class Micrometer {
+
+        static <T> void gauge(String name, String model, T obj, ToDoubleFunction<T> f) {
+            Gauge.builder(name, obj, f).tag("model", model).register(Metrics.globalRegistry);
+        }
+
+        static <T> void counter(String name, String model, T obj, ToDoubleFunction<T> f) {
+            FunctionCounter.builder(name, obj, f).tag("model", model).register(Metrics.globalRegistry);
+        }
+
+        static <T> void gauge(String name, String model, String endpoint, T obj, ToDoubleFunction<T> f) {
+            Gauge.builder(name, obj, f).tag("model", model).tag("endpoint", endpoint).register(Metrics.globalRegistry);
+        }
+
+        static <T> void counter(String name, String model, String endpoint, T obj, ToDoubleFunction<T> f) {
+            FunctionCounter.builder(name, obj, f).tag("model", model).tag("endpoint", endpoint).register(Metrics.globalRegistry);
+        }
+    }
+
+}
@@ -15,7 +15,11 @@
  */
 package com.eastrobot.arch.llms.common;
 
+import com.eastrobot.arch.llms.chat.model.ChatResponse;
+import com.eastrobot.arch.llms.chat.model.Generation;
 import com.eastrobot.arch.llms.retry.Backoff;
+import com.eastrobot.arch.llms.retry.CircuitOpenException;
+import com.eastrobot.arch.llms.retry.RetryBudget;
 import com.eastrobot.arch.llms.retry.RetryPolicy;
 import com.eastrobot.arch.llms.retry.TransientAiException;
 import com.github.benmanes.caffeine.cache.Cache;
@@ -27,8 +31,23 @@ import org.springframework.retry.RetryListener;
 import org.springframework.retry.policy.SimpleRetryPolicy;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.retry.support.RetryTemplateBuilder;
+import org.springframework.util.Assert;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 /**
  * RetryUtils is a utility class for configuring and handling retry operations. It
@@ -43,6 +62,39 @@ public abstract class RetryUtil {
     private static final Cache<String, RetryTemplate> CACHE =
             Caffeine.newBuilder().maximumSize(300).expireAfterAccess(300, TimeUnit.SECONDS).build();
 
+    /**
+     * 按模型隔离的重试预算
+     */
+    private static final Map<String, RetryBudget> BUDGETS = new ConcurrentHashMap<>();
+
+    /**
+     * 获取模型的重试预算, 未配置时使用默认预算; 模型名为空时返回 null, 即不限制
+     */
+    public static RetryBudget retryBudget(String model) {
+        if (model == null)
+            return null;
+        return BUDGETS.computeIfAbsent(model, key -> {
+            registerMetrics(key);
+            return new RetryBudget();
+        });
+    }
+
+    public static void putRetryBudget(String model, RetryBudget retryBudget) {
+        Assert.state(model != null && retryBudget != null, "The model name and retry budget cannot be null!");
+        if (BUDGETS.put(model, retryBudget) == null)
+            registerMetrics(model);
+    }
+
+    /**
+     * 指标按模型名读取当前预算, 替换预算后无需重新注册
+     */
+    private static void registerMetrics(String model) {
+        MetricsUtil.gauge("llms.retry.budget.tokens", model, model, key -> BUDGETS.get(key).getAvailableTokens());
+        MetricsUtil.counter("llms.retry.requests", model, model, key -> BUDGETS.get(key).getRequestCount());
+        MetricsUtil.counter("llms.retry.retries", model, model, key -> BUDGETS.get(key).getRetryCount());
+        MetricsUtil.counter("llms.retry.budget.exhausted", model, model, key -> BUDGETS.get(key).getExhaustedCount());
+    }
+
     public static RetryTemplate build(RetryPolicy retryPolicy) {
         if (retryPolicy == null) retryPolicy = new RetryPolicy();
         String key = retryPolicy.toString();
@@ -89,4 +141,132 @@ public abstract class RetryUtil {
         return retryTemplate;
     }
 
+    /**
+     * 非阻塞重试: 退避由定时器调度, 不占用调用线程。
+     * predicate 不满足时继续重试; 重试耗尽或异常不可重试时, 按 useLastCallback 返回最后一次结果或 recoveryCallback 兜底。
+     *
+     * @param call 每次订阅都会重新请求模型
+     */
+    public static Mono<ChatResponse> retry(Mono<ChatResponse> call, RetryPolicy retryPolicy, Object conversationId) {
+        return retry(call, retryPolicy, conversationId, null);
+    }
+
+    /**
+     * @param retryBudget 模型的重试预算, 耗尽时不再重试, 直接兜底; 为空时不限制
+     */
+    public static Mono<ChatResponse> retry(Mono<ChatResponse> call, RetryPolicy retryPolicy, Object conversationId,
+                                           RetryBudget retryBudget) {
+        RetryPolicy policy = retryPolicy != null ? retryPolicy : new RetryPolicy();
+        return Mono.defer(() -> {
+            if (retryBudget != null)
+                retryBudget.onRequest();
+            AtomicReference<ChatResponse> last = new AtomicReference<>();
+            Predicate<ChatResponse> predicate = policy.getPredicate();
+            Mono<ChatResponse> attempt = predicate == null ? call : call
+                    .switchIfEmpty(Mono.error(() -> new TransientAiException("the model response is null!")))
+                    .flatMap(chatResponse -> {
+                        if (chatResponse.getResult() == null)
+                            return Mono.error(new TransientAiException("the model response is null!"));
+                        boolean test = predicate.test(chatResponse);
+                        if (policy.isUseLastCallback())
+                            last.set(chatResponse);
+                        return test ? Mono.just(chatResponse)
+                                : Mono.error(new TransientAiException("pre check failed，assert retry continues"));
+                    });
+            return attempt.retryWhen(retrySpec(policy, conversationId, null, retryBudget))
+                    .onErrorResume(e -> {
+                        log.error("{} recovery callback", conversationId, e);
+                        if (policy.isUseLastCallback())
+                            return Mono.justOrEmpty(last.get());
+                        return Mono.just(recovery(policy));
+                    });
+        });
+    }
+
+    /**
+     * 流式重试: 仅在收到第一个响应之前失败时重新建立连接, 已输出内容后的失败直接抛出。
+     * 重试耗尽且未输出任何内容时, 若未启用 useLastCallback 则返回 recoveryCallback 兜底。
+     */
+    public static Flux<ChatResponse> retry(Flux<ChatResponse> stream, RetryPolicy retryPolicy, Object conversationId) {
+        return retry(stream, retryPolicy, conversationId, null);
+    }
+
+    public static Flux<ChatResponse> retry(Flux<ChatResponse> stream, RetryPolicy retryPolicy, Object conversationId,
+                                           RetryBudget retryBudget) {
+        RetryPolicy policy = retryPolicy != null ? retryPolicy : new RetryPolicy();
+        return Flux.defer(() -> {
+            if (retryBudget != null)
+                retryBudget.onRequest();
+            AtomicBoolean started = new AtomicBoolean();
+            return stream.doOnNext(chatResponse -> started.set(true))
+                    .retryWhen(retrySpec(policy, conversationId, e -> !started.get(), retryBudget))
+                    .onErrorResume(e -> !started.get() && !policy.isUseLastCallback(), e -> {
+                        log.error("{} recovery callback", conversationId, e);
+                        return Mono.just(recovery(policy));
+                    });
+        });
+    }
+
+    /**
+     * 将 {@link RetryPolicy} 映射为 Reactor {@link Retry}, maxAttempts 含首次请求, 间隔按 {@link Backoff#interval(long, Duration)} 计算。
+     *
+     * @param retryable 额外的重试条件, 为空时只按 throwables 判断
+     */
+    public static Retry retrySpec(RetryPolicy retryPolicy, Object conversationId, Predicate<Throwable> retryable) {
+        return retrySpec(retryPolicy, conversationId, retryable, null);
+    }
+
+    public static Retry retrySpec(RetryPolicy retryPolicy, Object conversationId, Predicate<Throwable> retryable,
+                                  RetryBudget retryBudget) {
+        RetryPolicy policy = retryPolicy != null ? retryPolicy : new RetryPolicy();
+        Backoff backoff = policy.getBackoff() != null ? policy.getBackoff() : new Backoff();
+        int maxAttempts = policy.getMaxAttempts() > 0 ? policy.getMaxAttempts() : SimpleRetryPolicy.DEFAULT_MAX_ATTEMPTS;
+        return Retry.from(signals -> {
+            // 每次订阅独立记录上一次间隔
+            AtomicReference<Duration> previous = new AtomicReference<>();
+            return signals.concatMap(signal -> {
+                Throwable failure = signal.failure();
+                long attempt = signal.totalRetries() + 1;
+                if (attempt >= maxAttempts || !isRetryable(policy, failure) || (retryable != null && !retryable.test(failure)))
+                    return Mono.error(failure);
+                if (retryBudget != null && !retryBudget.tryRetry()) {
+                    log.warn("{} Retry budget exhausted, skip retrying: {}", conversationId, retryBudget);
+                    return Mono.error(failure);
+                }
+                Duration delay = backoff.interval(attempt, previous.get());
+                previous.set(delay);
+                log.warn("{} Retry error. Retry count: {}, next in {}ms", conversationId, attempt, delay.toMillis(), failure);
+                return Mono.delay(delay);
+            });
+        });
+    }
+
+    /**
+     * 默认可重试: {@link TransientAiException}、429/5xx、连接与超时异常
+     */
+    public static boolean isTransient(Throwable throwable) {
+        if (throwable instanceof WebClientResponseException) {
+            int status = ((WebClientResponseException) throwable).getRawStatusCode();
+            return status == 429 || status >= 500;
+        }
+        return throwable instanceof TransientAiException
+                || throwable instanceof WebClientRequestException
+                || throwable instanceof TimeoutException
+                || throwable instanceof io.netty.handler.timeout.TimeoutException
+                || throwable instanceof IOException;
+    }
+
+    private static boolean isRetryable(RetryPolicy retryPolicy, Throwable failure) {
+        // 熔断打开时重试同样快速失败, 直接交给 recoveryCallback
+        if (failure instanceof CircuitOpenException)
+            return false;
+        if (retryPolicy.getThrowables() == null || retryPolicy.getThrowables().isEmpty())
+            return isTransient(failure);
+        return retryPolicy.getThrowables().stream().anyMatch(type -> type.isInstance(failure));
+    }
+
+    private static ChatResponse recovery(RetryPolicy retryPolicy) {
+        return new ChatResponse(Collections.singletonList(new Generation(retryPolicy.getRecoveryCallback())));
+    }
+
 }
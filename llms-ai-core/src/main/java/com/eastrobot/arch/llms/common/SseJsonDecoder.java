@@ -0,0 +1,226 @@
+package com.eastrobot.arch.llms.common;
+
+import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>SSE 流解码器, 直接在 {@link DataBuffer} 的字节上切分 {@code data:} 行并交给 Jackson 解析,
+ * 不再为每一行构造中间 String 再二次解析。</p>
+ * 兼容不带 {@code data:} 前缀、直接以 JSON 对象开头的行; 遇到 {@code data: [DONE]} 时结束流。
+ * 实例有状态, 每个响应流使用一个实例。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/10 10:20
+ */
+public class SseJsonDecoder<T> {
+
+    private static final byte[] DATA_PREFIX = {'d', 'a', 't', 'a', ':'};
+    private static final byte[] DONE_MARKER = {'[', 'D', 'O', 'N', 'E', ']'};
+
+    private static final Object DONE = new Object();
+
+    private static final int LINE_START = 0;
+    private static final int DATA_LEAD = 1;
+    private static final int DATA = 2;
+    private static final int SKIP = 3;
+    private static final int DONE_LEAD = 4;
+
+    private final ObjectReader reader;
+    private final Class<T> type;
+
+    private int state = LINE_START;
+    private int prefixMatched;
+    private int doneMatched;
+    private boolean done;
+    /**
+     * 从 buffer 中读出的字节, 按最大 buffer 复用
+     */
+    private byte[] scratch = new byte[0];
+    /**
+     * 跨 buffer 的未完成行
+     */
+    private byte[] line = new byte[0];
+    private int lineLength;
+
+    public SseJsonDecoder(Class<T> type) {
+        this(ModelOptionsUtils.OBJECT_MAPPER, type);
+    }
+
+    public SseJsonDecoder(ObjectMapper objectMapper, Class<T> type) {
+        this.reader = objectMapper.readerFor(type);
+        this.type = type;
+    }
+
+    /**
+     * 将响应体解码为对象流, 收到 {@code [DONE]} 后取消上游。
+     * 提前结束(取消、停止条件、超时)时, 已预取但未解码的 buffer 经 discard 钩子释放。
+     */
+    public static <T> Flux<T> decode(Flux<DataBuffer> body, Class<T> type) {
+        return Flux.defer(() -> {
+            SseJsonDecoder<T> decoder = new SseJsonDecoder<>(type);
+            return body.concatMapIterable(decoder::decodeOrDone)
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(decoder.flush())))
+                    .takeUntil(DONE::equals)
+                    .filter(item -> item != DONE)
+                    .map(type::cast);
+        });
+    }
+
+    /**
+     * 解码一个 buffer, 返回其中已完整的对象, buffer 在此方法内释放。
+     */
+    public List<T> decode(DataBuffer buffer) {
+        try {
+            int length = buffer.readableByteCount();
+            if (this.done || length == 0)
+                return Collections.emptyList();
+            if (this.scratch.length < length)
+                this.scratch = new byte[length];
+            buffer.read(this.scratch, 0, length);
+            return frame(this.scratch, length);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    /**
+     * 流结束时解析最后一行未以换行结尾的数据。
+     */
+    public List<T> flush() {
+        if (this.done || this.state != DATA || this.lineLength == 0)
+            return Collections.emptyList();
+        List<T> result = new ArrayList<>(1);
+        parse(this.line, 0, this.lineLength, result);
+        this.lineLength = 0;
+        this.state = LINE_START;
+        return result;
+    }
+
+    public boolean isDone() {
+        return this.done;
+    }
+
+    private List<Object> decodeOrDone(DataBuffer buffer) {
+        List<T> items = decode(buffer);
+        if (!this.done)
+            return Collections.unmodifiableList(items);
+        List<Object> result = new ArrayList<>(items);
+        result.add(DONE);
+        return result;
+    }
+
+    private List<T> frame(byte[] bytes, int length) {
+        List<T> result = new ArrayList<>(1);
+        int dataStart = this.state == DATA ? 0 : -1;
+        for (int i = 0; i < length && !this.done; i++) {
+            byte b = bytes[i];
+            switch (this.state) {
+                case LINE_START:
+                    if (b == '\n' || b == '\r')
+                        break;
+                    if (this.prefixMatched == 0 && b == '{') {
+                        this.state = DATA;
+                        dataStart = i;
+                    } else if (b == DATA_PREFIX[this.prefixMatched]) {
+                        if (++this.prefixMatched == DATA_PREFIX.length) {
+                            this.prefixMatched = 0;
+                            this.state = DATA_LEAD;
+                        }
+                    } else {
+                        this.prefixMatched = 0;
+                        this.state = b == '\n' ? LINE_START : SKIP;
+                    }
+                    break;
+                case DATA_LEAD:
+                    if (b == ' ' || b == '\r')
+                        break;
+                    if (b == '[') {
+                        // 可能是 data: [DONE], 也可能是以 [ 开头的数据
+                        this.state = DONE_LEAD;
+                        this.doneMatched = 1;
+                    } else if (b == '\n') {
+                        this.state = LINE_START;
+                    } else {
+                        this.state = DATA;
+                        dataStart = i;
+                    }
+                    break;
+                case DONE_LEAD:
+                    if (b == DONE_MARKER[this.doneMatched]) {
+                        if (++this.doneMatched == DONE_MARKER.length)
+                            this.done = true;
+                        break;
+                    }
+                    // 不是 [DONE], 已匹配的字节补回行内按普通数据处理
+                    append(DONE_MARKER, 0, this.doneMatched);
+                    this.doneMatched = 0;
+                    if (b == '\n') {
+                        completeLine(bytes, i, i, result);
+                        this.state = LINE_START;
+                    } else {
+                        this.state = DATA;
+                        dataStart = i;
+                    }
+                    break;
+                case DATA:
+                    if (b == '\n') {
+                        completeLine(bytes, dataStart, i, result);
+                        dataStart = -1;
+                        this.state = LINE_START;
+                    }
+                    break;
+                default:
+                    if (b == '\n')
+                        this.state = LINE_START;
+                    break;
+            }
+        }
+        if (!this.done && this.state == DATA && dataStart >= 0)
+            append(bytes, dataStart, length);
+        return result;
+    }
+
+    private void completeLine(byte[] bytes, int start, int end, List<T> result) {
+        if (this.lineLength == 0) {
+            // 整行都在当前 buffer 内, 直接从字节解析
+            parse(bytes, start, end - start, result);
+            return;
+        }
+        append(bytes, start, end);
+        parse(this.line, 0, this.lineLength, result);
+        this.lineLength = 0;
+    }
+
+    private void append(byte[] bytes, int start, int end) {
+        int length = end - start;
+        if (this.line.length < this.lineLength + length)
+            this.line = Arrays.copyOf(this.line, Math.max(this.line.length * 2, this.lineLength + length));
+        System.arraycopy(bytes, start, this.line, this.lineLength, length);
+        this.lineLength += length;
+    }
+
+    private void parse(byte[] bytes, int offset, int length, List<T> result) {
+        while (length > 0 && (bytes[offset + length - 1] == '\r' || bytes[offset + length - 1] == ' '))
+            length--;
+        if (length == 0)
+            return;
+        try {
+            result.add(this.reader.readValue(bytes, offset, length));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode the sse chunk to " + this.type.getName(), e);
+        }
+    }
+
+}
@@ -17,17 +17,11 @@ package com.eastrobot.arch.llms.converter;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.core.util.DefaultIndenter;
-import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.github.victools.jsonschema.generator.SchemaGenerator;
-import com.github.victools.jsonschema.generator.SchemaGeneratorConfig;
-import com.github.victools.jsonschema.generator.SchemaGeneratorConfigBuilder;
-import com.github.victools.jsonschema.module.jackson.JacksonModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.ParameterizedTypeReference;
@@ -36,14 +30,14 @@ import org.springframework.lang.NonNull;
 import java.lang.reflect.Type;
 import java.util.Objects;
 
-import static com.github.victools.jsonschema.generator.OptionPreset.PLAIN_JSON;
-import static com.github.victools.jsonschema.generator.SchemaVersion.DRAFT_2020_12;
-
 /**
  * An implementation of {@link StructuredOutputConverter} that transforms the LLM output
  * to a specific object type using JSON schema. This parser works by generating a JSON
  * schema based on a given Java class or parameterized type reference, which is then used
  * to validate and transform the LLM output into the desired type.
+ * <p>
+ * The schema, format instructions and, with the default object mapper, the reader are
+ * shared per type through {@link JsonSchemaCache}, so creating a converter per request is cheap.
  *
  * @param <T> The target type to which the output will be converted.
  * @author Mark Pollack
@@ -54,12 +48,21 @@ import static com.github.victools.jsonschema.generator.SchemaVersion.DRAFT_2020_
  */
 public class BeanOutputConverter<T> implements StructuredOutputConverter<T> {
 
+    static final String FORMAT_TEMPLATE = "\n" +
+            "Your response should be in JSON format.\n" +
+            "Do not include any explanations, only provide a RFC8259 compliant JSON response following this format without deviation.\n" +
+            "Do not include markdown code blocks in your response.\n" +
+            "Remove the ```json markdown from the output.\n" +
+            "Here is the JSON Schema instance your output must adhere to:\n" +
+            "```%s```\n" +
+            "";
+
     private final Logger logger = LoggerFactory.getLogger(BeanOutputConverter.class);
 
     /**
-     * Holds the generated JSON schema for the target type.
+     * Holds the cached JSON schema for the target type.
      */
-    private String jsonSchema;
+    private final JsonSchemaCache.Entry schema;
 
     /**
      * The target class type reference to which the output will be converted.
@@ -73,6 +76,11 @@ public class BeanOutputConverter<T> implements StructuredOutputConverter<T> {
     @SuppressWarnings("FieldMayBeFinal")
     private ObjectMapper objectMapper;
 
+    /**
+     * The reader for the target type, created from the object mapper.
+     */
+    private final ObjectReader reader;
+
     /**
      * Constructor to initialize with the target type's class.
      *
@@ -140,27 +148,14 @@ public class BeanOutputConverter<T> implements StructuredOutputConverter<T> {
     private BeanOutputConverter(TypeReference<T> typeRef, ObjectMapper objectMapper) {
         Objects.requireNonNull(typeRef, "Type reference cannot be null;");
         this.typeRef = typeRef;
-        this.objectMapper = objectMapper != null ? objectMapper : getObjectMapper();
-        generateSchema();
-    }
-
-    /**
-     * Generates the JSON schema for the target type.
-     */
-    private void generateSchema() {
-        JacksonModule jacksonModule = new JacksonModule();
-        SchemaGeneratorConfigBuilder configBuilder = new SchemaGeneratorConfigBuilder(DRAFT_2020_12, PLAIN_JSON)
-                .with(jacksonModule);
-        SchemaGeneratorConfig config = configBuilder.build();
-        SchemaGenerator generator = new SchemaGenerator(config);
-        JsonNode jsonNode = generator.generateSchema(this.typeRef.getType());
-        ObjectWriter objectWriter = new ObjectMapper().writer(new DefaultPrettyPrinter()
-                .withObjectIndenter(new DefaultIndenter().withLinefeed(System.lineSeparator())));
-        try {
-            this.jsonSchema = objectWriter.writeValueAsString(jsonNode);
-        } catch (JsonProcessingException e) {
-            logger.error("Could not pretty print json schema for jsonNode: " + jsonNode);
-            throw new RuntimeException("Could not pretty print json schema for " + this.typeRef, e);
+        this.schema = JsonSchemaCache.get(typeRef.getType());
+        // subclasses may customize the object mapper
+        if (objectMapper == null && getClass() == BeanOutputConverter.class) {
+            this.objectMapper = JsonSchemaCache.OBJECT_MAPPER;
+            this.reader = this.schema.getReader();
+        } else {
+            this.objectMapper = objectMapper != null ? objectMapper : getObjectMapper();
+            this.reader = this.objectMapper.readerFor(this.objectMapper.constructType(typeRef.getType()));
         }
     }
 
@@ -176,7 +171,7 @@ public class BeanOutputConverter<T> implements StructuredOutputConverter<T> {
             if (text.startsWith("```json") && text.endsWith("```")) {
                 text = text.substring(7, text.length() - 3);
             }
-            return this.objectMapper.readValue(text, this.typeRef);
+            return this.reader.readValue(text);
         } catch (JsonProcessingException e) {
             logger.error("Could not parse the given text to the desired target type:" + text + " into " + this.typeRef);
             throw new RuntimeException(e);
@@ -203,15 +198,32 @@ public class BeanOutputConverter<T> implements StructuredOutputConverter<T> {
      */
     @Override
     public String getFormat() {
-        String template = "\n" +
-                "Your response should be in JSON format.\n" +
-                "Do not include any explanations, only provide a RFC8259 compliant JSON response following this format without deviation.\n" +
-                "Do not include markdown code blocks in your response.\n" +
-                "Remove the ```json markdown from the output.\n" +
-                "Here is the JSON Schema instance your output must adhere to:\n" +
-                "```%s```\n" +
-                "";
-        return String.format(template, this.jsonSchema);
+        return this.schema.getFormat();
+    }
+
+    /**
+     * Provides the generated JSON schema for the target type.
+     *
+     * @return The pretty printed JSON schema.
+     */
+    public String getJsonSchema() {
+        return this.schema.getPrettySchema();
+    }
+
+    /**
+     * Provides the generated JSON schema as a node, e.g. for a {@code json_schema} response format.
+     *
+     * @return A copy of the JSON schema.
+     */
+    public ObjectNode getJsonSchemaNode() {
+        return this.schema.getSchema();
+    }
+
+    /**
+     * @return The target type to which the output will be converted.
+     */
+    public Type getType() {
+        return this.typeRef.getType();
     }
 
 }
@@ -0,0 +1,161 @@
+package com.eastrobot.arch.llms.converter;
+
+import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.util.DefaultIndenter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.victools.jsonschema.generator.SchemaGenerator;
+import com.github.victools.jsonschema.generator.SchemaGeneratorConfigBuilder;
+import com.github.victools.jsonschema.module.jackson.JacksonModule;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.github.victools.jsonschema.generator.OptionPreset.PLAIN_JSON;
+import static com.github.victools.jsonschema.generator.SchemaVersion.DRAFT_2020_12;
+
+/**
+ * <p>结构化输出的 JSON Schema 缓存: 按目标类型缓存生成的 schema、格式说明与 {@link ObjectReader}。</p>
+ * SchemaGenerator 与 ObjectMapper 全局共享, 每个类型只生成一次, 供 {@link BeanOutputConverter}、
+ * {@link MapOutputConverter} 与 {@link ModelOptionsUtils#generateSchema} 使用; 启动时可通过 {@link #warmUp} 预热。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/15 10:00
+ */
+@Slf4j
+public final class JsonSchemaCache {
+
+    /**
+     * 转换器默认使用的 ObjectMapper: 忽略未知字段, 支持 java.time
+     */
+    public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .registerModule(new JavaTimeModule());
+
+    private static final SchemaGenerator GENERATOR = new SchemaGenerator(
+            new SchemaGeneratorConfigBuilder(DRAFT_2020_12, PLAIN_JSON).with(new JacksonModule()).build());
+
+    private static final ObjectWriter PRETTY_WRITER = new ObjectMapper().writer(new DefaultPrettyPrinter()
+            .withObjectIndenter(new DefaultIndenter().withLinefeed(System.lineSeparator())));
+
+    private static final ConcurrentHashMap<Type, Entry> CACHE = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Type, Entry> UPPER_CASE_CACHE = new ConcurrentHashMap<>();
+
+    private JsonSchemaCache() {
+    }
+
+    public static Entry get(Type type) {
+        return get(type, false);
+    }
+
+    /**
+     * @param toUpperCaseTypeValues type 的值是否转为大写 (OpenAPI 3.0)
+     * @throws RuntimeException 无法输出 schema 时
+     */
+    public static Entry get(Type type, boolean toUpperCaseTypeValues) {
+        Assert.notNull(type, "The type must not be null");
+        Entry entry = (toUpperCaseTypeValues ? UPPER_CASE_CACHE : CACHE).get(type);
+        if (entry != null)
+            return entry;
+        return (toUpperCaseTypeValues ? UPPER_CASE_CACHE : CACHE)
+                .computeIfAbsent(type, key -> new Entry(key, toUpperCaseTypeValues));
+    }
+
+    /**
+     * 预热, 生成失败的类型只记录日志
+     */
+    public static void warmUp(Collection<? extends Type> types) {
+        for (Type type : types) {
+            try {
+                get(type);
+            } catch (RuntimeException e) {
+                log.warn("Failed to warm up the json schema of [{}]: {}", type.getTypeName(), e.toString());
+            }
+        }
+    }
+
+    public static int size() {
+        return CACHE.size() + UPPER_CASE_CACHE.size();
+    }
+
+    public static void clear() {
+        CACHE.clear();
+        UPPER_CASE_CACHE.clear();
+    }
+
+    public static final class Entry {
+
+        private final Type type;
+        private final ObjectNode schema;
+        private final String prettySchema;
+        private final String compactSchema;
+        private final ObjectReader reader;
+        private volatile String format;
+
+        private Entry(Type type, boolean toUpperCaseTypeValues) {
+            this.type = type;
+            ObjectNode schema = GENERATOR.generateSchema(type);
+            if (toUpperCaseTypeValues)
+                ModelOptionsUtils.toUpperCaseTypeValues(schema);
+            this.schema = schema;
+            try {
+                this.prettySchema = PRETTY_WRITER.writeValueAsString(schema);
+            } catch (JsonProcessingException e) {
+                log.error("Could not pretty print json schema for jsonNode: " + schema);
+                throw new RuntimeException("Could not pretty print json schema for " + type.getTypeName(), e);
+            }
+            this.compactSchema = schema.toString();
+            this.reader = OBJECT_MAPPER.readerFor(OBJECT_MAPPER.constructType(type));
+        }
+
+        public Type getType() {
+            return this.type;
+        }
+
+        /**
+         * @return schema 的副本
+         */
+        public ObjectNode getSchema() {
+            return this.schema.deepCopy();
+        }
+
+        public String getPrettySchema() {
+            return this.prettySchema;
+        }
+
+        /**
+         * @return 无空白的 schema
+         */
+        public String getCompactSchema() {
+            return this.compactSchema;
+        }
+
+        /**
+         * @return 基于 {@link #OBJECT_MAPPER} 的 reader, 线程安全
+         */
+        public ObjectReader getReader() {
+            return this.reader;
+        }
+
+        /**
+         * @return {@link BeanOutputConverter} 追加到用户消息的格式说明
+         */
+        public String getFormat() {
+            String format = this.format;
+            if (format == null)
+                this.format = format = String.format(BeanOutputConverter.FORMAT_TEMPLATE, this.prettySchema);
+            return format;
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.eastrobot.arch.llms.converter;
+
+import com.eastrobot.arch.llms.common.ApiUtils;
+import com.eastrobot.arch.llms.common.MetricsUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>按模型统计以 json_schema 传递 schema 的结构化输出请求数, 以及因此少发送的格式说明 token 数</p>
+ * token 数与限流的预估一致, 见 {@link ApiUtils#estimateTokens}。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/15 10:00
+ */
+@Slf4j
+public final class JsonSchemaStats {
+
+    private static final Map<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    private JsonSchemaStats() {
+    }
+
+    /**
+     * @param format 未追加到用户消息的格式说明
+     */
+    public static void record(String model, String format) {
+        long saved = ApiUtils.estimateTokens(System.lineSeparator() + format);
+        Stats stats = stats(model != null ? model : "unknown");
+        stats.requests.increment();
+        stats.savedPromptTokens.add(saved);
+        if (log.isDebugEnabled())
+            log.debug("The structured output schema is sent as response_format, about {} prompt tokens saved", saved);
+    }
+
+    public static long getRequestCount(String model) {
+        Stats stats = STATS.get(model);
+        return stats == null ? 0 : stats.requests.sum();
+    }
+
+    public static long getSavedPromptTokens(String model) {
+        Stats stats = STATS.get(model);
+        return stats == null ? 0 : stats.savedPromptTokens.sum();
+    }
+
+    private static Stats stats(String model) {
+        return STATS.computeIfAbsent(model, key -> {
+            Stats stats = new Stats();
+            MetricsUtil.counter("llms.structured.output.json.schema", key, stats, s -> s.requests.sum());
+            MetricsUtil.counter("llms.structured.output.saved.prompt.tokens", key, stats, s -> s.savedPromptTokens.sum());
+            return stats;
+        });
+    }
+
+    private static final class Stats {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder savedPromptTokens = new LongAdder();
+    }
+
+}
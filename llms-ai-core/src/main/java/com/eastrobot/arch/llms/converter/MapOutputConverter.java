@@ -15,27 +15,32 @@
  */
 package com.eastrobot.arch.llms.converter;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.springframework.lang.NonNull;
-import org.springframework.messaging.Message;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
-import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.converter.MessageConversionException;
 
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * {@link StructuredOutputConverter} implementation that uses a pre-configured
  * {@link MappingJackson2MessageConverter} to convert the LLM output into a
- * java.util.Map&lt;String, Object&gt; instance.
+ * java.util.Map&lt;String, Object&gt; instance. The output is read with the reader
+ * cached by {@link JsonSchemaCache}.
  *
  * @author Mark Pollack
  * @author Christian Tzolov
  */
 public class MapOutputConverter extends AbstractMessageOutputConverter<Map<String, Object>> {
 
+    private static final MappingJackson2MessageConverter MESSAGE_CONVERTER = new MappingJackson2MessageConverter();
+
+    private static final String FORMAT = String.format("\nYour response should be in JSON format.\nThe data structure for the JSON should match this Java class: %s\nDo not include any explanations, only provide a RFC8259 compliant JSON response following this format without deviation.\nRemove the ```json markdown surrounding the output including the trailing ```.\n",
+            HashMap.class.getName());
+
     public MapOutputConverter() {
-        super(new MappingJackson2MessageConverter());
+        super(MESSAGE_CONVERTER);
     }
 
     @Override
@@ -44,14 +49,16 @@ public class MapOutputConverter extends AbstractMessageOutputConverter<Map<Strin
             text = text.substring(7, text.length() - 3);
         }
 
-        Message<?> message = MessageBuilder.withPayload(text.getBytes(StandardCharsets.UTF_8)).build();
-        return (Map) this.getMessageConverter().fromMessage(message, HashMap.class);
+        try {
+            return JsonSchemaCache.get(HashMap.class).getReader().readValue(text);
+        } catch (JsonProcessingException e) {
+            throw new MessageConversionException("Could not read JSON: " + e.getOriginalMessage(), e);
+        }
     }
 
     @Override
     public String getFormat() {
-        String raw = "\nYour response should be in JSON format.\nThe data structure for the JSON should match this Java class: %s\nDo not include any explanations, only provide a RFC8259 compliant JSON response following this format without deviation.\nRemove the ```json markdown surrounding the output including the trailing ```.\n";
-        return String.format(raw, HashMap.class.getName());
+        return FORMAT;
     }
 
 }
@@ -0,0 +1,312 @@
+package com.eastrobot.arch.llms.limiter;
+
+import lombok.Getter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>自适应并发限制(gradient 算法): 按请求耗时自动调整允许的在途请求数。</p>
+ * 短期耗时接近长期基线时按 sqrt(limit) 扩张, 耗时升高时按 基线/耗时 的比例收缩, 429/5xx/超时按 backoffRatio 乘性收缩。
+ * 流式请求以首 token 耗时(TTFT)为样本, 非流式以整体耗时(RTT)为样本, 两者分别维护基线。
+ * 超过限制的请求排队等待, 队列满或等待超过 maxWait 时抛出 {@link LimitExceededException}。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/25 10:00
+ */
+public class ConcurrencyLimiter {
+
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int CANCELLED = 2;
+
+    private static final double SMOOTHING = 0.2;
+    private static final double TOLERANCE = 1.5;
+    private static final double MIN_GRADIENT = 0.5;
+
+    @Getter
+    private final int minLimit;
+    @Getter
+    private final int maxLimit;
+    @Getter
+    private final int maxQueue;
+    @Getter
+    private final Duration maxWait;
+    /**
+     * 服务端过载(429/5xx/超时)时的乘性收缩比例
+     */
+    @Getter
+    private final double backoffRatio;
+
+    private final Measurement rtt = new Measurement();
+    private final Measurement ttft = new Measurement();
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private final LongAdder rejected = new LongAdder();
+
+    private double limit;
+    private int inFlight;
+
+    public ConcurrencyLimiter() {
+        this(20, 1, 200, 100, Duration.ofSeconds(10));
+    }
+
+    /**
+     * @param initialLimit 初始并发数
+     * @param maxQueue     最大排队数, 0 表示超过限制直接拒绝
+     * @param maxWait      排队的最大等待时间
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, Duration maxWait) {
+        this(initialLimit, minLimit, maxLimit, maxQueue, maxWait, 0.9);
+    }
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, Duration maxWait, double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit)
+            throw new IllegalArgumentException("The concurrency limit range is invalid: [" + minLimit + ", " + maxLimit + "]");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.maxQueue = Math.max(0, maxQueue);
+        this.maxWait = maxWait != null ? maxWait : Duration.ZERO;
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * 获取一个并发许可, 用完后必须调用 {@link Permit} 的 success/dropped/ignore 之一释放
+     */
+    public Mono<Permit> acquire() {
+        return Mono.create(sink -> {
+            Waiter waiter = null;
+            int current = 0;
+            synchronized (this) {
+                if (this.inFlight < (int) this.limit) {
+                    current = ++this.inFlight;
+                } else if (this.queue.size() < this.maxQueue && !this.maxWait.isZero()) {
+                    waiter = new Waiter(sink);
+                    this.queue.addLast(waiter);
+                } else {
+                    this.rejected.increment();
+                    sink.error(new LimitExceededException("The concurrency limit is exceeded: " + this));
+                    return;
+                }
+            }
+            if (waiter == null) {
+                sink.success(new Permit(current));
+                return;
+            }
+            Waiter queued = waiter;
+            queued.timer = Schedulers.parallel().schedule(() -> {
+                if (queued.state.compareAndSet(WAITING, CANCELLED)) {
+                    remove(queued);
+                    this.rejected.increment();
+                    sink.error(new LimitExceededException("Timed out waiting for the concurrency limit: " + this));
+                }
+            }, this.maxWait.toMillis(), TimeUnit.MILLISECONDS);
+            // 计时器创建前已被移交
+            if (queued.state.get() != WAITING)
+                queued.timer.dispose();
+            sink.onCancel(() -> {
+                queued.dispose();
+                if (queued.state.compareAndSet(WAITING, CANCELLED))
+                    remove(queued);
+                else if (queued.state.get() == GRANTED)
+                    // 许可已移交但订阅已取消, 许可不会再被使用
+                    release();
+            });
+        });
+    }
+
+    /**
+     * 不排队: 未达到限制且没有排队的请求时立即返回许可, 否则返回 null, 不计入拒绝; 用于可放弃的请求(如对冲)
+     */
+    public Permit tryAcquire() {
+        int current;
+        synchronized (this) {
+            if (!this.queue.isEmpty() || this.inFlight >= (int) this.limit)
+                return null;
+            current = ++this.inFlight;
+        }
+        return new Permit(current);
+    }
+
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    public synchronized int getQueueSize() {
+        return this.queue.size();
+    }
+
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    private synchronized void remove(Waiter waiter) {
+        this.queue.remove(waiter);
+    }
+
+    private void release() {
+        synchronized (this) {
+            this.inFlight--;
+        }
+        drain();
+    }
+
+    /**
+     * 按当前限制将许可移交给排队的请求, 在锁外回调
+     */
+    private void drain() {
+        while (true) {
+            Waiter waiter;
+            int current;
+            synchronized (this) {
+                if (this.queue.isEmpty() || this.inFlight >= (int) this.limit)
+                    return;
+                waiter = this.queue.pollFirst();
+                if (!waiter.state.compareAndSet(WAITING, GRANTED))
+                    continue;
+                current = ++this.inFlight;
+            }
+            waiter.dispose();
+            waiter.sink.success(new Permit(current));
+        }
+    }
+
+    private void onSample(Measurement measurement, long nanos, int inFlightAtStart) {
+        synchronized (this) {
+            double baseline = measurement.update(nanos);
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * baseline / nanos));
+            double newLimit = this.limit * gradient + Math.sqrt(this.limit);
+            // 在途请求不足一半时说明负载未触达限制, 此时的样本不能证明可以扩张
+            if (newLimit > this.limit && inFlightAtStart < this.limit / 2)
+                return;
+            this.limit = clamp(this.limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+        }
+        drain();
+    }
+
+    private synchronized void onDropped() {
+        this.limit = clamp(this.limit * this.backoffRatio);
+    }
+
+    private double clamp(double value) {
+        return Math.max(this.minLimit, Math.min(this.maxLimit, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConcurrencyLimiter{" +
+                "limit=" + (int) limit +
+                ", inFlight=" + inFlight +
+                ", queue=" + queue.size() +
+                ", rtt=" + rtt +
+                ", ttft=" + ttft +
+                '}';
+    }
+
+    /**
+     * 一次在途请求的许可, 释放操作只生效一次
+     */
+    public final class Permit {
+
+        private final long startNanos = System.nanoTime();
+        private final int inFlightAtStart;
+        private final AtomicBoolean firstToken = new AtomicBoolean();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int inFlightAtStart) {
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * 流式请求收到首个数据块, 以 TTFT 作为样本
+         */
+        public void firstToken() {
+            if (!this.released.get() && this.firstToken.compareAndSet(false, true))
+                onSample(ttft, System.nanoTime() - this.startNanos, this.inFlightAtStart);
+        }
+
+        /**
+         * 请求成功; 未记录 TTFT 时以整体耗时作为样本
+         */
+        public void success() {
+            if (this.released.compareAndSet(false, true)) {
+                if (!this.firstToken.get())
+                    onSample(rtt, System.nanoTime() - this.startNanos, this.inFlightAtStart);
+                release();
+            }
+        }
+
+        /**
+         * 服务端过载(429/5xx/超时), 收缩限制
+         */
+        public void dropped() {
+            if (this.released.compareAndSet(false, true)) {
+                onDropped();
+                release();
+            }
+        }
+
+        /**
+         * 取消或与负载无关的失败, 只释放不采样
+         */
+        public void ignore() {
+            if (this.released.compareAndSet(false, true))
+                release();
+        }
+    }
+
+    /**
+     * 长期耗时基线(指数移动平均); 样本低于基线时快速下调, 基线随负载恢复而回落
+     */
+    private static final class Measurement {
+
+        private static final double ALPHA = 0.002;
+
+        private double baseline;
+
+        private double update(long nanos) {
+            if (this.baseline <= 0 || nanos < this.baseline)
+                this.baseline = this.baseline <= 0 ? nanos : this.baseline + (nanos - this.baseline) * 0.5;
+            else
+                this.baseline += (nanos - this.baseline) * ALPHA;
+            return this.baseline;
+        }
+
+        @Override
+        public String toString() {
+            return this.baseline <= 0 ? "-" : TimeUnit.NANOSECONDS.toMillis((long) this.baseline) + "ms";
+        }
+    }
+
+    private static final class Waiter {
+
+        private final MonoSink<Permit> sink;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile Disposable timer;
+
+        private Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+
+        private void dispose() {
+            Disposable timer = this.timer;
+            if (timer != null)
+                timer.dispose();
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.eastrobot.arch.llms.limiter;
+
+import com.eastrobot.arch.llms.retry.TransientAiException;
+
+/**
+ * <p>客户端限流拒绝: 请求未发出, 预计等待时间超过允许的最大等待时间</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/24 10:00
+ */
+public class LimitExceededException extends TransientAiException {
+    public LimitExceededException(String message) {
+        super(message);
+    }
+}
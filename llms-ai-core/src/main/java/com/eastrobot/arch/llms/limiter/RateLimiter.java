@@ -0,0 +1,202 @@
+package com.eastrobot.arch.llms.limiter;
+
+import com.eastrobot.arch.llms.chat.metadata.RateLimit;
+import lombok.Getter;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>客户端双令牌桶限流(请求数与 token 数), 在请求发出前等待或拒绝。</p>
+ * 桶容量与剩余量由服务端 x-ratelimit-* 响应头同步, 按每分钟额度匀速回填; 未配置且未收到响应头时不限制。
+ * 预计等待不超过 maxWait 时预占额度并延迟发出, 否则抛出 {@link LimitExceededException}。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/24 10:00
+ */
+public class RateLimiter {
+
+    private static final long WINDOW_MILLIS = 60_000;
+
+    private final Bucket requests;
+    private final Bucket tokens;
+    @Getter
+    private final Duration maxWait;
+
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param requestsPerMinute 初始每分钟请求数, <=0 表示等待响应头同步
+     * @param tokensPerMinute   初始每分钟 token 数, <=0 表示等待响应头同步
+     * @param maxWait           允许的最大等待时间
+     */
+    public RateLimiter(long requestsPerMinute, long tokensPerMinute, Duration maxWait) {
+        this.requests = new Bucket(requestsPerMinute);
+        this.tokens = new Bucket(tokensPerMinute);
+        this.maxWait = maxWait != null ? maxWait : Duration.ZERO;
+    }
+
+    /**
+     * 预占一次请求及预估的 token 数, 额度不足时延迟, 超过 maxWait 时拒绝
+     */
+    public Mono<Void> acquire(long estimatedTokens) {
+        return Mono.defer(() -> {
+            long wait = reserve(estimatedTokens, System.currentTimeMillis(), this.maxWait.toMillis());
+            if (wait < 0) {
+                this.rejected.increment();
+                return Mono.error(new LimitExceededException("The client rate limit is exceeded, requests: "
+                        + this.requests + ", tokens: " + this.tokens));
+            }
+            if (wait == 0)
+                return Mono.empty();
+            this.delayed.increment();
+            return Mono.delay(Duration.ofMillis(wait)).then();
+        });
+    }
+
+    /**
+     * 额度充足时立即预占并返回 true, 否则不预占、不等待, 也不计入拒绝; 用于可放弃的请求(如对冲)
+     */
+    public boolean tryAcquire(long estimatedTokens) {
+        return reserve(estimatedTokens, System.currentTimeMillis(), 0) == 0;
+    }
+
+    /**
+     * 退回 {@link #tryAcquire} 预占的一次请求与 token 数, 用于预占后放弃发出的请求; 不超过桶容量
+     */
+    public synchronized void refund(long estimatedTokens) {
+        long now = System.currentTimeMillis();
+        this.requests.give(1, now);
+        this.tokens.give(estimatedTokens, now);
+    }
+
+    /**
+     * 按服务端返回的额度校准桶, 剩余为 0 时按重置时间计入欠额
+     */
+    public void sync(RateLimit rateLimit) {
+        if (rateLimit == null)
+            return;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            this.requests.sync(rateLimit.getRequestsLimit(), rateLimit.getRequestsRemaining(), rateLimit.getRequestsReset(), now);
+            this.tokens.sync(rateLimit.getTokensLimit(), rateLimit.getTokensRemaining(), rateLimit.getTokensReset(), now);
+        }
+    }
+
+    private synchronized long reserve(long estimatedTokens, long now, long maxWaitMillis) {
+        long requestWait = this.requests.waitFor(1, now);
+        long tokenWait = this.tokens.waitFor(estimatedTokens, now);
+        if (requestWait > maxWaitMillis || tokenWait > maxWaitMillis)
+            return -1;
+        this.requests.take(1);
+        this.tokens.take(estimatedTokens);
+        return Math.max(requestWait, tokenWait);
+    }
+
+    public synchronized double getAvailableRequests() {
+        return this.requests.available(System.currentTimeMillis());
+    }
+
+    public synchronized double getAvailableTokens() {
+        return this.tokens.available(System.currentTimeMillis());
+    }
+
+    public long getDelayedCount() {
+        return this.delayed.sum();
+    }
+
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{" +
+                "requests=" + requests +
+                ", tokens=" + tokens +
+                ", maxWait=" + maxWait +
+                '}';
+    }
+
+    /**
+     * 单个令牌桶, 由外层加锁; 允许预占为负值, 负值即需要等待的回填量
+     */
+    private static final class Bucket {
+
+        private double capacity;
+        private double available;
+        private double ratePerMillis;
+        private long refilledAt = System.currentTimeMillis();
+
+        private Bucket(long perMinute) {
+            if (perMinute > 0)
+                resize(perMinute);
+            this.available = this.capacity;
+        }
+
+        private boolean isUnlimited() {
+            return this.ratePerMillis <= 0;
+        }
+
+        private void resize(long perMinute) {
+            this.capacity = perMinute;
+            this.ratePerMillis = (double) perMinute / WINDOW_MILLIS;
+        }
+
+        private double available(long now) {
+            if (isUnlimited())
+                return Double.POSITIVE_INFINITY;
+            refill(now);
+            return this.available;
+        }
+
+        private void refill(long now) {
+            if (now > this.refilledAt) {
+                this.available = Math.min(this.capacity, this.available + (now - this.refilledAt) * this.ratePerMillis);
+                this.refilledAt = now;
+            }
+        }
+
+        private long waitFor(long amount, long now) {
+            if (isUnlimited() || amount <= 0)
+                return 0;
+            refill(now);
+            double remaining = this.available - Math.min(amount, this.capacity);
+            return remaining >= 0 ? 0 : (long) Math.ceil(-remaining / this.ratePerMillis);
+        }
+
+        private void take(long amount) {
+            if (!isUnlimited() && amount > 0)
+                this.available -= Math.min(amount, this.capacity);
+        }
+
+        private void give(long amount, long now) {
+            if (isUnlimited() || amount <= 0)
+                return;
+            refill(now);
+            this.available = Math.min(this.capacity, this.available + Math.min(amount, this.capacity));
+        }
+
+        private void sync(Long limit, Long remaining, Duration reset, long now) {
+            if (limit == null || limit <= 0 || remaining == null)
+                return;
+            if (limit != this.capacity)
+                resize(limit);
+            this.refilledAt = now;
+            // 以服务端剩余量为准; 已耗尽时按重置时间计为欠额, 到重置时刻恰好回填出一个单位
+            if (remaining > 0 || reset == null)
+                this.available = Math.min(remaining, this.capacity);
+            else
+                this.available = 1 - reset.toMillis() * this.ratePerMillis;
+        }
+
+        @Override
+        public String toString() {
+            return isUnlimited() ? "unlimited" : String.format("%.1f/%.0f", this.available, this.capacity);
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+package com.eastrobot.arch.llms.model;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.util.ClassUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * <p>{@link ModelOptionsUtils#merge} 与 {@link ModelOptionsUtils#mergeBeans} 的编译实现。</p>
+ * 按 (source, target, result) 类型组合只做一次 Jackson/Bean 内省, 生成 {@link MethodHandle} 访问器,
+ * 之后逐字段合并, 不再经过 JSON 序列化。字段值为浅拷贝。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/12 14:30
+ */
+final class ModelOptionsMerger {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final Map<Class<?>, Map<String, MethodHandle>> JSON_GETTERS = new ConcurrentHashMap<>();
+    private static final Map<List<Object>, MergePlan> MERGE_PLANS = new ConcurrentHashMap<>();
+    private static final Map<List<Class<?>>, List<BeanProperty>> BEAN_PLANS = new ConcurrentHashMap<>();
+
+    private ModelOptionsMerger() {
+    }
+
+    /**
+     * @return 合并结果, 无法编译(如 source 为 Map 或 clazz 无默认构造)时返回 null, 由调用方走 JSON 合并
+     */
+    static <T> T merge(Object source, Object target, Class<T> clazz, List<String> fieldNames) {
+        if (source instanceof Map || target instanceof Map)
+            return null;
+        Class<?> sourceClass = source == null ? null : source.getClass();
+        Class<?> targetClass = target == null ? null : target.getClass();
+        MergePlan plan = MERGE_PLANS.computeIfAbsent(Arrays.<Object>asList(sourceClass, targetClass, clazz, fieldNames),
+                key -> MergePlan.compile(sourceClass, targetClass, clazz, fieldNames));
+        if (plan == MergePlan.UNSUPPORTED)
+            return null;
+        return clazz.cast(plan.apply(source, target));
+    }
+
+    static <T> T mergeBeans(Object source, T target, Class<?> sourceInterfaceClazz, boolean overrideNonNullTargetValues) {
+        List<BeanProperty> properties = BEAN_PLANS.computeIfAbsent(
+                Arrays.<Class<?>>asList(source.getClass(), target.getClass(), sourceInterfaceClazz),
+                key -> compileBeanProperties(source.getClass(), target.getClass(), sourceInterfaceClazz));
+        BeanWrapperImpl fallback = null;
+        for (BeanProperty property : properties) {
+            Object value = invokeGetter(property.sourceGetter, source);
+            if (value == null)
+                continue;
+            if (!overrideNonNullTargetValues && invokeGetter(property.targetGetter, target) != null)
+                continue;
+            if (property.targetSetter != null && ClassUtils.isAssignableValue(property.targetType, value)) {
+                invokeSetter(property.targetSetter, target, value);
+            } else {
+                // 类型不一致时交给 BeanWrapper 做类型转换
+                if (fallback == null)
+                    fallback = new BeanWrapperImpl(target);
+                fallback.setPropertyValue(property.name, value);
+            }
+        }
+        return target;
+    }
+
+    private static List<BeanProperty> compileBeanProperties(Class<?> sourceClass, Class<?> targetClass, Class<?> sourceInterfaceClazz) {
+        Set<String> interfaceNames = Arrays.stream(sourceInterfaceClazz.getMethods()).map(Method::getName).collect(Collectors.toSet());
+        List<BeanProperty> properties = new ArrayList<>();
+        for (PropertyDescriptor descriptor : BeanUtils.getPropertyDescriptors(sourceClass)) {
+            String name = descriptor.getName();
+            if ("class".equals(name) || !interfaceNames.contains("get" + name.substring(0, 1).toUpperCase() + name.substring(1)))
+                continue;
+            PropertyDescriptor targetDescriptor = BeanUtils.getPropertyDescriptor(targetClass, name);
+            if (descriptor.getReadMethod() == null || targetDescriptor == null || targetDescriptor.getReadMethod() == null)
+                continue;
+            Method writeMethod = targetDescriptor.getWriteMethod();
+            properties.add(new BeanProperty(name,
+                    getter(descriptor.getReadMethod()),
+                    getter(targetDescriptor.getReadMethod()),
+                    writeMethod == null ? null : setter(writeMethod),
+                    ClassUtils.resolvePrimitiveIfNecessary(targetDescriptor.getPropertyType())));
+        }
+        return properties;
+    }
+
+    private static Map<String, MethodHandle> jsonGetters(Class<?> clazz) {
+        return JSON_GETTERS.computeIfAbsent(clazz, key -> {
+            ObjectMapper mapper = ModelOptionsUtils.OBJECT_MAPPER;
+            BeanDescription description = mapper.getSerializationConfig().introspect(mapper.constructType(key));
+            Map<String, MethodHandle> getters = new HashMap<>();
+            for (BeanPropertyDefinition property : description.findProperties()) {
+                AnnotatedMember accessor = property.getAccessor();
+                if (accessor != null)
+                    getters.put(property.getName(), getter(accessor.getMember()));
+            }
+            return getters;
+        });
+    }
+
+    private static MethodHandle getter(Object member) {
+        try {
+            MethodHandle handle;
+            if (member instanceof Method) {
+                Method method = (Method) member;
+                makeAccessible(method);
+                handle = LOOKUP.unreflect(method);
+            } else {
+                Field field = (Field) member;
+                makeAccessible(field);
+                handle = LOOKUP.unreflectGetter(field);
+            }
+            return handle.asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to compile the getter: " + member, e);
+        }
+    }
+
+    private static MethodHandle setter(Object member) {
+        try {
+            MethodHandle handle;
+            if (member instanceof Method) {
+                Method method = (Method) member;
+                makeAccessible(method);
+                handle = LOOKUP.unreflect(method);
+                // 忽略链式 setter 的返回值
+                handle = handle.asType(handle.type().changeReturnType(void.class));
+            } else {
+                Field field = (Field) member;
+                makeAccessible(field);
+                handle = LOOKUP.unreflectSetter(field);
+            }
+            return handle.asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to compile the setter: " + member, e);
+        }
+    }
+
+    private static void makeAccessible(Member member) {
+        if (!Modifier.isPublic(member.getModifiers()) || !Modifier.isPublic(member.getDeclaringClass().getModifiers()))
+            ((AccessibleObject) member).setAccessible(true);
+    }
+
+    private static Object invokeGetter(MethodHandle getter, Object bean) {
+        try {
+            return (Object) getter.invokeExact(bean);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void invokeSetter(MethodHandle setter, Object bean, Object value) {
+        try {
+            setter.invokeExact(bean, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class BeanProperty {
+        private final String name;
+        private final MethodHandle sourceGetter;
+        private final MethodHandle targetGetter;
+        private final MethodHandle targetSetter;
+        private final Class<?> targetType;
+
+        private BeanProperty(String name, MethodHandle sourceGetter, MethodHandle targetGetter, MethodHandle targetSetter,
+                             Class<?> targetType) {
+            this.name = name;
+            this.sourceGetter = sourceGetter;
+            this.targetGetter = targetGetter;
+            this.targetSetter = targetSetter;
+            this.targetType = targetType;
+        }
+    }
+
+    private static final class MergeProperty {
+        private final MethodHandle sourceGetter;
+        private final MethodHandle targetGetter;
+        private final MethodHandle setter;
+        private final Class<?> rawType;
+        private final JavaType type;
+
+        private MergeProperty(MethodHandle sourceGetter, MethodHandle targetGetter, MethodHandle setter, JavaType type) {
+            this.sourceGetter = sourceGetter;
+            this.targetGetter = targetGetter;
+            this.setter = setter;
+            this.type = type;
+            this.rawType = ClassUtils.resolvePrimitiveIfNecessary(type.getRawClass());
+        }
+    }
+
+    private static final class MergePlan {
+
+        private static final MergePlan UNSUPPORTED = new MergePlan(null, Collections.emptyList());
+
+        private final MethodHandle constructor;
+        private final List<MergeProperty> properties;
+
+        private MergePlan(MethodHandle constructor, List<MergeProperty> properties) {
+            this.constructor = constructor;
+            this.properties = properties;
+        }
+
+        static MergePlan compile(Class<?> sourceClass, Class<?> targetClass, Class<?> clazz, List<String> fieldNames) {
+            try {
+                return doCompile(sourceClass, targetClass, clazz, fieldNames);
+            } catch (IllegalStateException e) {
+                return UNSUPPORTED;
+            }
+        }
+
+        private static MergePlan doCompile(Class<?> sourceClass, Class<?> targetClass, Class<?> clazz, List<String> fieldNames) {
+            Constructor<?> defaultConstructor;
+            try {
+                defaultConstructor = clazz.getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                return UNSUPPORTED;
+            }
+            ObjectMapper mapper = ModelOptionsUtils.OBJECT_MAPPER;
+            BeanDescription description = mapper.getDeserializationConfig().introspect(mapper.constructType(clazz));
+            Map<String, MethodHandle> sourceGetters = sourceClass == null ? Collections.emptyMap() : jsonGetters(sourceClass);
+            Map<String, MethodHandle> targetGetters = targetClass == null ? Collections.emptyMap() : jsonGetters(targetClass);
+            List<MergeProperty> properties = new ArrayList<>();
+            for (BeanPropertyDefinition property : description.findProperties()) {
+                String name = property.getName();
+                AnnotatedMember mutator = property.getMutator();
+                if (!fieldNames.contains(name) || mutator == null || mutator.getMember() instanceof Constructor)
+                    continue;
+                MethodHandle sourceGetter = sourceGetters.get(name);
+                MethodHandle targetGetter = targetGetters.get(name);
+                if (sourceGetter == null && targetGetter == null)
+                    continue;
+                properties.add(new MergeProperty(sourceGetter, targetGetter, setter(mutator.getMember()),
+                        property.getPrimaryType()));
+            }
+            try {
+                makeAccessible(defaultConstructor);
+                MethodHandle constructor = LOOKUP.unreflectConstructor(defaultConstructor)
+                        .asType(MethodType.methodType(Object.class));
+                return new MergePlan(constructor, properties);
+            } catch (IllegalAccessException e) {
+                return UNSUPPORTED;
+            }
+        }
+
+        Object apply(Object source, Object target) {
+            Object result;
+            try {
+                result = (Object) this.constructor.invokeExact();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to instantiate the merge result", e);
+            }
+            for (MergeProperty property : this.properties) {
+                Object value = property.sourceGetter == null || source == null ? null : invokeGetter(property.sourceGetter, source);
+                if (value == null && property.targetGetter != null && target != null)
+                    value = invokeGetter(property.targetGetter, target);
+                if (value == null)
+                    continue;
+                if (!property.rawType.isInstance(value))
+                    value = ModelOptionsUtils.OBJECT_MAPPER.convertValue(value, property.type);
+                invokeSetter(property.setter, result, value);
+            }
+            return result;
+        }
+    }
+
+}
@@ -1,10 +1,9 @@
 package com.eastrobot.arch.llms.model;
 
+import com.eastrobot.arch.llms.converter.JsonSchemaCache;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.core.util.DefaultIndenter;
-import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -13,24 +12,16 @@ import com.github.victools.jsonschema.module.jackson.JacksonModule;
 import com.github.victools.jsonschema.module.jackson.JacksonOption;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
-import org.springframework.beans.BeanWrapper;
-import org.springframework.beans.BeanWrapperImpl;
-import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.ObjectUtils;
 
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
-import static com.github.victools.jsonschema.generator.OptionPreset.PLAIN_JSON;
-import static com.github.victools.jsonschema.generator.SchemaVersion.DRAFT_2020_12;
-
 /**
  * Utility class for manipulating {@link ModelOptions} objects.
  *
@@ -45,14 +36,14 @@ public abstract class ModelOptionsUtils extends BeanUtils {
             .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
             .registerModule(new JavaTimeModule());
 
-    private static final List<String> BEAN_MERGE_FIELD_EXCISIONS = new ArrayList<String>() {{
-        add("class");
-    }};
-
     private static final ConcurrentHashMap<Class<?>, List<String>> REQUEST_FIELD_NAMES_PER_CLASS = new ConcurrentHashMap<>();
 
     private static final AtomicReference<SchemaGenerator> SCHEMA_GENERATOR_CACHE = new AtomicReference<>();
 
+    private static final ConcurrentHashMap<Class<?>, String> JSON_SCHEMA_PER_CLASS = new ConcurrentHashMap<>();
+
+    private static final ConcurrentHashMap<Class<?>, String> UPPER_CASE_JSON_SCHEMA_PER_CLASS = new ConcurrentHashMap<>();
+
     /**
      * Converts the given JSON string to a Map of String and Object.
      *
@@ -127,10 +118,6 @@ public abstract class ModelOptionsUtils extends BeanUtils {
      */
     public static <T> T merge(Object source, Object target, Class<T> clazz, List<String> acceptedFieldNames) {
 
-        if (source == null) {
-            source = new HashMap<>();
-        }
-
         List<String> requestFieldNames = CollectionUtils.isEmpty(acceptedFieldNames)
                 ? REQUEST_FIELD_NAMES_PER_CLASS.computeIfAbsent(clazz, ModelOptionsUtils::getJsonPropertyValues)
                 : acceptedFieldNames;
@@ -139,6 +126,16 @@ public abstract class ModelOptionsUtils extends BeanUtils {
             throw new IllegalArgumentException("No @JsonProperty fields found in the " + clazz.getName());
         }
 
+        // field by field, without the json round trip
+        T merged = ModelOptionsMerger.merge(source, target, clazz, requestFieldNames);
+        if (merged != null) {
+            return merged;
+        }
+
+        if (source == null) {
+            source = new HashMap<>();
+        }
+
         Map<String, Object> sourceMap = ModelOptionsUtils.objectToMap(source);
         Map<String, Object> targetMap = ModelOptionsUtils.objectToMap(target);
 
@@ -286,45 +283,22 @@ public abstract class ModelOptionsUtils extends BeanUtils {
         Assert.notNull(source, "Source object must not be null");
         Assert.notNull(target, "Target object must not be null");
 
-        BeanWrapper sourceBeanWrap = new BeanWrapperImpl(source);
-        BeanWrapper targetBeanWrap = new BeanWrapperImpl(target);
-
-        List<String> interfaceNames = Arrays.stream(sourceInterfaceClazz.getMethods()).map(Method::getName).collect(Collectors.toList());
-
-        for (PropertyDescriptor descriptor : sourceBeanWrap.getPropertyDescriptors()) {
-
-            if (!BEAN_MERGE_FIELD_EXCISIONS.contains(descriptor.getName())
-                    && interfaceNames.contains(toGetName(descriptor.getName()))) {
-
-                String propertyName = descriptor.getName();
-                Object value = sourceBeanWrap.getPropertyValue(propertyName);
-
-                // Copy value to the target object
-                if (value != null) {
-                    Object targetValue = targetBeanWrap.getPropertyValue(propertyName);
-
-                    if (targetValue == null || overrideNonNullTargetValues) {
-                        targetBeanWrap.setPropertyValue(propertyName, value);
-                    }
-                }
-            }
-        }
-
-        return target;
-    }
-
-    private static String toGetName(String name) {
-        return "get" + name.substring(0, 1).toUpperCase() + name.substring(1);
+        return ModelOptionsMerger.mergeBeans(source, target, sourceInterfaceClazz, overrideNonNullTargetValues);
     }
 
     /**
-     * Generates JSON Schema (version 2020_12) for the given class.
+     * Generates JSON Schema (version 2020_12) for the given class, cached per class.
      *
      * @param clazz                 the class to generate JSON Schema for.
      * @param toUpperCaseTypeValues if true, the type values are converted to upper case.
      * @return the generated JSON Schema as a String.
      */
     public static String getJsonSchema(Class<?> clazz, boolean toUpperCaseTypeValues) {
+        return (toUpperCaseTypeValues ? UPPER_CASE_JSON_SCHEMA_PER_CLASS : JSON_SCHEMA_PER_CLASS)
+                .computeIfAbsent(clazz, key -> generateJsonSchema(key, toUpperCaseTypeValues));
+    }
+
+    private static String generateJsonSchema(Class<?> clazz, boolean toUpperCaseTypeValues) {
 
         if (SCHEMA_GENERATOR_CACHE.get() == null) {
             JacksonModule jacksonModule = new JacksonModule(JacksonOption.RESPECT_JSONPROPERTY_REQUIRED);
@@ -378,25 +352,15 @@ public abstract class ModelOptionsUtils extends BeanUtils {
         }
     }
 
+    /**
+     * Generates JSON Schema (version 2020_12) for the given class, cached per class by {@link JsonSchemaCache}.
+     *
+     * @param clazz                 the class to generate JSON Schema for.
+     * @param toUpperCaseTypeValues if true, the type values are converted to upper case.
+     * @return the pretty printed JSON Schema.
+     */
     public static String generateSchema(Class<?> clazz, boolean toUpperCaseTypeValues) {
-        ParameterizedTypeReference<Object> typeRef = ParameterizedTypeReference.forType(clazz);
-        JacksonModule jacksonModule = new JacksonModule();
-        SchemaGeneratorConfigBuilder configBuilder = new SchemaGeneratorConfigBuilder(DRAFT_2020_12, PLAIN_JSON)
-                .with(jacksonModule);
-        SchemaGeneratorConfig config = configBuilder.build();
-        SchemaGenerator generator = new SchemaGenerator(config);
-        ObjectNode jsonNode = generator.generateSchema(typeRef.getType());
-        if (toUpperCaseTypeValues) {
-            toUpperCaseTypeValues(jsonNode);
-        }
-        ObjectWriter objectWriter = new ObjectMapper().writer(new DefaultPrettyPrinter()
-                .withObjectIndenter(new DefaultIndenter().withLinefeed(System.lineSeparator())));
-        try {
-            return objectWriter.writeValueAsString(jsonNode);
-        } catch (JsonProcessingException e) {
-            log.error("Could not pretty print json schema for jsonNode: " + jsonNode);
-            throw new RuntimeException("Could not pretty print json schema for " + typeRef, e);
-        }
+        return JsonSchemaCache.get(clazz, toUpperCaseTypeValues).getPrettySchema();
     }
 
     /**
@@ -4,6 +4,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * <p>Exponential Backoff properties.</p>
@@ -15,10 +16,19 @@ import java.time.Duration;
 @Data
 @NoArgsConstructor
 public class Backoff {
+
+    public static final int JITTER_NONE = 0;
+    public static final int JITTER_FULL = 1;
+    public static final int JITTER_DECORRELATED = 2;
+
     /**
      * 0:固定时间、1:范围内随机间隔、2:指数退避策略
      */
     private int type;
+    /**
+     * 0:不抖动、1:full jitter, 在 [0, 间隔] 内随机、2:decorrelated jitter, 在 [基础间隔, 上次间隔*3] 内随机且不超过 maxInterval
+     */
+    private int jitter;
     private Duration fixedInterval = Duration.ofMillis(1000);
 
     private Duration minInterval;
@@ -66,5 +76,53 @@ public class Backoff {
         return new Backoff(initialInterval, multiplier, maxInterval);
     }
 
+    public Backoff withJitter(int jitter) {
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * 第 attempt 次重试(从 1 开始)前的等待时间, 叠加抖动
+     *
+     * @param previous 上一次的等待时间, decorrelated jitter 使用, 首次重试为空
+     */
+    public Duration interval(long attempt, Duration previous) {
+        Duration interval = interval(attempt);
+        if (this.jitter == JITTER_FULL)
+            return Duration.ofMillis(ThreadLocalRandom.current().nextLong(interval.toMillis() + 1));
+        if (this.jitter == JITTER_DECORRELATED) {
+            long base = baseInterval().toMillis();
+            long upper = Math.max(base, (previous != null ? previous.toMillis() : base) * 3);
+            long delay = base == upper ? base : ThreadLocalRandom.current().nextLong(base, upper + 1);
+            return Duration.ofMillis(this.maxInterval != null ? Math.min(delay, this.maxInterval.toMillis()) : delay);
+        }
+        return interval;
+    }
+
+    /**
+     * 第 attempt 次重试(从 1 开始)前的等待时间
+     */
+    public Duration interval(long attempt) {
+        if (this.type == 1) {
+            long min = this.minInterval.toMillis();
+            long max = Math.max(min, this.maxInterval.toMillis());
+            return Duration.ofMillis(min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1));
+        } else if (this.type == 2) {
+            long interval = this.initialInterval.toMillis();
+            long max = this.maxInterval.toMillis();
+            for (long i = 1; i < attempt && interval < max; i++)
+                interval *= Math.max(this.multiplier, 1);
+            return Duration.ofMillis(Math.min(interval, max));
+        }
+        return this.fixedInterval;
+    }
+
+    private Duration baseInterval() {
+        if (this.type == 1)
+            return this.minInterval;
+        if (this.type == 2)
+            return this.initialInterval;
+        return this.fixedInterval;
+    }
 
 }
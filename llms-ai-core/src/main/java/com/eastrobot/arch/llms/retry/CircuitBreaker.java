@@ -0,0 +1,331 @@
+package com.eastrobot.arch.llms.retry;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>模型熔断器: 最近 windowSize 次调用的失败率或慢调用率达到阈值时打开, 打开期间直接抛出 {@link CircuitOpenException};
+ * openDuration 后进入半开状态, 放行 permittedHalfOpenCalls 个探测请求, 全部完成后按同样的阈值决定关闭或再次打开。</p>
+ * 无锁实现: 状态与滑动窗口整体由 CAS 切换, 状态切换前获取的许可, 其结果在切换后被丢弃。
+ * 流式请求以首 token 耗时判断慢调用。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/30 10:00
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int RECORDED = 1;
+    private static final int FAILURE = 2;
+    private static final int SLOW = 4;
+
+    @Getter
+    private final String name;
+    /**
+     * 失败率阈值(百分比)
+     */
+    @Getter
+    private final float failureRateThreshold;
+    /**
+     * 慢调用率阈值(百分比), 大于 100 表示不按慢调用熔断
+     */
+    @Getter
+    private final float slowCallRateThreshold;
+    @Getter
+    private final Duration slowCallDuration;
+    @Getter
+    private final int windowSize;
+    /**
+     * 窗口内调用数达到该值后才计算失败率
+     */
+    @Getter
+    private final int minimumCalls;
+    @Getter
+    private final Duration openDuration;
+    @Getter
+    private final int permittedHalfOpenCalls;
+
+    private final AtomicReference<Phase> phase;
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreaker(String name) {
+        this(name, 50, 100, Duration.ofSeconds(30), 100, 20, Duration.ofSeconds(30), 5);
+    }
+
+    public CircuitBreaker(String name, float failureRateThreshold, float slowCallRateThreshold, Duration slowCallDuration,
+                          int windowSize, int minimumCalls, Duration openDuration, int permittedHalfOpenCalls) {
+        Assert.hasText(name, "The circuit breaker name must not be empty");
+        Assert.isTrue(failureRateThreshold > 0, "The failure rate threshold must be positive");
+        Assert.isTrue(slowCallRateThreshold > 0, "The slow call rate threshold must be positive");
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDuration = slowCallDuration != null ? slowCallDuration : Duration.ofSeconds(30);
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(this.windowSize, minimumCalls));
+        this.openDuration = openDuration != null ? openDuration : Duration.ofSeconds(30);
+        this.permittedHalfOpenCalls = Math.max(1, permittedHalfOpenCalls);
+        this.phase = new AtomicReference<>(closed());
+    }
+
+    /**
+     * 获取调用许可, 调用结束后必须调用 {@link Permit} 的 success/failure/cancel/ignore 之一
+     *
+     * @throws CircuitOpenException 熔断打开或半开探测名额已满
+     */
+    public Permit acquire() {
+        for (; ; ) {
+            Phase current = this.phase.get();
+            switch (current.state) {
+                case CLOSED:
+                    return new Permit(current);
+                case OPEN:
+                    long now = System.nanoTime();
+                    if (now - current.until < 0) {
+                        this.rejected.increment();
+                        throw new CircuitOpenException(this.name, State.OPEN, Duration.ofNanos(current.until - now));
+                    }
+                    transition(current, halfOpen());
+                    break;
+                default:
+                    if (current.tryTake())
+                        return new Permit(current);
+                    this.rejected.increment();
+                    throw new CircuitOpenException(this.name, State.HALF_OPEN, Duration.ZERO);
+            }
+        }
+    }
+
+    public State getState() {
+        return this.phase.get().state;
+    }
+
+    /**
+     * 当前窗口的失败率(百分比), 打开状态下为 0
+     */
+    public float getFailureRate() {
+        Window window = this.phase.get().window;
+        return window == null ? 0 : window.rate(window.failures.get());
+    }
+
+    public float getSlowCallRate() {
+        Window window = this.phase.get().window;
+        return window == null ? 0 : window.rate(window.slows.get());
+    }
+
+    public int getBufferedCalls() {
+        Window window = this.phase.get().window;
+        return window == null ? 0 : window.calls();
+    }
+
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    private void record(Phase current, int outcome) {
+        if (this.phase.get() != current)
+            return;
+        Window window = current.window;
+        window.record(outcome);
+        int calls = window.calls();
+        if (current.state == State.CLOSED) {
+            if (calls >= this.minimumCalls && exceeded(window))
+                transition(current, open());
+        } else if (calls >= this.permittedHalfOpenCalls)
+            transition(current, exceeded(window) ? open() : closed());
+    }
+
+    private boolean exceeded(Window window) {
+        return window.rate(window.failures.get()) >= this.failureRateThreshold
+                || window.rate(window.slows.get()) >= this.slowCallRateThreshold;
+    }
+
+    private void transition(Phase current, Phase next) {
+        if (this.phase.compareAndSet(current, next)) {
+            if (next.state != State.OPEN)
+                log.info("The circuit breaker [{}] {} -> {}", this.name, current.state, next.state);
+            else
+                log.warn("The circuit breaker [{}] {} -> {}, failureRate={}%, slowCallRate={}%", this.name, current.state,
+                        next.state, current.window.rate(current.window.failures.get()),
+                        current.window.rate(current.window.slows.get()));
+        }
+    }
+
+    private Phase closed() {
+        return new Phase(State.CLOSED, new Window(this.windowSize), 0, 0);
+    }
+
+    private Phase open() {
+        return new Phase(State.OPEN, null, System.nanoTime() + this.openDuration.toNanos(), 0);
+    }
+
+    private Phase halfOpen() {
+        return new Phase(State.HALF_OPEN, new Window(this.permittedHalfOpenCalls), 0, this.permittedHalfOpenCalls);
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" +
+                "name='" + name + '\'' +
+                ", state=" + getState() +
+                ", failureRate=" + getFailureRate() +
+                ", slowCallRate=" + getSlowCallRate() +
+                ", bufferedCalls=" + getBufferedCalls() +
+                ", rejected=" + getRejectedCount() +
+                '}';
+    }
+
+    /**
+     * 一次调用的许可, 结束操作只生效一次
+     */
+    public final class Permit {
+
+        private final Phase phase;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile long startNanos = System.nanoTime();
+        private volatile long firstTokenNanos = -1;
+
+        private Permit(Phase phase) {
+            this.phase = phase;
+        }
+
+        /**
+         * 请求实际发出, 排除限流与排队的等待时间
+         */
+        public void start() {
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * 流式请求收到首个数据块, 以 TTFT 判断慢调用
+         */
+        public void firstToken() {
+            if (this.firstTokenNanos < 0)
+                this.firstTokenNanos = System.nanoTime() - this.startNanos;
+        }
+
+        public void success() {
+            finish(0);
+        }
+
+        /**
+         * 模型故障(连接失败/超时/429/5xx 等)
+         */
+        public void failure() {
+            finish(FAILURE);
+        }
+
+        /**
+         * 取消: 已收到数据视为成功, 否则不计入
+         */
+        public void cancel() {
+            if (this.firstTokenNanos >= 0)
+                success();
+            else
+                ignore();
+        }
+
+        /**
+         * 不计入窗口, 如客户端限流拒绝或调用方取消, 半开状态下归还探测名额
+         */
+        public void ignore() {
+            if (this.finished.compareAndSet(false, true) && this.phase.state == State.HALF_OPEN)
+                this.phase.permits.incrementAndGet();
+        }
+
+        private void finish(int outcome) {
+            if (!this.finished.compareAndSet(false, true))
+                return;
+            long elapsed = this.firstTokenNanos >= 0 ? this.firstTokenNanos : System.nanoTime() - this.startNanos;
+            if (elapsed >= slowCallDuration.toNanos())
+                outcome |= SLOW;
+            record(this.phase, outcome);
+        }
+    }
+
+    /**
+     * 状态与其窗口, 切换状态即替换整个对象
+     */
+    private static final class Phase {
+
+        private final State state;
+        private final Window window;
+        /**
+         * 打开状态到期时间
+         */
+        private final long until;
+        /**
+         * 半开状态剩余的探测名额
+         */
+        private final AtomicInteger permits;
+
+        private Phase(State state, Window window, long until, int permits) {
+            this.state = state;
+            this.window = window;
+            this.until = until;
+            this.permits = new AtomicInteger(permits);
+        }
+
+        private boolean tryTake() {
+            for (; ; ) {
+                int available = this.permits.get();
+                if (available <= 0)
+                    return false;
+                if (this.permits.compareAndSet(available, available - 1))
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * 按调用次数计数的环形窗口, 新结果覆盖最旧的结果并增量维护失败数与慢调用数
+     */
+    private static final class Window {
+
+        private final int size;
+        private final AtomicIntegerArray outcomes;
+        private final AtomicLong index = new AtomicLong();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger slows = new AtomicInteger();
+
+        private Window(int size) {
+            this.size = size;
+            this.outcomes = new AtomicIntegerArray(size);
+        }
+
+        private void record(int outcome) {
+            int slot = (int) (this.index.getAndIncrement() % this.size);
+            int previous = this.outcomes.getAndSet(slot, outcome | RECORDED);
+            this.failures.addAndGet(bit(outcome, FAILURE) - bit(previous, FAILURE));
+            this.slows.addAndGet(bit(outcome, SLOW) - bit(previous, SLOW));
+        }
+
+        private int calls() {
+            return (int) Math.min(this.index.get(), this.size);
+        }
+
+        private float rate(int count) {
+            int calls = calls();
+            return calls == 0 ? 0 : count * 100f / calls;
+        }
+
+        private static int bit(int outcome, int flag) {
+            return (outcome & flag) != 0 ? 1 : 0;
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.eastrobot.arch.llms.retry;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * <p>熔断快速失败: 模型熔断器处于打开状态或半开探测名额已满, 请求未发出</p>
+ * 属于 {@link TransientAiException}, recoveryCallback 可兜底; 重试不会等到熔断恢复, 因此不对其重试。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/30 10:00
+ */
+public class CircuitOpenException extends TransientAiException {
+
+    @Getter
+    private final CircuitBreaker.State state;
+    /**
+     * 距离进入半开状态的剩余时间
+     */
+    @Getter
+    private final Duration remaining;
+
+    public CircuitOpenException(String name, CircuitBreaker.State state, Duration remaining) {
+        super("The circuit breaker [" + name + "] is " + state + ", fail fast, retry after " + remaining.toMillis() + "ms");
+        this.state = state;
+        this.remaining = remaining;
+    }
+}
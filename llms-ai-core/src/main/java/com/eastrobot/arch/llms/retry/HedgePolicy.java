@@ -0,0 +1,149 @@
+package com.eastrobot.arch.llms.retry;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>对冲请求: 首个请求在最近耗时的 percentile 分位内未返回(流式为未收到首个数据块)时, 向另一节点发出相同请求, 先返回者胜出。</p>
+ * 对冲次数由 {@link RetryBudget} 限制为请求数的 maxRatio 倍, 不会使负载翻倍; 样本不足 minSamples 时不对冲。
+ * 非流式与流式分别统计耗时(RTT 与 TTFT)。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/29 10:00
+ */
+public class HedgePolicy {
+
+    @Getter
+    private final double percentile;
+    /**
+     * 对冲延迟下限, 避免快速请求也被对冲
+     */
+    @Getter
+    private final Duration minDelay;
+    @Getter
+    private final int minSamples;
+
+    private final RetryBudget budget;
+    private final LatencyWindow callLatency = new LatencyWindow();
+    private final LatencyWindow streamLatency = new LatencyWindow();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder won = new LongAdder();
+
+    public HedgePolicy() {
+        this(0.95, Duration.ofMillis(100), 0.1, 10);
+    }
+
+    /**
+     * @param maxRatio 对冲请求占请求总数的比例上限
+     * @param maxBurst 允许的突发对冲数
+     */
+    public HedgePolicy(double percentile, Duration minDelay, double maxRatio, int maxBurst) {
+        this.percentile = Math.max(0.5, Math.min(0.999, percentile));
+        this.minDelay = minDelay != null ? minDelay : Duration.ZERO;
+        this.minSamples = 20;
+        this.budget = new RetryBudget(maxRatio, Math.max(1, maxBurst));
+    }
+
+    /**
+     * 每次首个请求调用, 返回对冲延迟; 为空表示本次不对冲
+     */
+    public Duration delay(boolean stream) {
+        this.budget.onRequest();
+        long nanos = (stream ? this.streamLatency : this.callLatency).percentile(this.percentile, this.minSamples);
+        if (nanos < 0)
+            return null;
+        return Duration.ofNanos(Math.max(nanos, this.minDelay.toNanos()));
+    }
+
+    /**
+     * 到达对冲延迟时调用, 预算不足时放弃对冲
+     */
+    public boolean tryHedge() {
+        if (!this.budget.tryRetry())
+            return false;
+        this.fired.increment();
+        return true;
+    }
+
+    public void onWon() {
+        this.won.increment();
+    }
+
+    /**
+     * 记录首个请求的耗时, 对冲请求不计入
+     */
+    public void record(boolean stream, long nanos) {
+        (stream ? this.streamLatency : this.callLatency).record(nanos);
+    }
+
+    public long getRequestCount() {
+        return this.budget.getRequestCount();
+    }
+
+    public long getFiredCount() {
+        return this.fired.sum();
+    }
+
+    public long getWonCount() {
+        return this.won.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgePolicy{" +
+                "percentile=" + percentile +
+                ", requests=" + getRequestCount() +
+                ", fired=" + getFiredCount() +
+                ", won=" + getWonCount() +
+                ", call=" + callLatency +
+                ", stream=" + streamLatency +
+                '}';
+    }
+
+    /**
+     * 最近 {@value #SIZE} 个耗时样本, 每 {@value #REFRESH} 个样本重新计算一次分位值
+     */
+    private static final class LatencyWindow {
+
+        private static final int SIZE = 512;
+        private static final int REFRESH = 32;
+
+        private final long[] samples = new long[SIZE];
+        private int count;
+        private int index;
+        private double cachedPercentile;
+        private long cached = -1;
+
+        private synchronized void record(long nanos) {
+            this.samples[this.index] = nanos;
+            this.index = (this.index + 1) % SIZE;
+            if (this.count < SIZE)
+                this.count++;
+            if (this.index % REFRESH == 0)
+                this.cached = -1;
+        }
+
+        private synchronized long percentile(double percentile, int minSamples) {
+            if (this.count < minSamples)
+                return -1;
+            if (this.cached < 0 || this.cachedPercentile != percentile) {
+                long[] sorted = Arrays.copyOf(this.samples, this.count);
+                Arrays.sort(sorted);
+                this.cached = sorted[Math.min(this.count - 1, (int) Math.ceil(percentile * this.count) - 1)];
+                this.cachedPercentile = percentile;
+            }
+            return this.cached;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return this.cached < 0 ? "-" : TimeUnit.NANOSECONDS.toMillis(this.cached) + "ms";
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.eastrobot.arch.llms.retry;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>重试预算(令牌桶): 每次首次请求存入 ratio 个令牌, 每次重试取出 1 个, 桶容量为 maxTokens。</p>
+ * 稳态下重试次数不超过首次请求数的 ratio 倍, 服务降级时不会因每个请求都重试而放大负载; 令牌不足时跳过重试, 直接走兜底。
+ * 计数均为无锁实现, 令牌以千分之一为单位存储。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/23 11:00
+ */
+public class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    /**
+     * 每次首次请求存入的令牌数, 即重试占首次请求的比例上限
+     */
+    @Getter
+    private final double ratio;
+    /**
+     * 桶容量, 允许的突发重试数; <=0 表示不限制
+     */
+    @Getter
+    private final int maxTokens;
+
+    private final AtomicLong tokens;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    public RetryBudget() {
+        this(0.2, 10);
+    }
+
+    public RetryBudget(double ratio, int maxTokens) {
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        // 初始为满桶, 低流量时也能正常重试
+        this.tokens = new AtomicLong(Math.max(maxTokens, 0) * SCALE);
+    }
+
+    /**
+     * 不限制重试, 只计数
+     */
+    public static RetryBudget unlimited() {
+        return new RetryBudget(0, 0);
+    }
+
+    /**
+     * 首次请求时调用, 存入令牌
+     */
+    public void onRequest() {
+        this.requests.increment();
+        if (this.maxTokens <= 0)
+            return;
+        long deposit = (long) (this.ratio * SCALE);
+        long max = this.maxTokens * SCALE;
+        long current;
+        do {
+            current = this.tokens.get();
+            if (current >= max)
+                return;
+        } while (!this.tokens.compareAndSet(current, Math.min(max, current + deposit)));
+    }
+
+    /**
+     * 重试前调用, 取出一个令牌
+     *
+     * @return false: 预算耗尽, 本次不再重试
+     */
+    public boolean tryRetry() {
+        if (this.maxTokens > 0) {
+            long current;
+            do {
+                current = this.tokens.get();
+                if (current < SCALE) {
+                    this.exhausted.increment();
+                    return false;
+                }
+            } while (!this.tokens.compareAndSet(current, current - SCALE));
+        }
+        this.retries.increment();
+        return true;
+    }
+
+    public double getAvailableTokens() {
+        return this.maxTokens <= 0 ? Double.POSITIVE_INFINITY : (double) this.tokens.get() / SCALE;
+    }
+
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    public long getRetryCount() {
+        return this.retries.sum();
+    }
+
+    public long getExhaustedCount() {
+        return this.exhausted.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget{" +
+                "ratio=" + ratio +
+                ", maxTokens=" + maxTokens +
+                ", availableTokens=" + getAvailableTokens() +
+                ", requests=" + getRequestCount() +
+                ", retries=" + getRetryCount() +
+                ", exhausted=" + getExhaustedCount() +
+                '}';
+    }
+}
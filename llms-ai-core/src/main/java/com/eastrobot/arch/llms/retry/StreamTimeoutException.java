@@ -0,0 +1,38 @@
+package com.eastrobot.arch.llms.retry;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * <p>流式请求超时: 首个数据块未在限定时间内到达, 或两个数据块之间的间隔超过限定时间; 上游连接已被取消</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/9 10:00
+ */
+public class StreamTimeoutException extends TransientAiException {
+
+    public enum Kind {
+        /**
+         * 首 token 超时
+         */
+        FIRST_TOKEN,
+        /**
+         * 数据块间隔超时
+         */
+        IDLE
+    }
+
+    @Getter
+    private final Kind kind;
+    @Getter
+    private final Duration timeout;
+
+    public StreamTimeoutException(Kind kind, Duration timeout) {
+        super((kind == Kind.FIRST_TOKEN ? "No first chunk received within " : "No chunk received for ")
+                + timeout.toMillis() + "ms, the stream is cancelled");
+        this.kind = kind;
+        this.timeout = timeout;
+    }
+}
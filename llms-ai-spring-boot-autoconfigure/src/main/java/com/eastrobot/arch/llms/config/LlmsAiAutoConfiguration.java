@@ -1,11 +1,15 @@
 package com.eastrobot.arch.llms.config;
 
+import com.eastrobot.arch.llms.common.ApiUtils;
 import com.eastrobot.arch.llms.config.chat.OpenAiChatProperties;
 import com.eastrobot.arch.llms.config.rest.LlmsRestProperties;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.ComponentScan;
 
+import java.time.Duration;
+
 /**
  * <p></p>
  *
@@ -18,5 +22,16 @@ import org.springframework.context.annotation.ComponentScan;
 @EnableConfigurationProperties({
         OpenAiChatProperties.class, LlmsRestProperties.class
 })
-public class LlmsAiAutoConfiguration {
+public class LlmsAiAutoConfiguration implements DisposableBean {
+
+    private static final Duration DISPOSE_TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * 应用关闭时释放按 host 共享的连接池与事件循环
+     */
+    @Override
+    public void destroy() {
+        ApiUtils.dispose(DISPOSE_TIMEOUT);
+    }
+
 }
@@ -21,12 +21,15 @@ public class ChatModelFactoryBean implements FactoryBean<ChatModel> {
     private String modelName;
     private LlmsAiApi llmsAiApi;
     private OpenAiChatOptions chatOptions;
+    private boolean jsonSchema;
 
     @Override
     public OpenAiChatModel getObject() throws Exception {
         if (log.isDebugEnabled())
             log.debug("FactoryBean obtain ChatModel .....{}", modelName);
-        return new OpenAiChatModel(llmsAiApi, chatOptions);
+        OpenAiChatModel chatModel = new OpenAiChatModel(llmsAiApi, chatOptions);
+        chatModel.setJsonSchemaSupported(jsonSchema);
+        return chatModel;
     }
 
     @Override
@@ -1,12 +1,26 @@
 package com.eastrobot.arch.llms.config.chat;
 
+import com.eastrobot.arch.llms.balancer.ConsistentHashSelector;
+import com.eastrobot.arch.llms.balancer.Endpoint;
+import com.eastrobot.arch.llms.balancer.EndpointSelector;
+import com.eastrobot.arch.llms.balancer.LoadBalanceStrategy;
+import com.eastrobot.arch.llms.balancer.LoadBalancer;
 import com.eastrobot.arch.llms.chat.ChatModelProvider;
 import com.eastrobot.arch.llms.chat.ChatProperties;
 import com.eastrobot.arch.llms.chat.api.LlmsAiApi;
 import com.eastrobot.arch.llms.chat.openai.OpenAiChatModel;
 import com.eastrobot.arch.llms.chat.openai.OpenAiChatOptions;
+import com.eastrobot.arch.llms.common.ApiUtils;
+import com.eastrobot.arch.llms.common.MetricsUtil;
+import com.eastrobot.arch.llms.common.RetryUtil;
 import com.eastrobot.arch.llms.config.rest.LlmsRestProperties;
+import com.eastrobot.arch.llms.converter.JsonSchemaCache;
+import com.eastrobot.arch.llms.limiter.ConcurrencyLimiter;
+import com.eastrobot.arch.llms.limiter.RateLimiter;
 import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import com.eastrobot.arch.llms.retry.CircuitBreaker;
+import com.eastrobot.arch.llms.retry.HedgePolicy;
+import com.eastrobot.arch.llms.retry.RetryBudget;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -21,10 +35,18 @@ import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
+import org.springframework.web.reactive.function.client.WebClient;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>工厂Bean生成代理类</p>
@@ -54,9 +76,34 @@ public class ChatModelFactoryProxy implements EnvironmentAware, BeanDefinitionRe
                             throw new IllegalArgumentException("The model name must not be empty !");
                         modelName = StringUtils.isNotBlank(optionModelName) ? optionModelName : modelName;
                         options.setModel(modelName);
-                        LlmsAiApi llmsAiApi = new LlmsAiApi(modelName, model.getBaseUrl(), model.getUri(),
-                                model.getApiKey(), restProperties == null ? null : this::getTimeout,
+                        String baseUrl = StringUtils.isBlank(model.getBaseUrl()) && !CollectionUtils.isEmpty(model.getEndpoints())
+                                ? model.getEndpoints().get(0).getBaseUrl() : model.getBaseUrl();
+                        LlmsAiApi llmsAiApi = new LlmsAiApi(modelName, baseUrl, model.getUri(),
+                                model.getApiKey(), restProperties == null ? null : this::getRestProperty,
                                 headers -> headers.addAll(CollectionUtils.toMultiValueMap(model.getHeaders())));
+                        if (!CollectionUtils.isEmpty(model.getEndpoints()))
+                            llmsAiApi.setLoadBalancer(loadBalancer(model));
+                        if (model.getHedge() != null && model.getHedge().isEnabled()) {
+                            if (model.getEndpoints() != null && model.getEndpoints().size() > 1)
+                                llmsAiApi.setHedgePolicy(hedgePolicy(modelName, model.getHedge()));
+                            else
+                                log.warn("The hedge of chat model :【{}】 requires at least 2 endpoints, it is disabled!", model.getName());
+                        }
+                        if (model.getStreamTimeout() != null) {
+                            llmsAiApi.setFirstTokenTimeout(millis(model.getStreamTimeout().getFirstToken()));
+                            llmsAiApi.setIdleTimeout(millis(model.getStreamTimeout().getIdle()));
+                        }
+                        if (model.getCircuitBreaker() != null && model.getCircuitBreaker().isEnabled())
+                            llmsAiApi.setCircuitBreaker(circuitBreaker(modelName, model.getCircuitBreaker()));
+                        if (model.getRateLimit() != null && model.getRateLimit().isEnabled()) {
+                            // 各节点可能使用不同的 apiKey, 额度分别计算
+                            if (llmsAiApi.getLoadBalancer() != null)
+                                llmsAiApi.setEndpointRateLimiters(endpointRateLimiters(modelName, llmsAiApi.getLoadBalancer(), model.getRateLimit()));
+                            else
+                                llmsAiApi.setRateLimiter(rateLimiter(modelName, null, model.getRateLimit()));
+                        }
+                        if (model.getConcurrencyLimit() != null && model.getConcurrencyLimit().isEnabled())
+                            llmsAiApi.setConcurrencyLimiter(concurrencyLimiter(modelName, model.getConcurrencyLimit()));
                         //  follow the OpenAI api standard
                         if (model.isStandard()) {
                             BeanDefinitionBuilder builder = BeanDefinitionBuilder.genericBeanDefinition(OpenAiChatModel.class);
@@ -64,6 +111,7 @@ public class ChatModelFactoryProxy implements EnvironmentAware, BeanDefinitionRe
                             definition.getPropertyValues().add("modelName", modelName);
                             definition.getPropertyValues().add("llmsAiApi", llmsAiApi);
                             definition.getPropertyValues().add("chatOptions", options);
+                            definition.getPropertyValues().add("jsonSchema", model.isJsonSchema());
                             definition.setBeanClass(ChatModelFactoryBean.class);
                             definition.setAutowireMode(GenericBeanDefinition.AUTOWIRE_BY_TYPE);
 
@@ -73,6 +121,8 @@ public class ChatModelFactoryProxy implements EnvironmentAware, BeanDefinitionRe
                         // customizer
                         ChatModelProvider.putApi(modelName, llmsAiApi);
                         ChatModelProvider.putOptions(modelName, options);
+                        if (restProperties != null)
+                            RetryUtil.putRetryBudget(modelName, retryBudget(restProperties.getRetryBudget()));
 
                         ChatProperties copyProps = ModelOptionsUtils.jsonToObject(ModelOptionsUtils.toJsonString(model), ChatProperties.class);
                         ChatModelProvider.putProps(modelName, copyProps);
@@ -86,7 +136,28 @@ public class ChatModelFactoryProxy implements EnvironmentAware, BeanDefinitionRe
 
     @Override
     public void postProcessBeanFactory(@NonNull ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        if (this.chatProperties != null && this.chatProperties.getStructuredOutput() != null)
+            warmUpSchemas(this.chatProperties.getStructuredOutput().getWarmUpTypes(), beanFactory.getBeanClassLoader());
+    }
 
+    /**
+     * 预热结构化输出的 JSON Schema 缓存, 类不存在时只记录日志
+     */
+    private static void warmUpSchemas(List<String> typeNames, ClassLoader classLoader) {
+        if (CollectionUtils.isEmpty(typeNames))
+            return;
+        List<Class<?>> types = new ArrayList<>();
+        for (String typeName : typeNames) {
+            try {
+                types.add(ClassUtils.forName(typeName.trim(), classLoader));
+            } catch (ClassNotFoundException | LinkageError e) {
+                log.warn("The structured output type [{}] is not found, skip warming up: {}", typeName, e.toString());
+            }
+        }
+        long start = System.nanoTime();
+        JsonSchemaCache.warmUp(types);
+        log.info("Warmed up the json schema of {} types in {}ms", types.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
     }
 
     @Override
@@ -110,7 +181,91 @@ public class ChatModelFactoryProxy implements EnvironmentAware, BeanDefinitionRe
         }
     }
 
-    private Integer getTimeout(String param) {
+    private static RetryBudget retryBudget(LlmsRestProperties.RetryBudget properties) {
+        return properties.isEnabled() ? new RetryBudget(properties.getRatio(), properties.getMaxTokens())
+                : RetryBudget.unlimited();
+    }
+
+    private LoadBalancer<WebClient> loadBalancer(OpenAiChatProperties.ChatProperties model) {
+        List<Endpoint<WebClient>> endpoints = model.getEndpoints().stream()
+                .map(endpoint -> new Endpoint<>(endpoint.getBaseUrl(), endpoint.getWeight(), ApiUtils.builder(endpoint.getBaseUrl(),
+                        StringUtils.isNotBlank(endpoint.getApiKey()) ? endpoint.getApiKey() : model.getApiKey(),
+                        restProperties == null ? null : this::getRestProperty,
+                        headers -> headers.addAll(CollectionUtils.toMultiValueMap(model.getHeaders())))))
+                .collect(Collectors.toList());
+        OpenAiChatProperties.LoadBalance properties = model.getLoadBalance();
+        EndpointSelector selector = properties.getStrategy() == LoadBalanceStrategy.CONSISTENT_HASH
+                ? new ConsistentHashSelector(endpoints, properties.getLoadFactor()) : properties.getStrategy().selector();
+        return new LoadBalancer<>(endpoints, selector, properties.getFailureThreshold(),
+                Duration.ofMillis(properties.getEjectTime()));
+    }
+
+    private static HedgePolicy hedgePolicy(String modelName, OpenAiChatProperties.Hedge properties) {
+        HedgePolicy hedgePolicy = new HedgePolicy(properties.getPercentile(), Duration.ofMillis(properties.getMinDelay()),
+                properties.getMaxRatio(), properties.getMaxBurst());
+        MetricsUtil.counter("llms.hedge.requests", modelName, hedgePolicy, HedgePolicy::getRequestCount);
+        MetricsUtil.counter("llms.hedge.fired", modelName, hedgePolicy, HedgePolicy::getFiredCount);
+        MetricsUtil.counter("llms.hedge.won", modelName, hedgePolicy, HedgePolicy::getWonCount);
+        return hedgePolicy;
+    }
+
+    private static CircuitBreaker circuitBreaker(String modelName, OpenAiChatProperties.CircuitBreaker properties) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(modelName, properties.getFailureRateThreshold(),
+                properties.getSlowCallRateThreshold(), Duration.ofMillis(properties.getSlowCallDuration()),
+                properties.getWindowSize(), properties.getMinimumCalls(), Duration.ofMillis(properties.getOpenDuration()),
+                properties.getPermittedHalfOpenCalls());
+        MetricsUtil.gauge("llms.circuit.state", modelName, circuitBreaker, breaker -> breaker.getState().ordinal());
+        MetricsUtil.gauge("llms.circuit.failure.rate", modelName, circuitBreaker, CircuitBreaker::getFailureRate);
+        MetricsUtil.gauge("llms.circuit.slow.rate", modelName, circuitBreaker, CircuitBreaker::getSlowCallRate);
+        MetricsUtil.counter("llms.circuit.rejected", modelName, circuitBreaker, CircuitBreaker::getRejectedCount);
+        return circuitBreaker;
+    }
+
+    private static Map<String, RateLimiter> endpointRateLimiters(String modelName, LoadBalancer<WebClient> loadBalancer,
+                                                                 OpenAiChatProperties.RateLimit properties) {
+        Map<String, RateLimiter> limiters = new HashMap<>();
+        for (Endpoint<WebClient> endpoint : loadBalancer.getEndpoints())
+            limiters.put(endpoint.getId(), rateLimiter(modelName, endpoint.getId(), properties));
+        return limiters;
+    }
+
+    /**
+     * @param endpoint 节点 id, 不按节点限流时为空
+     */
+    private static RateLimiter rateLimiter(String modelName, String endpoint, OpenAiChatProperties.RateLimit properties) {
+        RateLimiter rateLimiter = new RateLimiter(properties.getRequestsPerMinute(), properties.getTokensPerMinute(),
+                Duration.ofMillis(properties.getMaxWait()));
+        if (endpoint == null) {
+            MetricsUtil.gauge("llms.ratelimit.requests.available", modelName, rateLimiter, RateLimiter::getAvailableRequests);
+            MetricsUtil.gauge("llms.ratelimit.tokens.available", modelName, rateLimiter, RateLimiter::getAvailableTokens);
+            MetricsUtil.counter("llms.ratelimit.delayed", modelName, rateLimiter, RateLimiter::getDelayedCount);
+            MetricsUtil.counter("llms.ratelimit.rejected", modelName, rateLimiter, RateLimiter::getRejectedCount);
+        } else {
+            MetricsUtil.gauge("llms.ratelimit.requests.available", modelName, endpoint, rateLimiter, RateLimiter::getAvailableRequests);
+            MetricsUtil.gauge("llms.ratelimit.tokens.available", modelName, endpoint, rateLimiter, RateLimiter::getAvailableTokens);
+            MetricsUtil.counter("llms.ratelimit.delayed", modelName, endpoint, rateLimiter, RateLimiter::getDelayedCount);
+            MetricsUtil.counter("llms.ratelimit.rejected", modelName, endpoint, rateLimiter, RateLimiter::getRejectedCount);
+        }
+        return rateLimiter;
+    }
+
+    private static ConcurrencyLimiter concurrencyLimiter(String modelName, OpenAiChatProperties.ConcurrencyLimit properties) {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(properties.getInitialLimit(), properties.getMinLimit(),
+                properties.getMaxLimit(), properties.getMaxQueue(), Duration.ofMillis(properties.getMaxWait()),
+                properties.getBackoffRatio());
+        MetricsUtil.gauge("llms.concurrency.limit", modelName, limiter, ConcurrencyLimiter::getLimit);
+        MetricsUtil.gauge("llms.concurrency.inflight", modelName, limiter, ConcurrencyLimiter::getInFlight);
+        MetricsUtil.gauge("llms.concurrency.queue", modelName, limiter, ConcurrencyLimiter::getQueueSize);
+        MetricsUtil.counter("llms.concurrency.rejected", modelName, limiter, ConcurrencyLimiter::getRejectedCount);
+        return limiter;
+    }
+
+    private static Duration millis(Integer millis) {
+        return millis != null && millis > 0 ? Duration.ofMillis(millis) : null;
+    }
+
+    private Integer getRestProperty(String param) {
+        LlmsRestProperties.Pool pool = restProperties.getPool();
         switch (param) {
             case "connectTimeout":
                 return restProperties.getConnectTimeout();
@@ -118,6 +273,22 @@ public class ChatModelFactoryProxy implements EnvironmentAware, BeanDefinitionRe
                 return restProperties.getReadTimeout();
             case "writeTimeout":
                 return restProperties.getWriteTimeout();
+            case "pool.maxConnections":
+                return pool.getMaxConnections();
+            case "pool.pendingAcquireMaxCount":
+                return pool.getPendingAcquireMaxCount();
+            case "pool.pendingAcquireTimeout":
+                return pool.getPendingAcquireTimeout();
+            case "pool.maxIdleTime":
+                return pool.getMaxIdleTime();
+            case "pool.maxLifeTime":
+                return pool.getMaxLifeTime();
+            case "pool.lifo":
+                return pool.isLifo() ? 1 : 0;
+            case "pool.loopThreads":
+                return pool.getLoopThreads();
+            case "pool.metrics":
+                return pool.isMetrics() ? 1 : 0;
             default:
                 return 30000;
         }
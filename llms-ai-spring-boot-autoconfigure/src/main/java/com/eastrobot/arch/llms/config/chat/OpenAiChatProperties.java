@@ -1,5 +1,6 @@
 package com.eastrobot.arch.llms.config.chat;
 
+import com.eastrobot.arch.llms.balancer.LoadBalanceStrategy;
 import com.eastrobot.arch.llms.chat.openai.OpenAiChatOptions;
 import com.eastrobot.arch.llms.config.LlmsAiParentProperties;
 import lombok.Data;
@@ -8,6 +9,7 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.NestedConfigurationProperty;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +31,10 @@ public class OpenAiChatProperties {
      * 模型列表
      */
     private List<ChatProperties> models;
+    /**
+     * 结构化输出
+     */
+    private StructuredOutput structuredOutput = new StructuredOutput();
     private static final Double DEFAULT_TEMPERATURE = 0.3;
 
     @Getter
@@ -46,6 +52,31 @@ public class OpenAiChatProperties {
          * custom header
          */
         private Map<String, List<String>> headers = new HashMap<>();
+        /**
+         * 同一模型的多个部署节点, 配置后按负载均衡策略选择, baseUrl 为空时取第一个节点
+         */
+        private List<Endpoint> endpoints = new ArrayList<>();
+        /**
+         * 多节点负载均衡
+         */
+        private LoadBalance loadBalance = new LoadBalance();
+        /**
+         * 降级模型名称, 本模型报错时按顺序尝试, 通过 ChatModelProvider 获取的模型/客户端生效
+         */
+        private List<String> fallback = new ArrayList<>();
+        /**
+         * 合并并发的相同请求, 通过 ChatModelProvider 获取的模型/客户端生效
+         */
+        private SingleFlight singleFlight = new SingleFlight();
+        /**
+         * 精确匹配的响应缓存, 通过 ChatModelProvider 获取的客户端生效
+         */
+        private ResponseCache responseCache = new ResponseCache();
+        /**
+         * 模型支持 response_format 为 json_schema 时开启, ChatClient 的 entity/responseEntity 通过 response_format
+         * 传递 schema, 不再在用户消息中追加 schema 说明
+         */
+        private boolean jsonSchema = false;
         /**
          * model option args
          */
@@ -54,7 +85,214 @@ public class OpenAiChatProperties {
 //                .withModel(DEFAULT_CHAT_MODEL)
                 .withTemperature(DEFAULT_TEMPERATURE.floatValue())
                 .build();
+        /**
+         * 客户端限流
+         */
+        private RateLimit rateLimit = new RateLimit();
+        /**
+         * 自适应并发限制
+         */
+        private ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit();
+        /**
+         * 对冲请求
+         */
+        private Hedge hedge = new Hedge();
+        /**
+         * 熔断
+         */
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+        /**
+         * 流式请求超时, 可被请求的 OpenAiChatOptions 覆盖
+         */
+        private StreamTimeout streamTimeout = new StreamTimeout();
+    }
+
+    @Data
+    public static class Endpoint {
+        private String baseUrl;
+        /**
+         * 为空时使用模型的 apiKey
+         */
+        private String apiKey;
+        private int weight = 1;
+    }
+
+    @Data
+    public static class LoadBalance {
+        /**
+         * 节点选择策略
+         */
+        private LoadBalanceStrategy strategy = LoadBalanceStrategy.ROUND_ROBIN;
+        /**
+         * 连续失败多少次后摘除节点
+         */
+        private int failureThreshold = 5;
+        /**
+         * 摘除时间(毫秒), 到期后放行一个探测请求
+         */
+        private Integer ejectTime = 30000;
+        /**
+         * 一致性哈希的有界负载系数, 节点在途数超过平均值的该倍数时顺延到下一个节点
+         */
+        private double loadFactor = 1.25;
     }
 
+    @Data
+    public static class Hedge {
+        /**
+         * 是否启用, 首个请求超过耗时分位值未返回时向另一节点发出相同请求; 需配置至少 2 个 endpoints
+         */
+        private boolean enabled = false;
+        /**
+         * 触发对冲的耗时分位, 非流式为整体耗时, 流式为首 token 耗时
+         */
+        private double percentile = 0.95;
+        /**
+         * 对冲延迟下限(毫秒)
+         */
+        private Integer minDelay = 100;
+        /**
+         * 对冲请求占请求总数的比例上限
+         */
+        private double maxRatio = 0.1;
+        /**
+         * 允许的突发对冲数
+         */
+        private int maxBurst = 10;
+    }
+
+    @Data
+    public static class CircuitBreaker {
+        /**
+         * 是否启用, 失败率或慢调用率达到阈值时快速失败
+         */
+        private boolean enabled = false;
+        /**
+         * 失败率阈值(百分比), 429/5xx/连接失败/超时计为失败
+         */
+        private float failureRateThreshold = 50;
+        /**
+         * 慢调用率阈值(百分比), 大于 100 表示不按慢调用熔断
+         */
+        private float slowCallRateThreshold = 100;
+        /**
+         * 慢调用耗时(毫秒), 流式为首 token 耗时
+         */
+        private Integer slowCallDuration = 30000;
+        /**
+         * 滑动窗口大小(调用次数)
+         */
+        private int windowSize = 100;
+        /**
+         * 窗口内至少多少次调用后才计算失败率
+         */
+        private int minimumCalls = 20;
+        /**
+         * 打开时间(毫秒), 到期后进入半开状态
+         */
+        private Integer openDuration = 30000;
+        /**
+         * 半开状态放行的探测请求数
+         */
+        private int permittedHalfOpenCalls = 5;
+    }
+
+    @Data
+    public static class SingleFlight {
+        /**
+         * 是否启用
+         */
+        private boolean enabled = false;
+        /**
+         * 是否合并 temperature 不为 0 的请求, 合并后这些请求得到相同的回答
+         */
+        private boolean allowNonZeroTemperature = false;
+    }
+
+    @Data
+    public static class ResponseCache {
+        /**
+         * 是否启用, 相同的 Prompt 与选项直接返回缓存的响应
+         */
+        private boolean enabled = false;
+        /**
+         * 按内容估算的最大字节数
+         */
+        private long maximumBytes = 64 * 1024 * 1024;
+        /**
+         * 过期时间(毫秒)
+         */
+        private Integer ttl = 600000;
+        /**
+         * 是否缓存 temperature 不为 0 的请求
+         */
+        private boolean allowNonZeroTemperature = false;
+    }
+
+    @Data
+    public static class StreamTimeout {
+        /**
+         * 首个数据块超时(毫秒), 0 表示只受 readTimeout 限制
+         */
+        private Integer firstToken = 0;
+        /**
+         * 两个数据块之间的最大间隔(毫秒), 0 表示只受 readTimeout 限制
+         */
+        private Integer idle = 0;
+    }
+
+    @Data
+    public static class RateLimit {
+        /**
+         * 是否启用, 启用后额度由服务端 x-ratelimit-* 响应头同步; 配置了 endpoints 时每个节点单独计算额度
+         */
+        private boolean enabled = false;
+        /**
+         * 初始每分钟请求数, <=0 表示以响应头为准
+         */
+        private long requestsPerMinute = 0;
+        /**
+         * 初始每分钟 token 数, <=0 表示以响应头为准
+         */
+        private long tokensPerMinute = 0;
+        /**
+         * 额度不足时的最大等待时间(毫秒), 超过则直接拒绝
+         */
+        private Integer maxWait = 30000;
+    }
+
+    @Data
+    public static class ConcurrencyLimit {
+        /**
+         * 是否启用, 启用后按 RTT/TTFT 自动调整在途请求数
+         */
+        private boolean enabled = false;
+        /**
+         * 初始并发数
+         */
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        /**
+         * 最大排队数, 0 表示超过限制直接拒绝
+         */
+        private int maxQueue = 100;
+        /**
+         * 排队的最大等待时间(毫秒)
+         */
+        private Integer maxWait = 10000;
+        /**
+         * 429/5xx/超时时的收缩比例
+         */
+        private double backoffRatio = 0.9;
+    }
+
+    @Data
+    public static class StructuredOutput {
+        /**
+         * 启动时预热 JSON Schema 缓存的类型(全限定类名), 如 entity(Class) 使用的 DTO
+         */
+        private List<String> warmUpTypes = new ArrayList<>();
+    }
 
 }
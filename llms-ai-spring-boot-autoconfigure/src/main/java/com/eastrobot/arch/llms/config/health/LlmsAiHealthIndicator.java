@@ -0,0 +1,56 @@
+package com.eastrobot.arch.llms.config.health;
+
+import com.eastrobot.arch.llms.chat.ChatModelProvider;
+import com.eastrobot.arch.llms.chat.api.LlmsAiApi;
+import com.eastrobot.arch.llms.retry.CircuitBreaker;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>模型熔断状态, 通过 /actuator/health 的 llms 组件查看</p>
+ * 存在打开的熔断器时状态为 CIRCUIT_OPEN, 半开时为 CIRCUIT_HALF_OPEN, 可通过 management.endpoint.health.status.* 配置其排序与 http 状态码。
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/30 10:00
+ */
+@Component("llmsHealthIndicator")
+@ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+public class LlmsAiHealthIndicator extends AbstractHealthIndicator {
+
+    public static final Status CIRCUIT_OPEN = new Status("CIRCUIT_OPEN");
+    public static final Status CIRCUIT_HALF_OPEN = new Status("CIRCUIT_HALF_OPEN");
+
+    public LlmsAiHealthIndicator() {
+        super("The llms health check failed");
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        Status status = Status.UP;
+        for (Map.Entry<String, LlmsAiApi> entry : ChatModelProvider.apis().entrySet()) {
+            CircuitBreaker breaker = entry.getValue().getCircuitBreaker();
+            if (breaker == null)
+                continue;
+            CircuitBreaker.State state = breaker.getState();
+            if (state == CircuitBreaker.State.OPEN)
+                status = CIRCUIT_OPEN;
+            else if (state == CircuitBreaker.State.HALF_OPEN && status == Status.UP)
+                status = CIRCUIT_HALF_OPEN;
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("state", state);
+            details.put("failureRate", breaker.getFailureRate() + "%");
+            details.put("slowCallRate", breaker.getSlowCallRate() + "%");
+            details.put("bufferedCalls", breaker.getBufferedCalls());
+            details.put("rejectedCalls", breaker.getRejectedCount());
+            builder.withDetail(entry.getKey(), details);
+        }
+        builder.status(status);
+    }
+}
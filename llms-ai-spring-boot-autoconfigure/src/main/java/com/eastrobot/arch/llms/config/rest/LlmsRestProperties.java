@@ -26,5 +26,65 @@ public class LlmsRestProperties {
      * 请求超时
      */
     private Integer writeTimeout = 60000;
+    /**
+     * 连接池配置, 同一 host 的模型共享一个连接池
+     */
+    private Pool pool = new Pool();
+    /**
+     * 重试预算, 按模型分别统计
+     */
+    private RetryBudget retryBudget = new RetryBudget();
+
+    @Data
+    public static class Pool {
+        /**
+         * 最大连接数
+         */
+        private Integer maxConnections = 500;
+        /**
+         * 等待获取连接的最大请求数, -1 不限制
+         */
+        private Integer pendingAcquireMaxCount = 1000;
+        /**
+         * 等待获取连接超时(毫秒)
+         */
+        private Integer pendingAcquireTimeout = 45000;
+        /**
+         * 连接最大空闲时间(毫秒), <=0 不回收
+         */
+        private Integer maxIdleTime = 30000;
+        /**
+         * 连接最大存活时间(毫秒), <=0 不限制
+         */
+        private Integer maxLifeTime = -1;
+        /**
+         * 连接租借策略, true: LIFO, false: FIFO
+         */
+        private boolean lifo = false;
+        /**
+         * 事件循环线程数, <=0 使用 reactor-netty 全局共享线程
+         */
+        private Integer loopThreads = 0;
+        /**
+         * 是否暴露连接池指标(需引入 micrometer)
+         */
+        private boolean metrics = true;
+    }
+
+    @Data
+    public static class RetryBudget {
+        /**
+         * 是否启用, 关闭后只统计不限制
+         */
+        private boolean enabled = true;
+        /**
+         * 重试次数占首次请求的比例上限
+         */
+        private double ratio = 0.2;
+        /**
+         * 允许的突发重试数
+         */
+        private int maxTokens = 10;
+    }
 
 }
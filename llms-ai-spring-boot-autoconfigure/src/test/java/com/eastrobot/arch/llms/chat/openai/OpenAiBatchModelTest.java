@@ -0,0 +1,119 @@
+package com.eastrobot.arch.llms.chat.openai;
+
+import com.eastrobot.arch.llms.chat.api.LlmsAiBatchApi;
+import com.eastrobot.arch.llms.chat.model.IndexedChatResponse;
+import com.eastrobot.arch.llms.chat.prompt.Prompt;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * <p>离线批处理: 本地 stub 服务模拟 /v1/files 与 /v1/batches</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/20 10:30
+ */
+class OpenAiBatchModelTest {
+
+    private DisposableServer server;
+
+    private final AtomicReference<String> uploaded = new AtomicReference<>();
+
+    private final AtomicInteger polls = new AtomicInteger();
+
+    private final Set<String> deleted = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void start() {
+        this.server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .post("/v1/files", (request, response) -> request.receive().aggregate().asString()
+                                .flatMap(body -> {
+                                    this.uploaded.set(body);
+                                    return response.header("Content-Type", "application/json")
+                                            .sendString(Mono.just("{\"id\":\"file-in\",\"object\":\"file\",\"purpose\":\"batch\"}"))
+                                            .then();
+                                }))
+                        .post("/v1/batches", (request, response) -> response.header("Content-Type", "application/json")
+                                .sendString(Mono.just("{\"id\":\"batch-1\",\"status\":\"validating\",\"input_file_id\":\"file-in\"}")))
+                        .get("/v1/batches/batch-1", (request, response) -> {
+                            int poll = this.polls.incrementAndGet();
+                            // 第一次轮询返回 503, 应在下一次轮询时重试
+                            if (poll == 1)
+                                return response.status(503).send();
+                            String status = poll < 4 ? "in_progress" : "completed";
+                            return response.header("Content-Type", "application/json")
+                                    .sendString(Mono.just("{\"id\":\"batch-1\",\"status\":\"" + status + "\"," +
+                                            "\"input_file_id\":\"file-in\",\"output_file_id\":\"file-out\",\"error_file_id\":\"file-err\"}"));
+                        })
+                        .delete("/v1/files/{fileId}", (request, response) -> {
+                            this.deleted.add(request.param("fileId"));
+                            return response.header("Content-Type", "application/json")
+                                    .sendString(Mono.just("{\"id\":\"" + request.param("fileId") + "\",\"deleted\":true}"));
+                        })
+                        .get("/v1/files/file-out/content", (request, response) -> response.sendString(Mono.just(
+                                line("1", "second") + "\n" + line("0", "first") + "\n")))
+                        .get("/v1/files/file-err/content", (request, response) -> response.sendString(Mono.just(
+                                "{\"id\":\"r-2\",\"custom_id\":\"2\",\"response\":null,\"error\":{\"code\":\"invalid\",\"message\":\"bad\"}}"))))
+                .bindNow();
+    }
+
+    @AfterEach
+    void stop() {
+        this.server.disposeNow();
+    }
+
+    @Test
+    void call() {
+        LlmsAiBatchApi batchApi = new LlmsAiBatchApi("gpt-4o", "http://localhost:" + this.server.port());
+        OpenAiChatModel chatModel = new OpenAiChatModel(batchApi,
+                OpenAiChatOptions.builder().withModel("gpt-4o").withTemperature(0.2f).build());
+        OpenAiBatchModel batchModel = new OpenAiBatchModel(chatModel, batchApi);
+        batchModel.setPollInterval(Duration.ofMillis(50));
+        batchModel.setMaxWait(Duration.ofSeconds(10));
+
+        List<Prompt> prompts = Arrays.asList(new Prompt("a"), new Prompt("b"), new Prompt("c"));
+        List<IndexedChatResponse> responses = batchModel.call(prompts).collectList().block();
+
+        assertNotNull(responses);
+        assertEquals(4, this.polls.get());
+        assertEquals(new HashSet<>(Arrays.asList("file-in", "file-out", "file-err")), this.deleted);
+        String upload = this.uploaded.get();
+        assertTrue(upload.contains("{\"custom_id\":\"0\",\"method\":\"POST\",\"url\":\"/v1/chat/completions\",\"body\":{"));
+        assertTrue(upload.contains("\"model\":\"gpt-4o\""));
+        List<IndexedChatResponse> sorted = responses.stream()
+                .sorted(Comparator.comparingInt(IndexedChatResponse::getIndex))
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList(0, 1, 2), sorted.stream().map(IndexedChatResponse::getIndex).collect(Collectors.toList()));
+        assertEquals("first", sorted.get(0).getContent());
+        assertEquals("second", sorted.get(1).getContent());
+        assertFalse(sorted.get(2).isSuccess());
+    }
+
+    private static String line(String customId, String content) {
+        return new String(("{\"id\":\"r-" + customId + "\",\"custom_id\":\"" + customId + "\",\"response\":{\"status_code\":200," +
+                "\"request_id\":\"req\",\"body\":{\"id\":\"chatcmpl-" + customId + "\",\"object\":\"chat.completion\"," +
+                "\"model\":\"gpt-4o\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\"}," +
+                "\"finish_reason\":\"stop\"}]}},\"error\":null}").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.eastrobot.arch.llms.chat.openai;
+
+import com.eastrobot.arch.llms.chat.prompt.PromptTemplate;
+import com.eastrobot.arch.llms.chat.prompt.TemplateFormat;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.stringtemplate.v4.ST;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>模板渲染对比: 每次新建 ST、缓存编译结果的 ST 与 {@link TemplateFormat#SIMPLE}</p>
+ * 运行: 直接执行 main 方法
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/10/14 10:00
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptTemplateBenchmark {
+
+    private static final String LINE = "Rule: you are {name}, answer in the style of a {voice} about {topic} on {platform}.\n";
+
+    /**
+     * 模板行数, 60 行约 5KB
+     */
+    @Param({"2", "60"})
+    private int lines;
+
+    private String template;
+
+    private final Map<String, Object> model = new HashMap<>();
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+            builder.append(LINE);
+        this.template = builder.toString();
+        this.model.put("name", "孙寒");
+        this.model.put("voice", "pirate");
+        this.model.put("topic", Arrays.asList("refunds", "orders"));
+        this.model.put("platform", "web");
+    }
+
+    /**
+     * 旧路径: 每次解析、编译 ST (不含校验时的再次分词)
+     */
+    @Benchmark
+    public String stUncached() {
+        ST st = new ST(this.template, '{', '}');
+        this.model.forEach(st::add);
+        return st.render();
+    }
+
+    @Benchmark
+    public String stCached() {
+        return new PromptTemplate(this.template, this.model).render();
+    }
+
+    @Benchmark
+    public String simple() {
+        return new PromptTemplate(this.template, this.model, TemplateFormat.SIMPLE).render();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PromptTemplateBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.eastrobot.arch.llms.chat.openai;
+
+import com.eastrobot.arch.llms.chat.openai.model.ChatCompletion;
+import com.eastrobot.arch.llms.chat.openai.model.ChatCompletionChunk;
+import com.eastrobot.arch.llms.common.SseJsonDecoder;
+import com.eastrobot.arch.llms.model.ModelOptionsUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>SSE 流解码对比: String 行 + jsonToObject + chunk 转 completion 与 {@link SseJsonDecoder}</p>
+ * 运行: 直接执行 main 方法
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/10 10:20
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseDecoderBenchmark {
+
+    private static final String CHUNK = "data: {\"id\":\"chatcmpl-9x1\",\"object\":\"chat.completion.chunk\",\"created\":1725934800," +
+            "\"model\":\"gpt-4o\",\"system_fingerprint\":\"fp_1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"你好, token\"}," +
+            "\"logprobs\":null,\"finish_reason\":null}]}\n\n";
+
+    @Param({"512"})
+    private int chunks;
+
+    @Param({"1024"})
+    private int bufferSize;
+
+    private byte[] body;
+
+    private final DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+
+    private final StringDecoder stringDecoder = StringDecoder.allMimeTypes();
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < chunks; i++)
+            builder.append(CHUNK);
+        builder.append("data: [DONE]\n\n");
+        this.body = builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 旧路径: bodyToFlux(String.class) 按行解码 String, jsonToObject 二次解析, 再复制为 ChatCompletion
+     */
+    @Benchmark
+    public void stringPerLine(Blackhole blackhole) {
+        stringDecoder.decode(buffers(), ResolvableType.forClass(String.class), null, Collections.emptyMap())
+                .filter(line -> line.startsWith("data:"))
+                .map(line -> line.substring(5).trim())
+                .takeUntil("[DONE]"::equals)
+                .filter(content -> !"[DONE]".equals(content))
+                .map(content -> toChatCompletion(ModelOptionsUtils.jsonToObject(content, ChatCompletionChunk.class)))
+                .doOnNext(blackhole::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    public void dataBufferDecoder(Blackhole blackhole) {
+        SseJsonDecoder.decode(buffers(), ChatCompletionChunk.class)
+                .doOnNext(blackhole::consume)
+                .blockLast();
+    }
+
+    private Flux<DataBuffer> buffers() {
+        List<DataBuffer> buffers = new ArrayList<>(body.length / bufferSize + 1);
+        for (int offset = 0; offset < body.length; offset += bufferSize) {
+            int length = Math.min(bufferSize, body.length - offset);
+            buffers.add(bufferFactory.wrap(ByteBuffer.wrap(body, offset, length).slice()));
+        }
+        return Flux.fromIterable(buffers);
+    }
+
+    private static ChatCompletion toChatCompletion(ChatCompletionChunk chunk) {
+        List<ChatCompletion.Choice> choices = chunk.getChoices()
+                .stream()
+                .map(chunkChoice -> new ChatCompletion.Choice(chunkChoice.getFinishReason(), chunkChoice.getIndex(),
+                        chunkChoice.getDelta(), chunkChoice.getLogprobs()))
+                .collect(Collectors.toList());
+        return new ChatCompletion(chunk.getId(), choices, chunk.getCreated(), chunk.getModel(),
+                chunk.getSystemFingerprint(), "chat.completion", chunk.getUsage());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SseDecoderBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
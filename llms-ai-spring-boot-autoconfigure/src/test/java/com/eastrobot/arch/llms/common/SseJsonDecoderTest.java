@@ -0,0 +1,65 @@
+package com.eastrobot.arch.llms.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * <p>SSE 解码: 提前结束时已预取的 buffer 须释放</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/10 10:20
+ */
+class SseJsonDecoderTest {
+
+    private final NettyDataBufferFactory factory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    @Test
+    void releasesBuffersOnCancel() {
+        List<NettyDataBuffer> buffers = new ArrayList<>();
+        Sinks.Many<DataBuffer> body = Sinks.many().unicast().onBackpressureBuffer();
+        for (int i = 0; i < 5; i++)
+            body.tryEmitNext(buffer("data: {\"index\":" + i + "}\n\n", buffers));
+        body.tryEmitComplete();
+
+        List<JsonNode> nodes = SseJsonDecoder.decode(body.asFlux(), JsonNode.class).take(1).collectList().block();
+
+        assertNotNull(nodes);
+        assertEquals(1, nodes.size());
+        buffers.forEach(buffer -> assertEquals(0, buffer.getNativeBuffer().refCnt()));
+    }
+
+    @Test
+    void releasesBuffersAfterDone() {
+        List<NettyDataBuffer> buffers = new ArrayList<>();
+        Sinks.Many<DataBuffer> body = Sinks.many().unicast().onBackpressureBuffer();
+        body.tryEmitNext(buffer("data: {\"index\":0}\n\ndata: [DONE]\n\n", buffers));
+        for (int i = 1; i < 4; i++)
+            body.tryEmitNext(buffer("data: {\"index\":" + i + "}\n\n", buffers));
+
+        List<JsonNode> nodes = SseJsonDecoder.decode(body.asFlux(), JsonNode.class).collectList().block();
+
+        assertNotNull(nodes);
+        assertEquals(1, nodes.size());
+        buffers.forEach(buffer -> assertEquals(0, buffer.getNativeBuffer().refCnt()));
+    }
+
+    private NettyDataBuffer buffer(String text, List<NettyDataBuffer> buffers) {
+        NettyDataBuffer buffer = this.factory.wrap(PooledByteBufAllocator.DEFAULT.buffer()
+                .writeBytes(text.getBytes(StandardCharsets.UTF_8)));
+        buffers.add(buffer);
+        return buffer;
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.eastrobot.arch.llms.limiter;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * <p>自适应并发限制: 限制的扩张与收缩、排队溢出与等待超时、取消时归还许可</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/25 10:00
+ */
+class ConcurrencyLimiterTest {
+
+    @Test
+    void growsUnderLoad() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 0, Duration.ZERO);
+
+        // 只有一个在途请求, 样本不能证明可以扩张
+        ConcurrencyLimiter.Permit single = limiter.tryAcquire();
+        Thread.sleep(10);
+        single.success();
+        assertEquals(10, limiter.getLimit());
+
+        List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            permits.add(limiter.acquire().block());
+        assertNull(limiter.tryAcquire());
+        Thread.sleep(10);
+        permits.forEach(ConcurrencyLimiter.Permit::success);
+
+        assertTrue(limiter.getLimit() > 10, limiter.toString());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void shrinksOnLatency() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 0, Duration.ZERO);
+
+        limiter.tryAcquire().success();
+        ConcurrencyLimiter.Permit slow = limiter.tryAcquire();
+        Thread.sleep(20);
+        slow.success();
+
+        assertTrue(limiter.getLimit() < 10, limiter.toString());
+    }
+
+    @Test
+    void shrinksOnDropped() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 2, 100, 0, Duration.ZERO, 0.5);
+
+        limiter.tryAcquire().dropped();
+        assertEquals(5, limiter.getLimit());
+        for (int i = 0; i < 5; i++)
+            limiter.tryAcquire().dropped();
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void rejectsOnQueueOverflow() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1, Duration.ofSeconds(5));
+        ConcurrencyLimiter.Permit permit = limiter.acquire().block();
+
+        AtomicReference<ConcurrencyLimiter.Permit> queued = new AtomicReference<>();
+        limiter.acquire().subscribe(queued::set);
+        assertEquals(1, limiter.getQueueSize());
+        // 有排队的请求时不插队
+        assertNull(limiter.tryAcquire());
+
+        assertThrows(LimitExceededException.class, () -> limiter.acquire().block());
+        assertEquals(1, limiter.getRejectedCount());
+
+        // 释放后许可移交给排队的请求
+        permit.success();
+        assertNotNull(queued.get());
+        assertEquals(0, limiter.getQueueSize());
+        assertEquals(1, limiter.getInFlight());
+        queued.get().ignore();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void rejectsAfterMaxWait() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10, Duration.ofMillis(50));
+        ConcurrencyLimiter.Permit permit = limiter.acquire().block();
+
+        long start = System.nanoTime();
+        assertThrows(LimitExceededException.class, () -> limiter.acquire().block());
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(50).toNanos());
+        assertEquals(0, limiter.getQueueSize());
+        assertEquals(1, limiter.getRejectedCount());
+
+        permit.success();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void rejectsWithoutQueue() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0, Duration.ofSeconds(5));
+        limiter.acquire().block();
+
+        assertThrows(LimitExceededException.class, () -> limiter.acquire().block());
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    void releasesOnCancel() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10, Duration.ofSeconds(5));
+        ConcurrencyLimiter.Permit permit = limiter.acquire().block();
+
+        // 排队中取消: 移出队列, 不占用许可
+        AtomicReference<ConcurrencyLimiter.Permit> cancelled = new AtomicReference<>();
+        Disposable waiting = limiter.acquire().subscribe(cancelled::set);
+        assertEquals(1, limiter.getQueueSize());
+        waiting.dispose();
+        assertEquals(0, limiter.getQueueSize());
+
+        permit.ignore();
+        assertNull(cancelled.get());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getRejectedCount());
+
+        // 释放操作只生效一次
+        ConcurrencyLimiter.Permit next = limiter.acquire().block();
+        next.ignore();
+        next.success();
+        next.dropped();
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, limiter.getLimit());
+        assertNotNull(limiter.tryAcquire());
+    }
+
+}
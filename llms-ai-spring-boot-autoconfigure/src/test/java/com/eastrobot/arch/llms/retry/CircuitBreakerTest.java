@@ -0,0 +1,132 @@
+package com.eastrobot.arch.llms.retry;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * <p>熔断器: 失败率/慢调用率打开、半开探测名额与取消的计入方式</p>
+ *
+ * @author han.sun
+ * @version 6.0.0
+ * @since 2024/9/30 10:00
+ */
+class CircuitBreakerTest {
+
+    @Test
+    void opensOnFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker("failure", 50, 100, Duration.ofSeconds(30),
+                10, 4, Duration.ofMinutes(1), 2);
+
+        breaker.acquire().success();
+        breaker.acquire().failure();
+        breaker.acquire().failure();
+        // 未达到 minimumCalls, 不计算失败率
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.acquire().success();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        CircuitOpenException e = assertThrows(CircuitOpenException.class, breaker::acquire);
+        assertEquals(CircuitBreaker.State.OPEN, e.getState());
+        assertTrue(e.getRemaining().toMillis() > 0);
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    void opensOnSlowCallRate() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("slow", 100, 50, Duration.ofMillis(20),
+                10, 2, Duration.ofMinutes(1), 2);
+
+        breaker.acquire().success();
+        CircuitBreaker.Permit slow = breaker.acquire();
+        Thread.sleep(30);
+        slow.success();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void streamSlowCallUsesFirstToken() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("ttft", 100, 50, Duration.ofMillis(20),
+                10, 1, Duration.ofMinutes(1), 2);
+
+        CircuitBreaker.Permit permit = breaker.acquire();
+        permit.firstToken();
+        Thread.sleep(30);
+        permit.success();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getSlowCallRate());
+    }
+
+    @Test
+    void halfOpenProbes() throws InterruptedException {
+        CircuitBreaker breaker = open(Duration.ofMillis(50), 2);
+        Thread.sleep(60);
+
+        CircuitBreaker.Permit first = breaker.acquire();
+        CircuitBreaker.Permit second = breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // 探测名额用完后快速失败
+        CircuitOpenException e = assertThrows(CircuitOpenException.class, breaker::acquire);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, e.getState());
+
+        // ignore 归还探测名额
+        first.ignore();
+        CircuitBreaker.Permit third = breaker.acquire();
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+
+        second.success();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        third.success();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire().success();
+    }
+
+    @Test
+    void halfOpenFailureReopens() throws InterruptedException {
+        CircuitBreaker breaker = open(Duration.ofMillis(50), 2);
+        Thread.sleep(60);
+
+        CircuitBreaker.Permit first = breaker.acquire();
+        CircuitBreaker.Permit second = breaker.acquire();
+        first.failure();
+        second.success();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void cancelAfterFirstTokenCountsAsSuccess() {
+        CircuitBreaker breaker = new CircuitBreaker("cancel", 50, 100, Duration.ofSeconds(30),
+                10, 2, Duration.ofMinutes(1), 2);
+
+        CircuitBreaker.Permit streamed = breaker.acquire();
+        streamed.firstToken();
+        streamed.cancel();
+        assertEquals(1, breaker.getBufferedCalls());
+        assertEquals(0, breaker.getFailureRate());
+
+        // 未收到数据的取消不计入窗口
+        breaker.acquire().cancel();
+        assertEquals(1, breaker.getBufferedCalls());
+
+        // 结束操作只生效一次
+        streamed.failure();
+        assertEquals(1, breaker.getBufferedCalls());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private static CircuitBreaker open(Duration openDuration, int permittedHalfOpenCalls) {
+        CircuitBreaker breaker = new CircuitBreaker("probe", 50, 100, Duration.ofSeconds(30),
+                1, 1, openDuration, permittedHalfOpenCalls);
+        breaker.acquire().failure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+}